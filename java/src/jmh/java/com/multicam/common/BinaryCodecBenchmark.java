@@ -0,0 +1,103 @@
+package com.multicam.common;
+
+import com.multicam.common.UploadTypes.UploadItem;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Status polling round trip: JSON versus the compact binary codec.
+ * <p>
+ * Encoded sizes for each parameter set are listed in the README.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BinaryCodecBenchmark {
+
+    @Param({"0", "50"})
+    public int queueSize;
+
+    private CommandMessage command;
+    private StatusResponse status;
+    private ByteBuffer buffer;
+    private ByteBuffer jsonStatus;
+    private ByteBuffer binaryStatus;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        command = new CommandMessage(CommandType.DEVICE_STATUS, 1729000000.123456, "controller", null);
+        status = new StatusResponse("Mountain-A1B2C3D4", "uploading", 1729000000.456);
+        status.batteryLevel = 85.5;
+        status.deviceType = DeviceType.IOS_IPHONE.getValue();
+        status.capabilities = Capabilities.supported();
+        for (int i = 0; i < queueSize; i++) {
+            status.uploadQueue.add(new UploadItem("video_" + (1729000000 + i) + ".mp4", 52428800L,
+                    10485760L, 20.0, 2621440L, "uploading", "https://bucket.s3.amazonaws.com/video.mp4", null));
+        }
+        buffer = ByteBuffer.allocate(1 << 20);
+        jsonStatus = encode(WireFormat.JSON);
+        binaryStatus = encode(WireFormat.BINARY);
+    }
+
+    private ByteBuffer encode(WireFormat format) {
+        buffer.clear();
+        format.write(status, buffer);
+        buffer.flip();
+        ByteBuffer encoded = ByteBuffer.allocate(buffer.remaining());
+        encoded.put(buffer).flip();
+        return encoded;
+    }
+
+    @Benchmark
+    public ByteBuffer encodeCommandJson() {
+        buffer.clear();
+        WireFormat.JSON.write(command, buffer);
+        return buffer;
+    }
+
+    @Benchmark
+    public ByteBuffer encodeCommandBinary() {
+        buffer.clear();
+        WireFormat.BINARY.write(command, buffer);
+        return buffer;
+    }
+
+    @Benchmark
+    public ByteBuffer encodeStatusJson() {
+        buffer.clear();
+        WireFormat.JSON.write(status, buffer);
+        return buffer;
+    }
+
+    @Benchmark
+    public ByteBuffer encodeStatusBinary() {
+        buffer.clear();
+        WireFormat.BINARY.write(status, buffer);
+        return buffer;
+    }
+
+    @Benchmark
+    public StatusResponse decodeStatusJson() {
+        return WireFormat.JSON.readStatus(jsonStatus.duplicate());
+    }
+
+    @Benchmark
+    public StatusResponse decodeStatusBinary() {
+        return WireFormat.BINARY.readStatus(binaryStatus.duplicate());
+    }
+}
@@ -0,0 +1,97 @@
+package com.multicam.common;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.multicam.common.UploadTypes.UploadItem;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the registered streaming adapters against Gson's reflective adapters.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class JsonAdapterBenchmark {
+
+    /** Gson as the message classes configured it before the streaming adapters */
+    private final Gson reflective = new GsonBuilder().create();
+
+    private final Gson streaming = MultiCamJson.gson();
+
+    @Param({"0", "50"})
+    public int queueSize;
+
+    private CommandMessage command;
+    private String commandJson;
+    private StatusResponse status;
+    private String statusJson;
+
+    @Setup
+    public void setUp() {
+        command = CommandMessage.deviceStatus();
+        commandJson = reflective.toJson(command);
+
+        status = new StatusResponse("Mountain-A1B2C3D4", "uploading", 1729000000.456);
+        status.batteryLevel = 85.5;
+        status.deviceType = "iOS:iPhone";
+        for (int i = 0; i < queueSize; i++) {
+            status.uploadQueue.add(new UploadItem("video_" + (1729000000 + i) + ".mp4", 52428800L,
+                    10485760L, 20.0, 2621440L, "uploading", "https://bucket.s3.amazonaws.com/video.mp4", null));
+        }
+        statusJson = reflective.toJson(status);
+    }
+
+    @Benchmark
+    public String commandToJsonReflective() {
+        return reflective.toJson(command);
+    }
+
+    @Benchmark
+    public String commandToJsonStreaming() {
+        return streaming.toJson(command);
+    }
+
+    @Benchmark
+    public CommandMessage commandFromJsonReflective() {
+        return reflective.fromJson(commandJson, CommandMessage.class);
+    }
+
+    @Benchmark
+    public CommandMessage commandFromJsonStreaming() {
+        return streaming.fromJson(commandJson, CommandMessage.class);
+    }
+
+    @Benchmark
+    public String statusToJsonReflective() {
+        return reflective.toJson(status);
+    }
+
+    @Benchmark
+    public String statusToJsonStreaming() {
+        return streaming.toJson(status);
+    }
+
+    @Benchmark
+    public StatusResponse statusFromJsonReflective() {
+        return reflective.fromJson(statusJson, StatusResponse.class);
+    }
+
+    @Benchmark
+    public StatusResponse statusFromJsonStreaming() {
+        return streaming.fromJson(statusJson, StatusResponse.class);
+    }
+}
@@ -0,0 +1,223 @@
+package com.multicam.common;
+
+import com.multicam.common.FileTypes.ErrorResponse;
+import com.multicam.common.FileTypes.FileMetadata;
+import com.multicam.common.FileTypes.FileResponse;
+import com.multicam.common.FileTypes.ListFilesResponse;
+import com.multicam.common.FileTypes.StopRecordingResponse;
+import com.multicam.common.UploadTypes.UploadItem;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * toJson/fromJson for every message class at realistic sizes.
+ * <p>
+ * UploadItem and FileMetadata have no JSON methods of their own and are
+ * measured through the status and listing payloads that carry them.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MessageBenchmark {
+
+    /**
+     * Fixed-size messages: commands, file headers and short replies.
+     */
+    @State(Scope.Benchmark)
+    public static class Messages {
+        CommandMessage command;
+        String commandJson;
+        CommandMessage upload;
+        String uploadJson;
+        FileResponse fileResponse;
+        String fileResponseJson;
+        StopRecordingResponse stopResponse;
+        String stopResponseJson;
+        ErrorResponse errorResponse;
+        String errorResponseJson;
+
+        @Setup
+        public void setUp() {
+            command = CommandMessage.startRecording(1729000003.5, "controller");
+            commandJson = command.toJson();
+            upload = CommandMessage.uploadToCloudWithIAM("video_1729000000.mp4", "multicam-uploads",
+                    "sessions/2024-10-15/Mountain-A1B2C3D4/video_1729000000.mp4", "ASIAEXAMPLEKEY12345",
+                    "wJalrXUtnFEMI/K7MDENG/bPxRfiCYEXAMPLEKEY", "FwoGZXIvYXdzEBYaDExampleSessionToken", "us-west-2");
+            uploadJson = upload.toJson();
+            fileResponse = new FileResponse("Mountain-A1B2C3D4", "video_1729000000.mp4", 52428800L, "ready");
+            fileResponseJson = fileResponse.toJson();
+            stopResponse = new StopRecordingResponse("Mountain-A1B2C3D4", "recording_stopped", 1729000030.456,
+                    "video_1729000000.mp4", 52428800L);
+            stopResponseJson = stopResponse.toJson();
+            errorResponse = new ErrorResponse("Mountain-A1B2C3D4", "file_not_found", 1729000000.456,
+                    "File not found: video_1729000000.mp4");
+            errorResponseJson = errorResponse.toJson();
+        }
+    }
+
+    /**
+     * Status responses with an idle or busy upload queue.
+     */
+    @State(Scope.Benchmark)
+    public static class Status {
+        @Param({"0", "50"})
+        public int queueSize;
+
+        StatusResponse status;
+        String json;
+        byte[] utf8;
+
+        @Setup
+        public void setUp() {
+            status = new StatusResponse("Mountain-A1B2C3D4", "uploading", 1729000000.456);
+            status.batteryLevel = 85.5;
+            status.deviceType = DeviceType.IOS_IPHONE.getValue();
+            for (int i = 0; i < queueSize; i++) {
+                status.uploadQueue.add(new UploadItem("video_" + (1729000000 + i) + ".mp4", 52428800L,
+                        10485760L, 20.0, 2621440L, "uploading", "https://bucket.s3.amazonaws.com/video.mp4", null));
+            }
+            json = status.toJson();
+            utf8 = json.getBytes(StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * LIST_FILES replies from an empty device and one holding a long session.
+     */
+    @State(Scope.Benchmark)
+    public static class Listing {
+        @Param({"0", "5000"})
+        public int fileCount;
+
+        ListFilesResponse listing;
+        String json;
+        byte[] utf8;
+
+        @Setup
+        public void setUp() {
+            List<FileMetadata> files = new ArrayList<>(fileCount);
+            for (int i = 0; i < fileCount; i++) {
+                double created = 1729000000.0 + i * 60;
+                files.add(new FileMetadata("video_" + (long) created + ".mp4", 52428800L + i, created, created + 59.5));
+            }
+            listing = new ListFilesResponse("Mountain-A1B2C3D4", "ready", 1729000000.456, files);
+            json = listing.toJson();
+            utf8 = json.getBytes(StandardCharsets.UTF_8);
+        }
+    }
+
+    // CommandMessage
+
+    @Benchmark
+    public String commandToJson(Messages m) {
+        return m.command.toJson();
+    }
+
+    @Benchmark
+    public CommandMessage commandFromJson(Messages m) {
+        return CommandMessage.fromJson(m.commandJson);
+    }
+
+    @Benchmark
+    public String uploadCommandToJson(Messages m) {
+        return m.upload.toJson();
+    }
+
+    @Benchmark
+    public CommandMessage uploadCommandFromJson(Messages m) {
+        return CommandMessage.fromJson(m.uploadJson);
+    }
+
+    // StatusResponse and UploadItem
+
+    @Benchmark
+    public String statusToJson(Status s) {
+        return s.status.toJson();
+    }
+
+    @Benchmark
+    public StatusResponse statusFromJson(Status s) {
+        return StatusResponse.fromJson(s.json);
+    }
+
+    @Benchmark
+    public StatusResponse statusFromStream(Status s) throws IOException {
+        return StatusResponse.fromStream(new ByteArrayInputStream(s.utf8));
+    }
+
+    // FileResponse, StopRecordingResponse and ErrorResponse
+
+    @Benchmark
+    public String fileResponseToJson(Messages m) {
+        return m.fileResponse.toJson();
+    }
+
+    @Benchmark
+    public FileResponse fileResponseFromJson(Messages m) {
+        return FileResponse.fromJson(m.fileResponseJson);
+    }
+
+    @Benchmark
+    public String stopResponseToJson(Messages m) {
+        return m.stopResponse.toJson();
+    }
+
+    @Benchmark
+    public StopRecordingResponse stopResponseFromJson(Messages m) {
+        return StopRecordingResponse.fromJson(m.stopResponseJson);
+    }
+
+    @Benchmark
+    public String errorResponseToJson(Messages m) {
+        return m.errorResponse.toJson();
+    }
+
+    @Benchmark
+    public ErrorResponse errorResponseFromJson(Messages m) {
+        return ErrorResponse.fromJson(m.errorResponseJson);
+    }
+
+    // ListFilesResponse and FileMetadata
+
+    @Benchmark
+    public String listingToJson(Listing l) {
+        return l.listing.toJson();
+    }
+
+    @Benchmark
+    public ListFilesResponse listingFromJson(Listing l) {
+        return ListFilesResponse.fromJson(l.json);
+    }
+
+    @Benchmark
+    public DecodedResponse listingDecode(Listing l) {
+        return ResponseDecoder.decode(CommandType.LIST_FILES, l.json);
+    }
+
+    @Benchmark
+    public void listingStream(Listing l, Blackhole bh) throws IOException {
+        try (ListFilesReader reader = new ListFilesReader(new ByteArrayInputStream(l.utf8))) {
+            while (reader.hasNext()) {
+                bh.consume(reader.next());
+            }
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package com.multicam.common;
+
+import com.multicam.common.UploadTypes.UploadItem;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Health-check field access: full StatusResponse decode versus the lazy view.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class StatusResponseViewBenchmark {
+
+    @Param({"0", "50", "500"})
+    public int queueSize;
+
+    private byte[] json;
+
+    @Setup
+    public void setUp() {
+        StatusResponse status = new StatusResponse("Mountain-A1B2C3D4", "uploading", 1729000000.456);
+        status.batteryLevel = 85.5;
+        for (int i = 0; i < queueSize; i++) {
+            status.uploadQueue.add(new UploadItem("video_" + (1729000000 + i) + ".mp4", 52428800L,
+                    10485760L, 20.0, 2621440L, "uploading", "https://bucket.s3.amazonaws.com/video.mp4", null));
+        }
+        json = status.toJson().getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public void healthCheckFullDecode(Blackhole bh) {
+        StatusResponse response = StatusResponse.fromJson(new String(json, StandardCharsets.UTF_8));
+        bh.consume(response.deviceId);
+        bh.consume(response.getDeviceStatus());
+        bh.consume(response.batteryLevel);
+    }
+
+    @Benchmark
+    public void healthCheckLazyView(Blackhole bh) {
+        StatusResponseView view = StatusResponseView.of(json);
+        bh.consume(view.getDeviceId());
+        bh.consume(view.getDeviceStatus(DeviceStatus.ERROR));
+        bh.consume(view.getBatteryLevel());
+    }
+}
@@ -0,0 +1,112 @@
+package com.multicam.common;
+
+import com.multicam.common.FileTypes.FileResponse;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Loopback GET_VIDEO send: VideoSender (transferTo) versus an 8192-byte copy loop.
+ * <p>
+ * A background thread drains the connection into a direct buffer.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class VideoTransferBenchmark {
+
+    @Param({"1048576", "67108864"})
+    public int fileSize;
+
+    private Path file;
+    private ServerSocketChannel server;
+    private SocketChannel channel;
+    private Thread drain;
+
+    @Setup
+    public void setUp() throws IOException {
+        file = Files.createTempFile("multicam-video", ".mp4");
+        byte[] chunk = new byte[1 << 20];
+        new Random(42).nextBytes(chunk);
+        try (FileChannel out = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            for (int written = 0; written < fileSize; written += chunk.length) {
+                out.write(ByteBuffer.wrap(chunk, 0, Math.min(chunk.length, fileSize - written)));
+            }
+        }
+        server = ServerSocketChannel.open().bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        channel = SocketChannel.open(server.getLocalAddress());
+        SocketChannel peer = server.accept();
+        drain = new Thread(() -> {
+            ByteBuffer sink = ByteBuffer.allocateDirect(1 << 20);
+            try (SocketChannel in = peer) {
+                while (in.read(sink) >= 0) {
+                    sink.clear();
+                }
+            } catch (IOException ignored) {
+                // Connection closed at teardown
+            }
+        }, "video-drain");
+        drain.setDaemon(true);
+        drain.start();
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        channel.close();
+        server.close();
+        drain.join();
+        Files.deleteIfExists(file);
+    }
+
+    @Benchmark
+    public long transferTo() throws IOException {
+        return VideoSender.send(channel, "Mountain-A1B2C3D4", file);
+    }
+
+    @Benchmark
+    public long copyLoop() throws IOException {
+        FileResponse header = new FileResponse("Mountain-A1B2C3D4", String.valueOf(file.getFileName()),
+                Files.size(file), DeviceStatus.READY.getValue());
+        byte[] json = header.toJson().getBytes(StandardCharsets.UTF_8);
+        OutputStream out = channel.socket().getOutputStream();
+        out.write(ByteBuffer.allocate(Framing.HEADER_SIZE).putInt(json.length).array());
+        out.write(json);
+        long sent = 0;
+        try (InputStream in = Files.newInputStream(file)) {
+            byte[] buffer = new byte[Constants.DOWNLOAD_CHUNK_SIZE];
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                out.write(buffer, 0, read);
+                sent += read;
+            }
+        }
+        return sent;
+    }
+}
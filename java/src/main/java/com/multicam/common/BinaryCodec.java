@@ -0,0 +1,891 @@
+package com.multicam.common;
+
+import com.multicam.common.UploadTypes.UploadItem;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Compact binary encoding of {@link CommandMessage} and {@link StatusResponse}.
+ * <p>
+ * Messages are tagged and varint-based: each field is a key
+ * ({@code fieldNumber << 3 | wireType}) followed by its value, and enum values
+ * travel as ordinals. Only devices advertising {@link Capabilities#BINARY_V1}
+ * understand it; see {@link WireFormat#negotiate(StatusResponse)}.
+ * <pre>
+ * Byte 0    0xB1 magic (never the first byte of a UTF-8 JSON document)
+ * Byte 1    Message type: 0x01 CommandMessage, 0x02 StatusResponse
+ * Fields    key varint, then value:
+ *             wire type 0  varint (signed integers zigzag-encoded)
+ *             wire type 1  8-byte IEEE 754 double, big-endian
+ *             wire type 2  varint length, then UTF-8 string or nested message
+ * End       0x00
+ * </pre>
+ * Null fields and zero-valued primitives are omitted (enum ordinals, request
+ * IDs and file ranges are always written when set), so an empty or null list
+ * reads back as the field's default.
+ * Unknown fields are skipped by wire type. A message ends at its terminator,
+ * so decoding from a stream never consumes bytes past it; wrap socket streams
+ * in a {@link java.io.BufferedInputStream} to avoid a read call per byte.
+ */
+public final class BinaryCodec {
+
+    /** First byte of every binary message */
+    public static final byte MAGIC = (byte) 0xB1;
+
+    static final int TYPE_COMMAND = 0x01;
+    static final int TYPE_STATUS = 0x02;
+
+    private static final int END = 0x00;
+
+    private static final int VARINT = 0;
+    private static final int FIXED64 = 1;
+    private static final int LENGTH_DELIMITED = 2;
+
+    // CommandMessage fields
+    private static final int CMD_COMMAND = 1;
+    private static final int CMD_TIMESTAMP = 2;
+    private static final int CMD_DEVICE_ID = 3;
+    private static final int CMD_FILE_NAME = 4;
+    private static final int CMD_UPLOAD_URL = 5;
+    private static final int CMD_S3_BUCKET = 6;
+    private static final int CMD_S3_KEY = 7;
+    private static final int CMD_AWS_ACCESS_KEY_ID = 8;
+    private static final int CMD_AWS_SECRET_ACCESS_KEY = 9;
+    private static final int CMD_AWS_SESSION_TOKEN = 10;
+    private static final int CMD_AWS_REGION = 11;
+    private static final int CMD_REQUEST_ID = 12;
+    private static final int CMD_OFFSET = 13;
+    private static final int CMD_LENGTH = 14;
+
+    // StatusResponse fields
+    private static final int STATUS_DEVICE_ID = 1;
+    private static final int STATUS_STATUS = 2;
+    private static final int STATUS_STATUS_TEXT = 3;
+    private static final int STATUS_TIMESTAMP = 4;
+    private static final int STATUS_BATTERY_LEVEL = 5;
+    private static final int STATUS_DEVICE_TYPE = 6;
+    private static final int STATUS_DEVICE_TYPE_TEXT = 7;
+    private static final int STATUS_UPLOAD_QUEUE = 8;
+    private static final int STATUS_FAILED_UPLOAD_QUEUE = 9;
+    private static final int STATUS_CAPABILITIES = 10;
+    private static final int STATUS_REQUEST_ID = 11;
+
+    // UploadItem fields
+    private static final int ITEM_FILE_NAME = 1;
+    private static final int ITEM_FILE_SIZE = 2;
+    private static final int ITEM_BYTES_UPLOADED = 3;
+    private static final int ITEM_UPLOAD_PROGRESS = 4;
+    private static final int ITEM_UPLOAD_SPEED = 5;
+    private static final int ITEM_STATUS = 6;
+    private static final int ITEM_STATUS_TEXT = 7;
+    private static final int ITEM_UPLOAD_URL = 8;
+    private static final int ITEM_ERROR = 9;
+
+    private static final CommandType[] COMMAND_TYPES = CommandType.values();
+    private static final DeviceStatus[] DEVICE_STATUSES = DeviceStatus.values();
+    private static final DeviceType[] DEVICE_TYPES = DeviceType.values();
+    private static final UploadTypes.UploadStatus[] UPLOAD_STATUSES = UploadTypes.UploadStatus.values();
+
+    /** Encode buffers larger than this are not kept for reuse */
+    private static final int MAX_CACHED_BUFFER = 64 * 1024;
+
+    private static final ThreadLocal<Output> OUTPUT = ThreadLocal.withInitial(Output::new);
+
+    private BinaryCodec() {
+        // Prevent instantiation
+    }
+
+    // Encoding
+
+    /**
+     * Encode a command.
+     *
+     * @param message Command to encode
+     * @return Encoded bytes
+     */
+    public static byte[] encode(CommandMessage message) {
+        return encodeCommand(message).toByteArray();
+    }
+
+    /**
+     * Encode a command directly to an output stream.
+     * <p>
+     * The stream is flushed but not closed.
+     *
+     * @param message Command to encode
+     * @param stream  Stream to write to
+     * @throws IOException if writing to the stream fails
+     */
+    public static void encode(CommandMessage message, OutputStream stream) throws IOException {
+        encodeCommand(message).writeTo(stream);
+    }
+
+    /**
+     * Encode a command into a buffer at its current position.
+     *
+     * @param message Command to encode
+     * @param dst     Buffer to write to
+     * @throws java.nio.BufferOverflowException if the buffer has insufficient space
+     */
+    public static void encode(CommandMessage message, ByteBuffer dst) {
+        encodeCommand(message).writeTo(dst);
+    }
+
+    /**
+     * Encode a status response.
+     *
+     * @param response Response to encode
+     * @return Encoded bytes
+     */
+    public static byte[] encode(StatusResponse response) {
+        return encodeStatus(response).toByteArray();
+    }
+
+    /**
+     * Encode a status response directly to an output stream.
+     * <p>
+     * The stream is flushed but not closed.
+     *
+     * @param response Response to encode
+     * @param stream   Stream to write to
+     * @throws IOException if writing to the stream fails
+     */
+    public static void encode(StatusResponse response, OutputStream stream) throws IOException {
+        encodeStatus(response).writeTo(stream);
+    }
+
+    /**
+     * Encode a status response into a buffer at its current position.
+     *
+     * @param response Response to encode
+     * @param dst      Buffer to write to
+     * @throws java.nio.BufferOverflowException if the buffer has insufficient space
+     */
+    public static void encode(StatusResponse response, ByteBuffer dst) {
+        encodeStatus(response).writeTo(dst);
+    }
+
+    private static Output encodeCommand(CommandMessage message) {
+        Output out = OUTPUT.get().begin(TYPE_COMMAND);
+        if (message.command != null) {
+            out.writeOrdinal(CMD_COMMAND, message.command.ordinal());
+        }
+        out.writeDouble(CMD_TIMESTAMP, message.timestamp);
+        out.writeString(CMD_DEVICE_ID, message.deviceId);
+        out.writeString(CMD_FILE_NAME, message.fileName);
+        out.writeString(CMD_UPLOAD_URL, message.uploadUrl);
+        out.writeString(CMD_S3_BUCKET, message.s3Bucket);
+        out.writeString(CMD_S3_KEY, message.s3Key);
+        out.writeString(CMD_AWS_ACCESS_KEY_ID, message.awsAccessKeyId);
+        out.writeString(CMD_AWS_SECRET_ACCESS_KEY, message.awsSecretAccessKey);
+        out.writeString(CMD_AWS_SESSION_TOKEN, message.awsSessionToken);
+        out.writeString(CMD_AWS_REGION, message.awsRegion);
+        if (message.requestId != null) {
+            out.writeSigned(CMD_REQUEST_ID, message.requestId);
+        }
+        if (message.offset != null) {
+            out.writeSigned(CMD_OFFSET, message.offset);
+        }
+        if (message.length != null) {
+            out.writeSigned(CMD_LENGTH, message.length);
+        }
+        return out.end();
+    }
+
+    private static Output encodeStatus(StatusResponse response) {
+        Output out = OUTPUT.get().begin(TYPE_STATUS);
+        out.writeString(STATUS_DEVICE_ID, response.deviceId);
+        DeviceStatus status = DeviceStatus.fromValue(response.status);
+        if (status != null) {
+            out.writeOrdinal(STATUS_STATUS, status.ordinal());
+        } else {
+            out.writeString(STATUS_STATUS_TEXT, response.status);
+        }
+        out.writeDouble(STATUS_TIMESTAMP, response.timestamp);
+        if (response.batteryLevel != null) {
+            out.writeFixed64(STATUS_BATTERY_LEVEL, response.batteryLevel);
+        }
+        DeviceType deviceType = DeviceType.fromValue(response.deviceType);
+        if (deviceType != null) {
+            out.writeOrdinal(STATUS_DEVICE_TYPE, deviceType.ordinal());
+        } else {
+            out.writeString(STATUS_DEVICE_TYPE_TEXT, response.deviceType);
+        }
+        if (response.requestId != null) {
+            out.writeSigned(STATUS_REQUEST_ID, response.requestId);
+        }
+        writeItems(out, STATUS_UPLOAD_QUEUE, response.uploadQueue);
+        writeItems(out, STATUS_FAILED_UPLOAD_QUEUE, response.failedUploadQueue);
+        if (response.capabilities != null) {
+            for (String capability : response.capabilities) {
+                out.writeString(STATUS_CAPABILITIES, capability);
+            }
+        }
+        return out.end();
+    }
+
+    private static void writeItems(Output out, int field, List<UploadItem> items) {
+        if (items == null) {
+            return;
+        }
+        for (UploadItem item : items) {
+            int mark = out.beginNested(field);
+            out.writeString(ITEM_FILE_NAME, item.fileName);
+            out.writeVarint(ITEM_FILE_SIZE, zigzag(item.fileSize));
+            out.writeVarint(ITEM_BYTES_UPLOADED, zigzag(item.bytesUploaded));
+            out.writeDouble(ITEM_UPLOAD_PROGRESS, item.uploadProgress);
+            out.writeVarint(ITEM_UPLOAD_SPEED, zigzag(item.uploadSpeed));
+            UploadTypes.UploadStatus status = UploadTypes.UploadStatus.fromValue(item.status);
+            if (status != null) {
+                out.writeOrdinal(ITEM_STATUS, status.ordinal());
+            } else {
+                out.writeString(ITEM_STATUS_TEXT, item.status);
+            }
+            out.writeString(ITEM_UPLOAD_URL, item.uploadUrl);
+            out.writeString(ITEM_ERROR, item.error);
+            out.endNested(mark);
+        }
+    }
+
+    // Decoding
+
+    /**
+     * Decode a command from a binary input stream.
+     *
+     * @param stream Stream to read from
+     * @return CommandMessage instance, or null if the stream is empty
+     * @throws IOException              if reading from the stream fails or it ends mid-message
+     * @throws IllegalArgumentException if the input is not a binary command
+     */
+    public static CommandMessage decodeCommand(InputStream stream) throws IOException {
+        Input in = new StreamInput(stream);
+        return in.atEnd() ? null : readCommand(in);
+    }
+
+    /**
+     * Decode a command from the bytes remaining in a buffer.
+     * <p>
+     * The buffer's position is advanced past the message.
+     *
+     * @param src Buffer to read from
+     * @return CommandMessage instance, or null if the buffer is empty
+     * @throws IllegalArgumentException if the input is not a complete binary command
+     */
+    public static CommandMessage decodeCommand(ByteBuffer src) {
+        if (!src.hasRemaining()) {
+            return null;
+        }
+        try {
+            return readCommand(new BufferInput(src));
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Truncated binary message", e);
+        }
+    }
+
+    /**
+     * Decode a status response from a binary input stream.
+     *
+     * @param stream Stream to read from
+     * @return StatusResponse instance, or null if the stream is empty
+     * @throws IOException              if reading from the stream fails or it ends mid-message
+     * @throws IllegalArgumentException if the input is not a binary status response
+     */
+    public static StatusResponse decodeStatus(InputStream stream) throws IOException {
+        Input in = new StreamInput(stream);
+        return in.atEnd() ? null : readStatus(in);
+    }
+
+    /**
+     * Decode a status response from the bytes remaining in a buffer.
+     * <p>
+     * The buffer's position is advanced past the message.
+     *
+     * @param src Buffer to read from
+     * @return StatusResponse instance, or null if the buffer is empty
+     * @throws IllegalArgumentException if the input is not a complete binary status response
+     */
+    public static StatusResponse decodeStatus(ByteBuffer src) {
+        if (!src.hasRemaining()) {
+            return null;
+        }
+        try {
+            return readStatus(new BufferInput(src));
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Truncated binary message", e);
+        }
+    }
+
+    /**
+     * Read the request ID of a binary status response without decoding it.
+     * <p>
+     * Only the field keys are walked; strings and upload items are skipped.
+     * The buffer's position is not changed.
+     *
+     * @param src Buffer holding a binary status response
+     * @return Request ID, or null if the response carries none
+     * @throws IllegalArgumentException if the input is not a complete binary status response
+     */
+    static Long peekRequestId(ByteBuffer src) {
+        Input in = new BufferInput(src.duplicate());
+        try {
+            readHeader(in, TYPE_STATUS);
+            int key;
+            while ((key = in.readKey()) != END) {
+                if (key >>> 3 == STATUS_REQUEST_ID) {
+                    return unzigzag(in.readVarint(key));
+                }
+                in.skip(key);
+            }
+            return null;
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Truncated binary message", e);
+        }
+    }
+
+    private static CommandMessage readCommand(Input in) throws IOException {
+        readHeader(in, TYPE_COMMAND);
+        CommandMessage message = new CommandMessage();
+        int key;
+        while ((key = in.readKey()) != END) {
+            switch (key >>> 3) {
+                case CMD_COMMAND:
+                    message.command = constant(COMMAND_TYPES, in.readVarint(key));
+                    break;
+                case CMD_TIMESTAMP:
+                    message.timestamp = in.readDouble(key);
+                    break;
+                case CMD_DEVICE_ID:
+                    message.deviceId = in.readString(key);
+                    break;
+                case CMD_FILE_NAME:
+                    message.fileName = in.readString(key);
+                    break;
+                case CMD_UPLOAD_URL:
+                    message.uploadUrl = in.readString(key);
+                    break;
+                case CMD_S3_BUCKET:
+                    message.s3Bucket = in.readString(key);
+                    break;
+                case CMD_S3_KEY:
+                    message.s3Key = in.readString(key);
+                    break;
+                case CMD_AWS_ACCESS_KEY_ID:
+                    message.awsAccessKeyId = in.readString(key);
+                    break;
+                case CMD_AWS_SECRET_ACCESS_KEY:
+                    message.awsSecretAccessKey = in.readString(key);
+                    break;
+                case CMD_AWS_SESSION_TOKEN:
+                    message.awsSessionToken = in.readString(key);
+                    break;
+                case CMD_AWS_REGION:
+                    message.awsRegion = in.readString(key);
+                    break;
+                case CMD_REQUEST_ID:
+                    message.requestId = unzigzag(in.readVarint(key));
+                    break;
+                case CMD_OFFSET:
+                    message.offset = unzigzag(in.readVarint(key));
+                    break;
+                case CMD_LENGTH:
+                    message.length = unzigzag(in.readVarint(key));
+                    break;
+                default:
+                    in.skip(key);
+            }
+        }
+        return message;
+    }
+
+    private static StatusResponse readStatus(Input in) throws IOException {
+        readHeader(in, TYPE_STATUS);
+        StatusResponse response = new StatusResponse();
+        int key;
+        while ((key = in.readKey()) != END) {
+            switch (key >>> 3) {
+                case STATUS_DEVICE_ID:
+                    response.deviceId = in.readString(key);
+                    break;
+                case STATUS_STATUS:
+                    DeviceStatus status = constant(DEVICE_STATUSES, in.readVarint(key));
+                    response.status = status != null ? status.getValue() : null;
+                    break;
+                case STATUS_STATUS_TEXT:
+                    response.status = in.readString(key);
+                    break;
+                case STATUS_TIMESTAMP:
+                    response.timestamp = in.readDouble(key);
+                    break;
+                case STATUS_BATTERY_LEVEL:
+                    response.batteryLevel = in.readDouble(key);
+                    break;
+                case STATUS_DEVICE_TYPE:
+                    DeviceType deviceType = constant(DEVICE_TYPES, in.readVarint(key));
+                    response.deviceType = deviceType != null ? deviceType.getValue() : null;
+                    break;
+                case STATUS_DEVICE_TYPE_TEXT:
+                    response.deviceType = in.readString(key);
+                    break;
+                case STATUS_UPLOAD_QUEUE:
+                    response.uploadQueue.add(readItem(in, key));
+                    break;
+                case STATUS_FAILED_UPLOAD_QUEUE:
+                    response.failedUploadQueue.add(readItem(in, key));
+                    break;
+                case STATUS_CAPABILITIES:
+                    if (response.capabilities == null) {
+                        response.capabilities = new ArrayList<>();
+                    }
+                    response.capabilities.add(in.readString(key));
+                    break;
+                case STATUS_REQUEST_ID:
+                    response.requestId = unzigzag(in.readVarint(key));
+                    break;
+                default:
+                    in.skip(key);
+            }
+        }
+        return response;
+    }
+
+    private static UploadItem readItem(Input in, int key) throws IOException {
+        int length = in.readLength(key);
+        long end = in.position + length;
+        UploadItem item = new UploadItem();
+        while (in.position < end) {
+            key = in.readKey();
+            switch (key >>> 3) {
+                case ITEM_FILE_NAME:
+                    item.fileName = in.readString(key);
+                    break;
+                case ITEM_FILE_SIZE:
+                    item.fileSize = unzigzag(in.readVarint(key));
+                    break;
+                case ITEM_BYTES_UPLOADED:
+                    item.bytesUploaded = unzigzag(in.readVarint(key));
+                    break;
+                case ITEM_UPLOAD_PROGRESS:
+                    item.uploadProgress = in.readDouble(key);
+                    break;
+                case ITEM_UPLOAD_SPEED:
+                    item.uploadSpeed = unzigzag(in.readVarint(key));
+                    break;
+                case ITEM_STATUS:
+                    UploadTypes.UploadStatus status = constant(UPLOAD_STATUSES, in.readVarint(key));
+                    item.status = status != null ? status.getValue() : null;
+                    break;
+                case ITEM_STATUS_TEXT:
+                    item.status = in.readString(key);
+                    break;
+                case ITEM_UPLOAD_URL:
+                    item.uploadUrl = in.readString(key);
+                    break;
+                case ITEM_ERROR:
+                    item.error = in.readString(key);
+                    break;
+                case END:
+                    throw new IllegalArgumentException("Unexpected end of message inside upload item");
+                default:
+                    in.skip(key);
+            }
+        }
+        if (in.position != end) {
+            throw new IllegalArgumentException("Upload item overruns its length");
+        }
+        return item;
+    }
+
+    private static void readHeader(Input in, int type) throws IOException {
+        int magic = in.read();
+        if (magic != (MAGIC & 0xFF)) {
+            throw new IllegalArgumentException(String.format("Not a binary message (first byte 0x%02X)", magic));
+        }
+        int actual = in.read();
+        if (actual != type) {
+            throw new IllegalArgumentException(String.format(
+                    "Unexpected message type 0x%02X (expected 0x%02X)", actual, type));
+        }
+    }
+
+    /**
+     * Map a wire ordinal to its constant. Ordinals from a newer peer that this
+     * side does not know decode as null, like unknown JSON enum strings.
+     */
+    private static <E> E constant(E[] constants, long ordinal) {
+        return ordinal >= 0 && ordinal < constants.length ? constants[(int) ordinal] : null;
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * Growable encode buffer, reused per thread.
+     */
+    private static final class Output {
+        private byte[] buf = new byte[256];
+        private int count;
+
+        Output begin(int type) {
+            if (buf.length > MAX_CACHED_BUFFER) {
+                buf = new byte[256];
+            }
+            count = 0;
+            writeByte(MAGIC);
+            writeByte(type);
+            return this;
+        }
+
+        Output end() {
+            writeByte(END);
+            return this;
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(buf, count);
+        }
+
+        void writeTo(OutputStream stream) throws IOException {
+            stream.write(buf, 0, count);
+            stream.flush();
+        }
+
+        void writeTo(ByteBuffer dst) {
+            dst.put(buf, 0, count);
+        }
+
+        void writeVarint(int field, long value) {
+            if (value != 0) {
+                writeRawVarint(field << 3 | VARINT);
+                writeRawVarint(value);
+            }
+        }
+
+        void writeOrdinal(int field, int ordinal) {
+            writeRawVarint(field << 3 | VARINT);
+            writeRawVarint(ordinal);
+        }
+
+        void writeSigned(int field, long value) {
+            writeRawVarint(field << 3 | VARINT);
+            writeRawVarint(zigzag(value));
+        }
+
+        void writeDouble(int field, double value) {
+            if (Double.doubleToRawLongBits(value) != 0) {
+                writeFixed64(field, value);
+            }
+        }
+
+        void writeFixed64(int field, double value) {
+            long bits = Double.doubleToRawLongBits(value);
+            writeRawVarint(field << 3 | FIXED64);
+            ensure(8);
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                buf[count++] = (byte) (bits >>> shift);
+            }
+        }
+
+        void writeString(int field, String value) {
+            if (value == null) {
+                return;
+            }
+            writeRawVarint(field << 3 | LENGTH_DELIMITED);
+            int length = utf8Length(value);
+            writeRawVarint(length);
+            ensure(length);
+            for (int i = 0, n = value.length(); i < n; i++) {
+                char c = value.charAt(i);
+                if (c < 0x80) {
+                    buf[count++] = (byte) c;
+                } else if (c < 0x800) {
+                    buf[count++] = (byte) (0xC0 | c >> 6);
+                    buf[count++] = (byte) (0x80 | c & 0x3F);
+                } else if (Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(value.charAt(i + 1))) {
+                    int cp = Character.toCodePoint(c, value.charAt(++i));
+                    buf[count++] = (byte) (0xF0 | cp >> 18);
+                    buf[count++] = (byte) (0x80 | cp >> 12 & 0x3F);
+                    buf[count++] = (byte) (0x80 | cp >> 6 & 0x3F);
+                    buf[count++] = (byte) (0x80 | cp & 0x3F);
+                } else if (Character.isSurrogate(c)) {
+                    buf[count++] = '?';
+                } else {
+                    buf[count++] = (byte) (0xE0 | c >> 12);
+                    buf[count++] = (byte) (0x80 | c >> 6 & 0x3F);
+                    buf[count++] = (byte) (0x80 | c & 0x3F);
+                }
+            }
+        }
+
+        /**
+         * Start a nested message; its length is patched in by {@link #endNested(int)}.
+         */
+        int beginNested(int field) {
+            writeRawVarint(field << 3 | LENGTH_DELIMITED);
+            ensure(1);
+            return count++;
+        }
+
+        void endNested(int mark) {
+            int length = count - mark - 1;
+            int size = varintSize(length);
+            if (size > 1) {
+                ensure(size - 1);
+                System.arraycopy(buf, mark + 1, buf, mark + size, length);
+                count += size - 1;
+            }
+            for (int i = 0; i < size - 1; i++) {
+                buf[mark + i] = (byte) (length & 0x7F | 0x80);
+                length >>>= 7;
+            }
+            buf[mark + size - 1] = (byte) length;
+        }
+
+        private void writeByte(int b) {
+            ensure(1);
+            buf[count++] = (byte) b;
+        }
+
+        private void writeRawVarint(long value) {
+            ensure(10);
+            while ((value & ~0x7FL) != 0) {
+                buf[count++] = (byte) (value & 0x7F | 0x80);
+                value >>>= 7;
+            }
+            buf[count++] = (byte) value;
+        }
+
+        private void ensure(int extra) {
+            if (count + extra > buf.length) {
+                buf = Arrays.copyOf(buf, Math.max(buf.length * 2, count + extra));
+            }
+        }
+
+        private static int varintSize(int value) {
+            int size = 1;
+            while ((value & ~0x7F) != 0) {
+                value >>>= 7;
+                size++;
+            }
+            return size;
+        }
+
+        private static int utf8Length(String value) {
+            int length = 0;
+            for (int i = 0, n = value.length(); i < n; i++) {
+                char c = value.charAt(i);
+                if (c < 0x80) {
+                    length++;
+                } else if (c < 0x800) {
+                    length += 2;
+                } else if (Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(value.charAt(i + 1))) {
+                    length += 4;
+                    i++;
+                } else if (Character.isSurrogate(c)) {
+                    length++;
+                } else {
+                    length += 3;
+                }
+            }
+            return length;
+        }
+    }
+
+    /**
+     * Byte source that counts consumed bytes to bound nested messages.
+     */
+    private abstract static class Input {
+        long position;
+
+        /** Check for end of input before the first byte of a message */
+        abstract boolean atEnd() throws IOException;
+
+        /** Read the next byte, throwing EOFException at the end of input */
+        abstract int read() throws IOException;
+
+        abstract String readUtf8(int length) throws IOException;
+
+        abstract void skipBytes(long length) throws IOException;
+
+        int readKey() throws IOException {
+            long key = readRawVarint();
+            if (key > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("Field key out of range: " + key);
+            }
+            return (int) key;
+        }
+
+        long readVarint(int key) throws IOException {
+            checkWireType(key, VARINT);
+            return readRawVarint();
+        }
+
+        double readDouble(int key) throws IOException {
+            checkWireType(key, FIXED64);
+            long bits = 0;
+            for (int i = 0; i < 8; i++) {
+                bits = bits << 8 | read();
+            }
+            return Double.longBitsToDouble(bits);
+        }
+
+        String readString(int key) throws IOException {
+            return readUtf8(readLength(key));
+        }
+
+        int readLength(int key) throws IOException {
+            checkWireType(key, LENGTH_DELIMITED);
+            long length = readRawVarint();
+            if (length > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("Field length out of range: " + length);
+            }
+            return (int) length;
+        }
+
+        void skip(int key) throws IOException {
+            switch (key & 7) {
+                case VARINT:
+                    readRawVarint();
+                    break;
+                case FIXED64:
+                    skipBytes(8);
+                    break;
+                case LENGTH_DELIMITED:
+                    skipBytes(readLength(key));
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown wire type " + (key & 7) + " for field " + (key >>> 3));
+            }
+        }
+
+        private long readRawVarint() throws IOException {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                int b = read();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IllegalArgumentException("Malformed varint");
+        }
+
+        private static void checkWireType(int key, int expected) {
+            if ((key & 7) != expected) {
+                throw new IllegalArgumentException("Field " + (key >>> 3) + " has wire type " + (key & 7)
+                        + ", expected " + expected);
+            }
+        }
+    }
+
+    private static final class StreamInput extends Input {
+        private final InputStream stream;
+        private int peeked = -2;
+
+        StreamInput(InputStream stream) {
+            this.stream = stream;
+        }
+
+        @Override
+        boolean atEnd() throws IOException {
+            if (peeked == -2) {
+                peeked = stream.read();
+            }
+            return peeked < 0;
+        }
+
+        @Override
+        int read() throws IOException {
+            int b;
+            if (peeked != -2) {
+                b = peeked;
+                peeked = -2;
+            } else {
+                b = stream.read();
+            }
+            if (b < 0) {
+                throw new EOFException("End of stream inside binary message");
+            }
+            position++;
+            return b;
+        }
+
+        @Override
+        String readUtf8(int length) throws IOException {
+            byte[] bytes = stream.readNBytes(length);
+            if (bytes.length < length) {
+                throw new EOFException("End of stream inside binary message");
+            }
+            position += length;
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        @Override
+        void skipBytes(long length) throws IOException {
+            for (long i = 0; i < length; i++) {
+                read();
+            }
+        }
+    }
+
+    private static final class BufferInput extends Input {
+        private final ByteBuffer buffer;
+
+        BufferInput(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        boolean atEnd() {
+            return !buffer.hasRemaining();
+        }
+
+        @Override
+        int read() throws IOException {
+            if (!buffer.hasRemaining()) {
+                throw new EOFException("End of buffer inside binary message");
+            }
+            position++;
+            return buffer.get() & 0xFF;
+        }
+
+        @Override
+        String readUtf8(int length) throws IOException {
+            if (buffer.remaining() < length) {
+                throw new EOFException("End of buffer inside binary message");
+            }
+            String value;
+            if (buffer.hasArray()) {
+                value = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length,
+                        StandardCharsets.UTF_8);
+                buffer.position(buffer.position() + length);
+            } else {
+                byte[] bytes = new byte[length];
+                buffer.get(bytes);
+                value = new String(bytes, StandardCharsets.UTF_8);
+            }
+            position += length;
+            return value;
+        }
+
+        @Override
+        void skipBytes(long length) throws IOException {
+            if (buffer.remaining() < length) {
+                throw new EOFException("End of buffer inside binary message");
+            }
+            buffer.position(buffer.position() + (int) length);
+            position += length;
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package com.multicam.common;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Optional protocol features a device advertises in the {@code capabilities}
+ * field of its status responses.
+ * <p>
+ * Devices that predate capability negotiation omit the field and are treated
+ * as supporting none of these features.
+ */
+public final class Capabilities {
+
+    /** Compact binary encoding of commands and status responses (see {@link BinaryCodec}) */
+    public static final String BINARY_V1 = "binary-v1";
+
+    /** Persistent connections with length-prefixed frames (see {@link Framing}) */
+    public static final String KEEP_ALIVE_V1 = "keep-alive-v1";
+
+    /** Replies echo the command's {@code requestId} and may arrive out of order on a keep-alive connection */
+    public static final String REQUEST_ID_V1 = "request-id-v1";
+
+    private Capabilities() {
+        // Prevent instantiation
+    }
+
+    /**
+     * Get the capabilities implemented by this library, for devices to
+     * advertise in their status responses.
+     *
+     * @return New mutable list of capability names
+     */
+    public static List<String> supported() {
+        List<String> capabilities = new ArrayList<>();
+        capabilities.add(BINARY_V1);
+        capabilities.add(KEEP_ALIVE_V1);
+        capabilities.add(REQUEST_ID_V1);
+        return capabilities;
+    }
+
+    /**
+     * Check whether a capability list contains a capability.
+     *
+     * @param capabilities Advertised capabilities (null if not advertised)
+     * @param capability   Capability name
+     * @return True if the capability is advertised
+     */
+    public static boolean supports(List<String> capabilities, String capability) {
+        return capabilities != null && capabilities.contains(capability);
+    }
+}
@@ -0,0 +1,44 @@
+package com.multicam.common;
+
+import java.io.Closeable;
+import java.net.InetSocketAddress;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Route for sending commands to one device.
+ * <p>
+ * Obtained from {@link MultiCamClient#channel(InetSocketAddress, StatusResponse)},
+ * which picks a {@link KeepAliveConnection} for devices that advertise
+ * {@link Capabilities#KEEP_ALIVE_V1} and a connection per command otherwise.
+ */
+public interface CommandChannel extends Closeable {
+
+    /**
+     * Get the address of the device this channel sends to.
+     *
+     * @return Device address
+     */
+    InetSocketAddress getDevice();
+
+    /**
+     * Send a command and read the reply as a StatusResponse.
+     *
+     * @param command Command to send
+     * @return Future completing with the device's reply
+     */
+    CompletableFuture<StatusResponse> send(CommandMessage command);
+
+    /**
+     * Send a command and decode the reply by command type.
+     *
+     * @param command Command to send
+     * @return Future completing with the decoded reply
+     */
+    CompletableFuture<DecodedResponse> exchange(CommandMessage command);
+
+    /**
+     * Release the channel. Requests still in flight fail.
+     */
+    @Override
+    void close();
+}
@@ -1,7 +1,10 @@
 package com.multicam.common;
 
 import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
 
 /**
  * Command message sent to a MultiCam device.
@@ -9,7 +12,7 @@ import com.google.gson.GsonBuilder;
  * All commands are sent as JSON over TCP socket.
  */
 public class CommandMessage {
-    private static final Gson gson = new GsonBuilder().create();
+    private static final Gson gson = MultiCamJson.gson();
 
     /** Command type to execute */
     public CommandType command;
@@ -44,6 +47,15 @@ public class CommandMessage {
     /** AWS region (required for UPLOAD_TO_CLOUD command with IAM credentials auth) */
     public String awsRegion;
 
+    /** Correlation ID echoed in the reply, null if replies are matched by order */
+    public Long requestId;
+
+    /** First byte of the file to send (GET_VIDEO only), null for the start of the file */
+    public Long offset;
+
+    /** Number of bytes to send (GET_VIDEO only), null for the rest of the file */
+    public Long length;
+
     public CommandMessage() {
         this.deviceId = "controller";
     }
@@ -157,6 +169,31 @@ public class CommandMessage {
         return new CommandMessage(CommandType.GET_VIDEO, timestamp, deviceId, fileName);
     }
 
+    /**
+     * Create a GET_VIDEO command for a byte range of a file.
+     * <p>
+     * Devices that support ranges echo the served range in the
+     * {@link FileTypes.FileResponse} header; older devices ignore the range
+     * and send the whole file.
+     *
+     * @param fileName File name to download
+     * @param offset   First byte to send
+     * @param length   Number of bytes to send (null for the rest of the file)
+     * @return CommandMessage instance
+     */
+    public static CommandMessage getVideo(String fileName, long offset, Long length) {
+        if (offset < 0) {
+            throw new IllegalArgumentException("Offset must not be negative: " + offset);
+        }
+        if (length != null && length < 0) {
+            throw new IllegalArgumentException("Length must not be negative: " + length);
+        }
+        CommandMessage message = getVideo(fileName);
+        message.offset = offset;
+        message.length = length;
+        return message;
+    }
+
     /**
      * Create a HEARTBEAT command.
      *
@@ -278,6 +315,24 @@ public class CommandMessage {
                 s3Bucket, s3Key, awsAccessKeyId, awsSecretAccessKey, awsSessionToken, awsRegion);
     }
 
+    /**
+     * Create a copy of this command carrying a correlation ID.
+     * <p>
+     * The device echoes the ID in its reply so that replies on a multiplexed
+     * connection can be matched to commands regardless of completion order.
+     *
+     * @param requestId Correlation ID, or null to clear it
+     * @return CommandMessage instance
+     */
+    public CommandMessage withRequestId(Long requestId) {
+        CommandMessage copy = new CommandMessage(command, timestamp, deviceId, fileName, uploadUrl,
+                s3Bucket, s3Key, awsAccessKeyId, awsSecretAccessKey, awsSessionToken, awsRegion);
+        copy.requestId = requestId;
+        copy.offset = offset;
+        copy.length = length;
+        return copy;
+    }
+
     // Serialization
 
     /**
@@ -307,4 +362,49 @@ public class CommandMessage {
     public static CommandMessage fromJson(String json) {
         return gson.fromJson(json, CommandMessage.class);
     }
+
+    /**
+     * Serialize command as UTF-8 JSON directly to an output stream.
+     * <p>
+     * The stream is flushed but not closed.
+     *
+     * @param out Stream to write to
+     * @throws IOException if writing to the stream fails
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        Utf8Streams.write(MessageAdapters.COMMAND_MESSAGE, this, out);
+    }
+
+    /**
+     * Serialize command as UTF-8 JSON into a buffer at its current position.
+     *
+     * @param dst Buffer to write to
+     * @throws java.nio.BufferOverflowException if the buffer has insufficient space
+     */
+    public void writeTo(ByteBuffer dst) {
+        Utf8Streams.write(MessageAdapters.COMMAND_MESSAGE, this, dst);
+    }
+
+    /**
+     * Deserialize command from a UTF-8 JSON input stream.
+     * <p>
+     * Reads a single JSON object; bytes following it may be consumed from the stream.
+     *
+     * @param in Stream to read from
+     * @return CommandMessage instance, or null if the stream is empty
+     * @throws IOException if reading from the stream fails
+     */
+    public static CommandMessage fromStream(InputStream in) throws IOException {
+        return Utf8Streams.read(MessageAdapters.COMMAND_MESSAGE, in);
+    }
+
+    /**
+     * Deserialize command from the UTF-8 JSON bytes remaining in a buffer.
+     *
+     * @param src Buffer to read from
+     * @return CommandMessage instance, or null if the buffer is empty
+     */
+    public static CommandMessage fromBuffer(ByteBuffer src) {
+        return Utf8Streams.read(MessageAdapters.COMMAND_MESSAGE, src);
+    }
 }
@@ -0,0 +1,264 @@
+package com.multicam.common;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Pre-serialized command for a (CommandType, deviceId) pair.
+ * <p>
+ * The JSON encoding is built once; only the {@code timestamp} differs between
+ * sends, and it is written in place as a fixed-width decimal
+ * ({@code SSSSSSSSSS.uuuuuu}, seconds and microseconds). Sending a templated
+ * HEARTBEAT or DEVICE_STATUS therefore allocates nothing.
+ * <p>
+ * Templates are immutable and thread-safe. Buffers obtained from
+ * {@link #newBuffer()} belong to the caller and must not be stamped
+ * concurrently.
+ * <pre>
+ * CommandTemplate heartbeat = CommandTemplate.of(CommandType.HEARTBEAT, "controller");
+ * byte[] buffer = heartbeat.newBuffer();
+ * while (running) {
+ *     heartbeat.stamp(buffer);
+ *     out.write(buffer);
+ * }
+ * </pre>
+ */
+public final class CommandTemplate {
+
+    /** Width of the integer seconds part of the timestamp */
+    private static final int SECONDS_DIGITS = 10;
+
+    /** Width of the fractional microseconds part of the timestamp */
+    private static final int MICROS_DIGITS = 6;
+
+    /** Total width of the encoded timestamp */
+    private static final int TIMESTAMP_WIDTH = SECONDS_DIGITS + 1 + MICROS_DIGITS;
+
+    private static final long MAX_SECONDS = 9_999_999_999L;
+
+    private static final long[] POW10 = {
+            1L, 10L, 100L, 1_000L, 10_000L, 100_000L, 1_000_000L, 10_000_000L, 100_000_000L, 1_000_000_000L
+    };
+
+    /** Filled once here and only read afterwards */
+    private static final Map<CommandType, ConcurrentMap<String, CommandTemplate>> CACHE =
+            new EnumMap<>(CommandType.class);
+
+    static {
+        for (CommandType type : CommandType.values()) {
+            CACHE.put(type, new ConcurrentHashMap<>());
+        }
+    }
+
+    private final CommandType command;
+    private final String deviceId;
+    private final byte[] template;
+    private final int timestampOffset;
+
+    private CommandTemplate(CommandType command, String deviceId) {
+        this.command = command;
+        this.deviceId = deviceId;
+
+        String prefix = "{\"command\":\"" + command.name() + "\",\"timestamp\":";
+        String suffix = ",\"deviceId\":" + MultiCamJson.gson().toJson(deviceId) + "}";
+        byte[] prefixBytes = prefix.getBytes(StandardCharsets.UTF_8);
+        byte[] suffixBytes = suffix.getBytes(StandardCharsets.UTF_8);
+
+        this.timestampOffset = prefixBytes.length;
+        this.template = new byte[prefixBytes.length + TIMESTAMP_WIDTH + suffixBytes.length];
+        System.arraycopy(prefixBytes, 0, template, 0, prefixBytes.length);
+        System.arraycopy(suffixBytes, 0, template, timestampOffset + TIMESTAMP_WIDTH, suffixBytes.length);
+        writeTimestamp(template, timestampOffset, 0L);
+    }
+
+    /**
+     * Get the cached template for a command sent by the controller.
+     *
+     * @param command Command type
+     * @return CommandTemplate instance
+     */
+    public static CommandTemplate of(CommandType command) {
+        return of(command, "controller");
+    }
+
+    /**
+     * Get the cached template for a command and sending device.
+     * <p>
+     * Only commands that carry no fields besides {@code timestamp} and
+     * {@code deviceId} can be templated.
+     *
+     * @param command  Command type
+     * @param deviceId ID of the sending device
+     * @return CommandTemplate instance
+     * @throws IllegalArgumentException if the command requires a file name
+     */
+    public static CommandTemplate of(CommandType command, String deviceId) {
+        if (command == CommandType.GET_VIDEO || command == CommandType.UPLOAD_TO_CLOUD) {
+            throw new IllegalArgumentException(command + " requires a fileName and cannot be templated");
+        }
+        String sender = deviceId != null ? deviceId : "controller";
+        ConcurrentMap<String, CommandTemplate> byDevice = CACHE.get(command);
+        CommandTemplate cached = byDevice.get(sender);
+        if (cached != null) {
+            return cached;
+        }
+        return byDevice.computeIfAbsent(sender, id -> new CommandTemplate(command, id));
+    }
+
+    /**
+     * Get the command type of this template.
+     *
+     * @return CommandType
+     */
+    public CommandType getCommand() {
+        return command;
+    }
+
+    /**
+     * Get the sending device ID of this template.
+     *
+     * @return Device ID
+     */
+    public String getDeviceId() {
+        return deviceId;
+    }
+
+    /**
+     * Get the encoded size of the command in bytes.
+     *
+     * @return Encoded size
+     */
+    public int size() {
+        return template.length;
+    }
+
+    /**
+     * Create a reusable buffer holding the encoded command.
+     *
+     * @return New buffer of {@link #size()} bytes
+     */
+    public byte[] newBuffer() {
+        return template.clone();
+    }
+
+    /**
+     * Patch the current time into a buffer from {@link #newBuffer()}.
+     *
+     * @param buffer Buffer to patch in place
+     */
+    public void stamp(byte[] buffer) {
+        stampMicros(buffer, System.currentTimeMillis() * 1000L);
+    }
+
+    /**
+     * Patch a timestamp into a buffer from {@link #newBuffer()}.
+     *
+     * @param buffer    Buffer to patch in place
+     * @param timestamp Unix timestamp in seconds (with fractional seconds)
+     */
+    public void stamp(byte[] buffer, double timestamp) {
+        stampMicros(buffer, toMicros(timestamp));
+    }
+
+    /**
+     * Patch a timestamp into a buffer from {@link #newBuffer()}.
+     *
+     * @param buffer      Buffer to patch in place
+     * @param epochMicros Unix timestamp in microseconds
+     */
+    public void stampMicros(byte[] buffer, long epochMicros) {
+        if (buffer.length != template.length) {
+            throw new IllegalArgumentException("Buffer was not created by this template");
+        }
+        writeTimestamp(buffer, timestampOffset, epochMicros);
+    }
+
+    /**
+     * Write the command stamped with the current time into a buffer at its position.
+     *
+     * @param dst Buffer to write to
+     * @throws java.nio.BufferOverflowException if the buffer has insufficient space
+     */
+    public void writeTo(ByteBuffer dst) {
+        writeMicros(dst, System.currentTimeMillis() * 1000L);
+    }
+
+    /**
+     * Write the command with the given timestamp into a buffer at its position.
+     *
+     * @param dst       Buffer to write to
+     * @param timestamp Unix timestamp in seconds (with fractional seconds)
+     * @throws java.nio.BufferOverflowException if the buffer has insufficient space
+     */
+    public void writeTo(ByteBuffer dst, double timestamp) {
+        writeMicros(dst, toMicros(timestamp));
+    }
+
+    /**
+     * Write the command stamped with the current time to an output stream.
+     * <p>
+     * The caller supplies the scratch buffer so the write stays allocation-free.
+     *
+     * @param out    Stream to write to
+     * @param buffer Buffer from {@link #newBuffer()}
+     * @throws IOException if writing to the stream fails
+     */
+    public void writeTo(OutputStream out, byte[] buffer) throws IOException {
+        stamp(buffer);
+        out.write(buffer);
+    }
+
+    private void writeMicros(ByteBuffer dst, long epochMicros) {
+        long seconds = checkedSeconds(epochMicros);
+        long micros = epochMicros % 1_000_000L;
+        int pos = dst.position() + timestampOffset;
+        dst.put(template);
+        for (int i = 0; i < TIMESTAMP_WIDTH; i++) {
+            dst.put(pos + i, timestampByte(seconds, micros, i));
+        }
+    }
+
+    private static void writeTimestamp(byte[] buffer, int pos, long epochMicros) {
+        long seconds = checkedSeconds(epochMicros);
+        long micros = epochMicros % 1_000_000L;
+        for (int i = 0; i < TIMESTAMP_WIDTH; i++) {
+            buffer[pos + i] = timestampByte(seconds, micros, i);
+        }
+    }
+
+    /**
+     * Get byte {@code i} of the fixed-width timestamp. Unused leading digits
+     * become spaces so the JSON number never has leading zeros.
+     */
+    private static byte timestampByte(long seconds, long micros, int i) {
+        if (i == SECONDS_DIGITS) {
+            return '.';
+        }
+        if (i > SECONDS_DIGITS) {
+            return (byte) ('0' + (micros / POW10[TIMESTAMP_WIDTH - 1 - i]) % 10);
+        }
+        int exponent = SECONDS_DIGITS - 1 - i;
+        if (exponent > 0 && seconds < POW10[exponent]) {
+            return ' ';
+        }
+        return (byte) ('0' + (seconds / POW10[exponent]) % 10);
+    }
+
+    private static long checkedSeconds(long epochMicros) {
+        long seconds = epochMicros / 1_000_000L;
+        if (epochMicros < 0 || seconds > MAX_SECONDS) {
+            throw new IllegalArgumentException("Timestamp out of range: " + epochMicros + "us");
+        }
+        return seconds;
+    }
+
+    private static long toMicros(double timestamp) {
+        return Math.round(timestamp * 1_000_000.0);
+    }
+}
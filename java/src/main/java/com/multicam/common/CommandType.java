@@ -1,6 +1,7 @@
 package com.multicam.common;
 
 import com.google.gson.annotations.SerializedName;
+import java.nio.ByteBuffer;
 
 /**
  * Available command types for the MultiCam API.
@@ -32,5 +33,65 @@ public enum CommandType {
 
     /** Upload video file to cloud using presigned S3 URL */
     @SerializedName("UPLOAD_TO_CLOUD")
-    UPLOAD_TO_CLOUD
+    UPLOAD_TO_CLOUD;
+
+    private static final Utf8EnumLookup<CommandType> UTF8_LOOKUP =
+            Utf8EnumLookup.of(values(), CommandType::name);
+
+    /**
+     * Check whether the command only reads device state, so sending it twice
+     * has no effect beyond a second reply. Such commands may be retried or
+     * hedged freely.
+     *
+     * @return True for DEVICE_STATUS, HEARTBEAT and LIST_FILES
+     */
+    public boolean isIdempotent() {
+        switch (this) {
+            case DEVICE_STATUS:
+            case HEARTBEAT:
+            case LIST_FILES:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Get CommandType from its wire name.
+     *
+     * @param value Command name (e.g., "HEARTBEAT")
+     * @return CommandType enum value, or null if not found
+     */
+    public static CommandType fromValue(String value) {
+        int ordinal = value != null ? UTF8_LOOKUP.indexOf(value) : -1;
+        return ordinal >= 0 ? UTF8_LOOKUP.constant(ordinal) : null;
+    }
+
+    /**
+     * Get CommandType from the raw UTF-8 bytes of a wire token, without decoding a String.
+     *
+     * @param bytes   Buffer holding the token
+     * @param offset  Start of the token
+     * @param length  Length of the token in bytes
+     * @param unknown Value to return when the token matches no command
+     * @return CommandType enum value, or {@code unknown}
+     */
+    public static CommandType fromUtf8(byte[] bytes, int offset, int length, CommandType unknown) {
+        return UTF8_LOOKUP.lookup(bytes, offset, length, unknown);
+    }
+
+    /**
+     * Get CommandType from the raw UTF-8 bytes of a wire token, without decoding a String.
+     * <p>
+     * Uses absolute indexing; the buffer's position is not changed.
+     *
+     * @param buffer  Buffer holding the token
+     * @param offset  Absolute index of the start of the token
+     * @param length  Length of the token in bytes
+     * @param unknown Value to return when the token matches no command
+     * @return CommandType enum value, or {@code unknown}
+     */
+    public static CommandType fromUtf8(ByteBuffer buffer, int offset, int length, CommandType unknown) {
+        return UTF8_LOOKUP.lookup(buffer, offset, length, unknown);
+    }
 }
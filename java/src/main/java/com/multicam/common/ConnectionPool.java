@@ -0,0 +1,629 @@
+package com.multicam.common;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Per-device pool of command connections, layered on a {@link MultiCamClient}.
+ * <p>
+ * Each device, keyed by its resolved address, may have at most
+ * {@code maxConnectionsPerDevice} sockets open at once; further commands
+ * wait their turn instead of opening more sockets, since phones handle
+ * parallel connections poorly. A pooled socket carries one command at a
+ * time.
+ * <p>
+ * For devices that advertise {@link Capabilities#KEEP_ALIVE_V1}, sockets are
+ * {@link KeepAliveConnection}s that return to the pool after each reply and
+ * are reused by the next command. They can be opened ahead of time with
+ * {@link #prewarm(InetSocketAddress, StatusResponse, int)}. Idle connections
+ * are checked with a HEARTBEAT once they have been idle for the validation
+ * interval, which also keeps the device from timing them out; connections
+ * that fail the check or have been closed by the device are evicted. Other
+ * devices get a connection per command, still subject to the per-device cap.
+ * <p>
+ * The pool learns a device's capabilities from {@link #prewarm}, from
+ * {@link #update(InetSocketAddress, StatusResponse)} and from any status
+ * reply that passes through it. Hit, miss and wait-time counters are
+ * available from {@link #getStats()}.
+ * <pre>
+ * try (ConnectionPool pool = new ConnectionPool(client)) {
+ *     pool.prewarm(device, lastStatus, 1).join();
+ *     StatusResponse status = pool.send(device, CommandMessage.heartbeat()).join();
+ * }
+ * </pre>
+ * Closing the pool closes its connections but not the client.
+ */
+public final class ConnectionPool implements Closeable {
+
+    /** Default cap on open sockets per device */
+    public static final int DEFAULT_MAX_CONNECTIONS_PER_DEVICE = 2;
+
+    /** Default idle time after which a pooled connection is validated */
+    public static final Duration DEFAULT_VALIDATION_INTERVAL = Duration.ofSeconds(20);
+
+    private final MultiCamClient client;
+    private final int maxConnectionsPerDevice;
+    private final long validationNanos;
+    private final ConcurrentMap<InetSocketAddress, Device> devices = new ConcurrentHashMap<>();
+    private final ScheduledFuture<?> sweeper;
+    private volatile boolean closed;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong waits = new AtomicLong();
+    private final AtomicLong totalWaitNanos = new AtomicLong();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+    private final AtomicLong validations = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * Create a pool with the default per-device cap and validation interval.
+     *
+     * @param client Client used to open connections
+     */
+    public ConnectionPool(MultiCamClient client) {
+        this(client, DEFAULT_MAX_CONNECTIONS_PER_DEVICE, DEFAULT_VALIDATION_INTERVAL);
+    }
+
+    /**
+     * Create a pool.
+     *
+     * @param client                  Client used to open connections
+     * @param maxConnectionsPerDevice Cap on open sockets per device
+     * @param validationInterval      Idle time after which a pooled connection is validated
+     */
+    public ConnectionPool(MultiCamClient client, int maxConnectionsPerDevice, Duration validationInterval) {
+        if (maxConnectionsPerDevice < 1) {
+            throw new IllegalArgumentException("maxConnectionsPerDevice must be positive: " + maxConnectionsPerDevice);
+        }
+        if (validationInterval.isNegative() || validationInterval.isZero()) {
+            throw new IllegalArgumentException("Validation interval must be positive: " + validationInterval);
+        }
+        this.client = client;
+        this.maxConnectionsPerDevice = maxConnectionsPerDevice;
+        this.validationNanos = validationInterval.toNanos();
+        long period = Math.max(validationNanos / 2, TimeUnit.MILLISECONDS.toNanos(10));
+        this.sweeper = client.timer().scheduleWithFixedDelay(this::sweep, period, period, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Record a device's capabilities and open keep-alive connections ahead of use.
+     * <p>
+     * Each new connection is confirmed with a HEARTBEAT before it joins the
+     * pool. Devices without keep-alive support have nothing to pre-open; the
+     * future completes immediately.
+     *
+     * @param device      Device address
+     * @param status      Last status response from the device
+     * @param connections Number of connections to have open (capped per device)
+     * @return Future completing when the connections are ready
+     */
+    public CompletableFuture<Void> prewarm(InetSocketAddress device, StatusResponse status, int connections) {
+        Device entry = device(device);
+        entry.update(status);
+        int target = Math.min(connections, maxConnectionsPerDevice);
+        List<CompletableFuture<?>> ready = new ArrayList<>();
+        while (!closed) {
+            synchronized (entry) {
+                if (!entry.keepAlive || entry.open >= target) {
+                    break;
+                }
+                entry.open++;
+            }
+            ready.add(openLease(entry).thenCompose(lease -> lease.channel.send(CommandMessage.heartbeat())
+                    .whenComplete((reply, error) -> release(entry, lease))));
+        }
+        return CompletableFuture.allOf(ready.toArray(new CompletableFuture<?>[0]));
+    }
+
+    /**
+     * Record a device's capabilities from a status response.
+     * <p>
+     * If the device no longer advertises keep-alive support, its idle
+     * connections are closed.
+     *
+     * @param device Device address
+     * @param status Status response from the device
+     */
+    public void update(InetSocketAddress device, StatusResponse status) {
+        device(device).update(status);
+    }
+
+    /**
+     * Send a command through the pool and read the reply as a StatusResponse.
+     *
+     * @param device  Device address
+     * @param command Command to send
+     * @return Future completing with the device's reply
+     * @throws IllegalArgumentException if the command is GET_VIDEO
+     */
+    public CompletableFuture<StatusResponse> send(InetSocketAddress device, CommandMessage command) {
+        checkCommand(command);
+        Device entry = device(device);
+        return run(entry, channel -> channel.send(command)).thenApply(reply -> {
+            entry.update(reply);
+            return reply;
+        });
+    }
+
+    /**
+     * Send a command through the pool and decode the reply by command type.
+     *
+     * @param device  Device address
+     * @param command Command to send
+     * @return Future completing with the decoded reply (see {@link ResponseDecoder})
+     * @throws IllegalArgumentException if the command is GET_VIDEO
+     */
+    public CompletableFuture<DecodedResponse> exchange(InetSocketAddress device, CommandMessage command) {
+        checkCommand(command);
+        Device entry = device(device);
+        return run(entry, channel -> channel.exchange(command)).thenApply(reply -> {
+            if (reply instanceof DecodedResponse.StatusResult) {
+                entry.update(((DecodedResponse.StatusResult) reply).getResponse());
+            }
+            return reply;
+        });
+    }
+
+    /**
+     * Get a channel to one device that routes every command through this pool.
+     * <p>
+     * Closing the channel does nothing; pooled connections belong to the pool.
+     *
+     * @param device Device address
+     * @return CommandChannel instance
+     */
+    public CommandChannel channel(InetSocketAddress device) {
+        return new PooledChannel(device);
+    }
+
+    /**
+     * Get the number of sockets currently open to a device, idle or in use.
+     *
+     * @param device Device address
+     * @return Open socket count
+     */
+    public int openConnections(InetSocketAddress device) {
+        Device entry = devices.get(device);
+        if (entry == null) {
+            return 0;
+        }
+        synchronized (entry) {
+            return entry.open;
+        }
+    }
+
+    /**
+     * Get a snapshot of the pool's counters.
+     *
+     * @return Stats instance
+     */
+    public Stats getStats() {
+        return new Stats(hits.get(), misses.get(), waits.get(), totalWaitNanos.get(), maxWaitNanos.get(),
+                validations.get(), evictions.get());
+    }
+
+    /**
+     * Close all pooled connections and fail commands waiting for one.
+     * The client stays open.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        sweeper.cancel(false);
+        for (Device entry : devices.values()) {
+            List<Idle> idle;
+            List<Waiter> waiting;
+            synchronized (entry) {
+                idle = new ArrayList<>(entry.idle);
+                waiting = new ArrayList<>(entry.waiters);
+                entry.open -= idle.size();
+                entry.idle.clear();
+                entry.waiters.clear();
+            }
+            for (Idle connection : idle) {
+                connection.connection.close();
+            }
+            for (Waiter waiter : waiting) {
+                waiter.future.completeExceptionally(new IllegalStateException("Connection pool is closed"));
+            }
+        }
+    }
+
+    // Leasing
+
+    private Device device(InetSocketAddress address) {
+        Device entry = devices.get(address);
+        return entry != null ? entry : devices.computeIfAbsent(address, Device::new);
+    }
+
+    private static void checkCommand(CommandMessage command) {
+        if (command.command == CommandType.GET_VIDEO) {
+            throw new IllegalArgumentException("GET_VIDEO requires its own connection");
+        }
+    }
+
+    private <T> CompletableFuture<T> run(Device entry, Function<CommandChannel, CompletableFuture<T>> call) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        acquire(entry).whenComplete((lease, error) -> {
+            if (error != null) {
+                result.completeExceptionally(error);
+                return;
+            }
+            CompletableFuture<T> reply;
+            try {
+                reply = call.apply(lease.channel);
+            } catch (RuntimeException e) {
+                release(entry, lease);
+                result.completeExceptionally(e);
+                return;
+            }
+            reply.whenComplete((value, failure) -> {
+                release(entry, lease);
+                if (failure != null) {
+                    result.completeExceptionally(failure);
+                } else {
+                    result.complete(value);
+                }
+            });
+        });
+        return result;
+    }
+
+    private CompletableFuture<Lease> acquire(Device entry) {
+        if (closed) {
+            CompletableFuture<Lease> failed = new CompletableFuture<>();
+            failed.completeExceptionally(new IllegalStateException("Connection pool is closed"));
+            return failed;
+        }
+        List<KeepAliveConnection> dead = new ArrayList<>();
+        Lease reused = null;
+        Waiter waiter = null;
+        synchronized (entry) {
+            while (!entry.idle.isEmpty()) {
+                KeepAliveConnection connection = entry.idle.pollLast().connection;
+                if (connection.isOpen()) {
+                    reused = new Lease(connection);
+                    break;
+                }
+                entry.open--;
+                dead.add(connection);
+            }
+            if (reused == null) {
+                if (entry.open < maxConnectionsPerDevice) {
+                    entry.open++;
+                } else {
+                    waiter = new Waiter();
+                    entry.waiters.add(waiter);
+                }
+            }
+        }
+        evictions.addAndGet(dead.size());
+        if (reused != null) {
+            hits.incrementAndGet();
+            return CompletableFuture.completedFuture(reused);
+        }
+        if (waiter != null) {
+            waits.incrementAndGet();
+            return waiter.future;
+        }
+        misses.incrementAndGet();
+        return openLease(entry);
+    }
+
+    /**
+     * Open a socket for a slot already counted in {@code entry.open}. If it
+     * cannot be opened the slot is released again.
+     */
+    private CompletableFuture<Lease> openLease(Device entry) {
+        CompletableFuture<Lease> future = new CompletableFuture<>();
+        boolean keepAlive;
+        WireFormat format;
+        synchronized (entry) {
+            keepAlive = entry.keepAlive;
+            format = entry.format;
+        }
+        try {
+            future.complete(new Lease(keepAlive
+                    ? client.connect(entry.address, format)
+                    : client.channel(entry.address, null)));
+        } catch (IOException | RuntimeException e) {
+            release(entry, null);
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    /**
+     * Return a lease's slot. A healthy keep-alive connection goes to the next
+     * waiter or back to the idle list; otherwise the slot is freed or handed
+     * to a waiter, which opens a new socket in it. A null lease frees a slot
+     * whose socket could not be opened.
+     */
+    private void release(Device entry, Lease lease) {
+        KeepAliveConnection connection = lease != null && lease.channel instanceof KeepAliveConnection
+                ? (KeepAliveConnection) lease.channel : null;
+        boolean reusable = connection != null && connection.isOpen() && !closed;
+        Waiter waiter;
+        synchronized (entry) {
+            reusable = reusable && entry.keepAlive && connection.getFormat() == entry.format;
+            waiter = entry.waiters.poll();
+            if (waiter == null) {
+                if (reusable) {
+                    entry.idle.add(new Idle(connection, System.nanoTime()));
+                    return;
+                }
+                entry.open--;
+            }
+        }
+        if (connection != null && !reusable) {
+            connection.close();
+        }
+        if (waiter == null) {
+            return;
+        }
+        long waited = System.nanoTime() - waiter.since;
+        totalWaitNanos.addAndGet(waited);
+        maxWaitNanos.accumulateAndGet(waited, Math::max);
+        if (reusable) {
+            hits.incrementAndGet();
+            waiter.future.complete(new Lease(connection));
+        } else {
+            misses.incrementAndGet();
+            openLease(entry).whenComplete((next, error) -> {
+                if (error != null) {
+                    waiter.future.completeExceptionally(error);
+                } else {
+                    waiter.future.complete(next);
+                }
+            });
+        }
+    }
+
+    // Validation
+
+    /**
+     * Take connections idle past the validation interval out of the pool and
+     * check each with a HEARTBEAT; survivors return, failures are evicted.
+     */
+    private void sweep() {
+        long now = System.nanoTime();
+        for (Device entry : devices.values()) {
+            List<KeepAliveConnection> due = new ArrayList<>();
+            synchronized (entry) {
+                entry.idle.removeIf(idle -> {
+                    if (now - idle.since < validationNanos) {
+                        return false;
+                    }
+                    due.add(idle.connection);
+                    return true;
+                });
+            }
+            for (KeepAliveConnection connection : due) {
+                validations.incrementAndGet();
+                Lease lease = new Lease(connection);
+                connection.send(CommandMessage.heartbeat()).whenComplete((reply, error) -> {
+                    if (error != null) {
+                        evictions.incrementAndGet();
+                        connection.close();
+                    }
+                    release(entry, lease);
+                });
+            }
+        }
+    }
+
+    /**
+     * Pool state for one device. Guarded by its own monitor.
+     */
+    private static final class Device {
+        final InetSocketAddress address;
+
+        /** Sockets open to the device, idle or leased */
+        int open;
+        boolean keepAlive;
+        WireFormat format = WireFormat.JSON;
+        final ArrayDeque<Idle> idle = new ArrayDeque<>();
+        final ArrayDeque<Waiter> waiters = new ArrayDeque<>();
+
+        Device(InetSocketAddress address) {
+            this.address = address;
+        }
+
+        void update(StatusResponse status) {
+            if (status == null || status.capabilities == null) {
+                return;
+            }
+            List<Idle> stale = new ArrayList<>();
+            synchronized (this) {
+                keepAlive = status.supports(Capabilities.KEEP_ALIVE_V1);
+                format = WireFormat.negotiate(status);
+                idle.removeIf(connection -> {
+                    if (keepAlive && connection.connection.getFormat() == format) {
+                        return false;
+                    }
+                    stale.add(connection);
+                    open--;
+                    return true;
+                });
+            }
+            for (Idle connection : stale) {
+                connection.connection.close();
+            }
+        }
+    }
+
+    private static final class Idle {
+        final KeepAliveConnection connection;
+        final long since;
+
+        Idle(KeepAliveConnection connection, long since) {
+            this.connection = connection;
+            this.since = since;
+        }
+    }
+
+    private static final class Lease {
+        final CommandChannel channel;
+
+        Lease(CommandChannel channel) {
+            this.channel = channel;
+        }
+    }
+
+    private static final class Waiter {
+        final CompletableFuture<Lease> future = new CompletableFuture<>();
+        final long since = System.nanoTime();
+    }
+
+    /**
+     * Channel to one device that leases a pooled connection per command.
+     */
+    private final class PooledChannel implements CommandChannel {
+        private final InetSocketAddress device;
+
+        PooledChannel(InetSocketAddress device) {
+            this.device = device;
+        }
+
+        @Override
+        public InetSocketAddress getDevice() {
+            return device;
+        }
+
+        @Override
+        public CompletableFuture<StatusResponse> send(CommandMessage command) {
+            return ConnectionPool.this.send(device, command);
+        }
+
+        @Override
+        public CompletableFuture<DecodedResponse> exchange(CommandMessage command) {
+            return ConnectionPool.this.exchange(device, command);
+        }
+
+        @Override
+        public void close() {
+            // Connections belong to the pool
+        }
+    }
+
+    /**
+     * Snapshot of pool counters.
+     * <p>
+     * A hit is a command served by an already-open connection; a miss is a
+     * command that needed a new socket. A wait is a command that found its
+     * device at the connection cap and queued for a slot.
+     */
+    public static final class Stats {
+        private final long hits;
+        private final long misses;
+        private final long waits;
+        private final long totalWaitNanos;
+        private final long maxWaitNanos;
+        private final long validations;
+        private final long evictions;
+
+        Stats(long hits, long misses, long waits, long totalWaitNanos, long maxWaitNanos,
+              long validations, long evictions) {
+            this.hits = hits;
+            this.misses = misses;
+            this.waits = waits;
+            this.totalWaitNanos = totalWaitNanos;
+            this.maxWaitNanos = maxWaitNanos;
+            this.validations = validations;
+            this.evictions = evictions;
+        }
+
+        /**
+         * Get the number of commands served by an already-open connection.
+         *
+         * @return Hit count
+         */
+        public long getHits() {
+            return hits;
+        }
+
+        /**
+         * Get the number of commands that needed a new socket.
+         *
+         * @return Miss count
+         */
+        public long getMisses() {
+            return misses;
+        }
+
+        /**
+         * Get the fraction of commands served by an already-open connection.
+         *
+         * @return Hit ratio (0.0-1.0), or 0.0 if no commands were sent
+         */
+        public double getHitRatio() {
+            long total = hits + misses;
+            return total == 0 ? 0.0 : (double) hits / total;
+        }
+
+        /**
+         * Get the number of commands that queued for a connection slot.
+         *
+         * @return Wait count
+         */
+        public long getWaits() {
+            return waits;
+        }
+
+        /**
+         * Get the total time commands spent queued for a connection slot.
+         *
+         * @return Total wait time
+         */
+        public Duration getTotalWait() {
+            return Duration.ofNanos(totalWaitNanos);
+        }
+
+        /**
+         * Get the longest time a command spent queued for a connection slot.
+         *
+         * @return Longest wait time
+         */
+        public Duration getMaxWait() {
+            return Duration.ofNanos(maxWaitNanos);
+        }
+
+        /**
+         * Get the number of HEARTBEAT checks run on idle connections.
+         *
+         * @return Validation count
+         */
+        public long getValidations() {
+            return validations;
+        }
+
+        /**
+         * Get the number of pooled connections discarded as dead.
+         *
+         * @return Eviction count
+         */
+        public long getEvictions() {
+            return evictions;
+        }
+
+        @Override
+        public String toString() {
+            return "Stats{hits=" + hits + ", misses=" + misses + ", waits=" + waits
+                    + ", totalWait=" + getTotalWait() + ", maxWait=" + getMaxWait()
+                    + ", validations=" + validations + ", evictions=" + evictions + "}";
+        }
+    }
+}
@@ -0,0 +1,268 @@
+package com.multicam.common;
+
+import com.multicam.common.FileTypes.ErrorResponse;
+import com.multicam.common.FileTypes.ListFilesResponse;
+import com.multicam.common.FileTypes.StopRecordingResponse;
+
+/**
+ * A device reply decoded by {@link ResponseDecoder}.
+ * <p>
+ * The set of subclasses is closed: every instance is exactly one of
+ * {@link StatusResult}, {@link StopRecordingResult}, {@link ListFilesResult}
+ * or {@link ErrorResult}, as reported by {@link #getKind()}.
+ */
+public abstract class DecodedResponse {
+
+    /**
+     * Shape of a decoded reply.
+     */
+    public enum Kind {
+        /** Generic status reply (StatusResponse) */
+        STATUS,
+
+        /** Reply carrying a recorded or queued file (StopRecordingResponse) */
+        STOP_RECORDING,
+
+        /** Reply to LIST_FILES (ListFilesResponse) */
+        LIST_FILES,
+
+        /** Error reply (ErrorResponse) */
+        ERROR
+    }
+
+    private DecodedResponse() {
+    }
+
+    /**
+     * Get the shape of this reply.
+     *
+     * @return Kind of the decoded reply
+     */
+    public abstract Kind getKind();
+
+    /**
+     * Get the ID of the responding device.
+     *
+     * @return Device ID
+     */
+    public abstract String getDeviceId();
+
+    /**
+     * Get the raw status string of the reply.
+     *
+     * @return Status string
+     */
+    public abstract String getStatus();
+
+    /**
+     * Get the correlation ID echoed from the command.
+     *
+     * @return Request ID, or null if the command carried none
+     */
+    public abstract Long getRequestId();
+
+    /**
+     * Get the status as a DeviceStatus enum value.
+     *
+     * @return DeviceStatus enum value, or null if unknown
+     */
+    public DeviceStatus getDeviceStatus() {
+        return DeviceStatus.fromValue(getStatus());
+    }
+
+    /**
+     * Check if this reply is an error reply.
+     *
+     * @return true if this is an {@link ErrorResult}
+     */
+    public boolean isError() {
+        return getKind() == Kind.ERROR;
+    }
+
+    /**
+     * Serialize the underlying response to JSON string.
+     *
+     * @return JSON string representation
+     */
+    public abstract String toJson();
+
+    /**
+     * Decoded {@link StatusResponse}.
+     */
+    public static final class StatusResult extends DecodedResponse {
+        private final StatusResponse response;
+
+        StatusResult(StatusResponse response) {
+            this.response = response;
+        }
+
+        /**
+         * Get the decoded response.
+         *
+         * @return StatusResponse instance
+         */
+        public StatusResponse getResponse() {
+            return response;
+        }
+
+        @Override
+        public Kind getKind() {
+            return Kind.STATUS;
+        }
+
+        @Override
+        public String getDeviceId() {
+            return response.deviceId;
+        }
+
+        @Override
+        public String getStatus() {
+            return response.status;
+        }
+
+        @Override
+        public Long getRequestId() {
+            return response.requestId;
+        }
+
+        @Override
+        public String toJson() {
+            return response.toJson();
+        }
+    }
+
+    /**
+     * Decoded {@link StopRecordingResponse}.
+     */
+    public static final class StopRecordingResult extends DecodedResponse {
+        private final StopRecordingResponse response;
+
+        StopRecordingResult(StopRecordingResponse response) {
+            this.response = response;
+        }
+
+        /**
+         * Get the decoded response.
+         *
+         * @return StopRecordingResponse instance
+         */
+        public StopRecordingResponse getResponse() {
+            return response;
+        }
+
+        @Override
+        public Kind getKind() {
+            return Kind.STOP_RECORDING;
+        }
+
+        @Override
+        public String getDeviceId() {
+            return response.deviceId;
+        }
+
+        @Override
+        public String getStatus() {
+            return response.status;
+        }
+
+        @Override
+        public Long getRequestId() {
+            return response.requestId;
+        }
+
+        @Override
+        public String toJson() {
+            return response.toJson();
+        }
+    }
+
+    /**
+     * Decoded {@link ListFilesResponse}.
+     */
+    public static final class ListFilesResult extends DecodedResponse {
+        private final ListFilesResponse response;
+
+        ListFilesResult(ListFilesResponse response) {
+            this.response = response;
+        }
+
+        /**
+         * Get the decoded response.
+         *
+         * @return ListFilesResponse instance
+         */
+        public ListFilesResponse getResponse() {
+            return response;
+        }
+
+        @Override
+        public Kind getKind() {
+            return Kind.LIST_FILES;
+        }
+
+        @Override
+        public String getDeviceId() {
+            return response.deviceId;
+        }
+
+        @Override
+        public String getStatus() {
+            return response.status;
+        }
+
+        @Override
+        public Long getRequestId() {
+            return response.requestId;
+        }
+
+        @Override
+        public String toJson() {
+            return response.toJson();
+        }
+    }
+
+    /**
+     * Decoded {@link ErrorResponse}.
+     */
+    public static final class ErrorResult extends DecodedResponse {
+        private final ErrorResponse response;
+
+        ErrorResult(ErrorResponse response) {
+            this.response = response;
+        }
+
+        /**
+         * Get the decoded response.
+         *
+         * @return ErrorResponse instance
+         */
+        public ErrorResponse getResponse() {
+            return response;
+        }
+
+        @Override
+        public Kind getKind() {
+            return Kind.ERROR;
+        }
+
+        @Override
+        public String getDeviceId() {
+            return response.deviceId;
+        }
+
+        @Override
+        public String getStatus() {
+            return response.status;
+        }
+
+        @Override
+        public Long getRequestId() {
+            return response.requestId;
+        }
+
+        @Override
+        public String toJson() {
+            return response.toJson();
+        }
+    }
+}
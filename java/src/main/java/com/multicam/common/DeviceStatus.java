@@ -1,6 +1,7 @@
 package com.multicam.common;
 
 import com.google.gson.annotations.SerializedName;
+import java.nio.ByteBuffer;
 
 /**
  * Device status values used in API responses.
@@ -60,6 +61,9 @@ public enum DeviceStatus {
     @SerializedName("upload_failed")
     UPLOAD_FAILED("upload_failed");
 
+    private static final Utf8EnumLookup<DeviceStatus> UTF8_LOOKUP =
+            Utf8EnumLookup.of(values(), DeviceStatus::getValue);
+
     private final String value;
 
     DeviceStatus(String value) {
@@ -118,11 +122,35 @@ public enum DeviceStatus {
      * @return DeviceStatus enum value, or null if not found
      */
     public static DeviceStatus fromValue(String value) {
-        for (DeviceStatus status : values()) {
-            if (status.value.equals(value)) {
-                return status;
-            }
-        }
-        return null;
+        int ordinal = value != null ? UTF8_LOOKUP.indexOf(value) : -1;
+        return ordinal >= 0 ? UTF8_LOOKUP.constant(ordinal) : null;
+    }
+
+    /**
+     * Get DeviceStatus from the raw UTF-8 bytes of a wire token, without decoding a String.
+     *
+     * @param bytes   Buffer holding the token
+     * @param offset  Start of the token
+     * @param length  Length of the token in bytes
+     * @param unknown Value to return when the token matches no status
+     * @return DeviceStatus enum value, or {@code unknown}
+     */
+    public static DeviceStatus fromUtf8(byte[] bytes, int offset, int length, DeviceStatus unknown) {
+        return UTF8_LOOKUP.lookup(bytes, offset, length, unknown);
+    }
+
+    /**
+     * Get DeviceStatus from the raw UTF-8 bytes of a wire token, without decoding a String.
+     * <p>
+     * Uses absolute indexing; the buffer's position is not changed.
+     *
+     * @param buffer  Buffer holding the token
+     * @param offset  Absolute index of the start of the token
+     * @param length  Length of the token in bytes
+     * @param unknown Value to return when the token matches no status
+     * @return DeviceStatus enum value, or {@code unknown}
+     */
+    public static DeviceStatus fromUtf8(ByteBuffer buffer, int offset, int length, DeviceStatus unknown) {
+        return UTF8_LOOKUP.lookup(buffer, offset, length, unknown);
     }
 }
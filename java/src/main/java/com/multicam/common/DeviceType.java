@@ -1,6 +1,7 @@
 package com.multicam.common;
 
 import com.google.gson.annotations.SerializedName;
+import java.nio.ByteBuffer;
 
 /**
  * Device type values used in API responses.
@@ -22,6 +23,9 @@ public enum DeviceType {
     @SerializedName("Oak")
     OAK("Oak");
 
+    private static final Utf8EnumLookup<DeviceType> UTF8_LOOKUP =
+            Utf8EnumLookup.of(values(), DeviceType::getValue);
+
     private final String value;
 
     DeviceType(String value) {
@@ -44,11 +48,35 @@ public enum DeviceType {
      * @return DeviceType enum value, or null if not found
      */
     public static DeviceType fromValue(String value) {
-        for (DeviceType type : values()) {
-            if (type.value.equals(value)) {
-                return type;
-            }
-        }
-        return null;
+        int ordinal = value != null ? UTF8_LOOKUP.indexOf(value) : -1;
+        return ordinal >= 0 ? UTF8_LOOKUP.constant(ordinal) : null;
+    }
+
+    /**
+     * Get DeviceType from the raw UTF-8 bytes of a wire token, without decoding a String.
+     *
+     * @param bytes   Buffer holding the token
+     * @param offset  Start of the token
+     * @param length  Length of the token in bytes
+     * @param unknown Value to return when the token matches no device type
+     * @return DeviceType enum value, or {@code unknown}
+     */
+    public static DeviceType fromUtf8(byte[] bytes, int offset, int length, DeviceType unknown) {
+        return UTF8_LOOKUP.lookup(bytes, offset, length, unknown);
+    }
+
+    /**
+     * Get DeviceType from the raw UTF-8 bytes of a wire token, without decoding a String.
+     * <p>
+     * Uses absolute indexing; the buffer's position is not changed.
+     *
+     * @param buffer  Buffer holding the token
+     * @param offset  Absolute index of the start of the token
+     * @param length  Length of the token in bytes
+     * @param unknown Value to return when the token matches no device type
+     * @return DeviceType enum value, or {@code unknown}
+     */
+    public static DeviceType fromUtf8(ByteBuffer buffer, int offset, int length, DeviceType unknown) {
+        return UTF8_LOOKUP.lookup(buffer, offset, length, unknown);
     }
 }
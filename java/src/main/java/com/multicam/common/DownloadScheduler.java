@@ -0,0 +1,415 @@
+package com.multicam.common;
+
+import com.multicam.common.FileTypes.FileMetadata;
+import com.multicam.common.FileTypes.FileResponse;
+import java.io.Closeable;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fleet-wide GET_VIDEO download queue with a global bandwidth and connection budget.
+ * <p>
+ * After a shoot, pulling every file from every device at once collapses the
+ * access point. The scheduler queues download jobs and runs them under the
+ * following limits:
+ * <ul>
+ *   <li>at most {@code maxConnections} transfers at once;</li>
+ *   <li>at most {@code maxPerDevice} transfers from any one device, since a
+ *       phone's radio and storage are shared by its transfers;</li>
+ *   <li>a total of {@code bytesPerSecond}, enforced by a token bucket that all
+ *       transfers draw from as data arrives. Reads that overdraw the bucket
+ *       wait, and TCP flow control slows the devices down.</li>
+ * </ul>
+ * When a slot frees up, the first queued job in {@link Order} whose device
+ * is below its limit is started.
+ * <p>
+ * Each job is a resumable download ({@link VideoReceiver#resume}). A failed
+ * transfer is retried from its last checkpoint, up to {@link #MAX_ATTEMPTS}
+ * times, unless the device no longer has the file.
+ * <pre>
+ * try (DownloadScheduler scheduler = new DownloadScheduler(8, 2, 40_000_000L, DownloadScheduler.Order.SHORTEST_FIRST)) {
+ *     for (FileMetadata file : listing.files) {
+ *         scheduler.submit(device, file, directory.resolve(file.fileName));
+ *     }
+ *     scheduler.awaitIdle();
+ * }
+ * </pre>
+ */
+public final class DownloadScheduler implements Closeable {
+
+    /** Default maximum number of transfers at once */
+    public static final int DEFAULT_MAX_CONNECTIONS = 8;
+
+    /** Default maximum number of transfers at once from one device */
+    public static final int DEFAULT_MAX_PER_DEVICE = 1;
+
+    /** Attempts per job before its future fails */
+    public static final int MAX_ATTEMPTS = 3;
+
+    /** Largest burst the bandwidth budget allows, as a fraction of one second's budget */
+    private static final double BURST_SECONDS = 0.1;
+
+    /**
+     * Order in which queued jobs are started.
+     */
+    public enum Order {
+        /** Smallest file first; finishes the most files soonest */
+        SHORTEST_FIRST,
+
+        /** Largest file first; avoids a large file starting last and running alone */
+        LONGEST_FIRST,
+
+        /** Earliest deadline first; jobs without a deadline follow, shortest first */
+        EARLIEST_DEADLINE
+    }
+
+    private final VideoReceiver receiver;
+    private final int maxConnections;
+    private final int maxPerDevice;
+    private final Bandwidth bandwidth;
+    private final ExecutorService executor;
+
+    private final Object lock = new Object();
+
+    /** Guarded by lock */
+    private final NavigableSet<Job> queue;
+    private final Map<InetSocketAddress, Integer> perDevice = new HashMap<>();
+    private long submitted;
+    private int running;
+    private boolean closed;
+
+    /**
+     * Create a scheduler with the default receiver and connection limits and no bandwidth limit.
+     *
+     * @param order Order in which queued jobs are started
+     */
+    public DownloadScheduler(Order order) {
+        this(DEFAULT_MAX_CONNECTIONS, DEFAULT_MAX_PER_DEVICE, 0, order);
+    }
+
+    /**
+     * Create a scheduler with the default receiver.
+     *
+     * @param maxConnections Maximum number of transfers at once
+     * @param maxPerDevice   Maximum number of transfers at once from one device
+     * @param bytesPerSecond Total bandwidth budget (0 for no limit)
+     * @param order          Order in which queued jobs are started
+     */
+    public DownloadScheduler(int maxConnections, int maxPerDevice, long bytesPerSecond, Order order) {
+        this(new VideoReceiver(), maxConnections, maxPerDevice, bytesPerSecond, order);
+    }
+
+    /**
+     * Create a scheduler.
+     *
+     * @param receiver       Receiver used for each transfer
+     * @param maxConnections Maximum number of transfers at once
+     * @param maxPerDevice   Maximum number of transfers at once from one device
+     * @param bytesPerSecond Total bandwidth budget (0 for no limit)
+     * @param order          Order in which queued jobs are started
+     */
+    public DownloadScheduler(VideoReceiver receiver, int maxConnections, int maxPerDevice, long bytesPerSecond,
+                             Order order) {
+        if (maxConnections <= 0) {
+            throw new IllegalArgumentException("maxConnections must be positive: " + maxConnections);
+        }
+        if (maxPerDevice <= 0) {
+            throw new IllegalArgumentException("maxPerDevice must be positive: " + maxPerDevice);
+        }
+        if (bytesPerSecond < 0) {
+            throw new IllegalArgumentException("bytesPerSecond must not be negative: " + bytesPerSecond);
+        }
+        this.receiver = receiver;
+        this.maxConnections = maxConnections;
+        this.maxPerDevice = maxPerDevice;
+        this.bandwidth = bytesPerSecond > 0 ? new Bandwidth(bytesPerSecond) : null;
+        this.queue = new TreeSet<>(comparator(order));
+        this.executor = FleetExecutors.newExecutor(maxConnections);
+    }
+
+    /**
+     * Queue a download.
+     *
+     * @param device Device address
+     * @param file   File to download, as listed by the device
+     * @param target File to write
+     * @return Future completing with the header of the finished transfer
+     */
+    public CompletableFuture<FileResponse> submit(InetSocketAddress device, FileMetadata file, Path target) {
+        return submit(device, file, target, null);
+    }
+
+    /**
+     * Queue a download with a deadline, used for ordering by {@link Order#EARLIEST_DEADLINE}.
+     * <p>
+     * A missed deadline does not fail the job.
+     *
+     * @param device   Device address
+     * @param file     File to download, as listed by the device
+     * @param target   File to write
+     * @param deadline Time by which the file is wanted (null for none)
+     * @return Future completing with the header of the finished transfer
+     */
+    public CompletableFuture<FileResponse> submit(InetSocketAddress device, FileMetadata file, Path target,
+                                                  Instant deadline) {
+        Job job;
+        synchronized (lock) {
+            if (closed) {
+                CompletableFuture<FileResponse> rejected = new CompletableFuture<>();
+                rejected.completeExceptionally(new RejectedExecutionException("Scheduler is closed"));
+                return rejected;
+            }
+            job = new Job(device, file, target, deadline, submitted++);
+            queue.add(job);
+            dispatch();
+        }
+        job.result.whenComplete((header, error) -> {
+            if (job.result.isCancelled()) {
+                synchronized (lock) {
+                    if (queue.remove(job)) {
+                        lock.notifyAll();
+                    }
+                }
+                job.cancel();
+            }
+        });
+        return job.result;
+    }
+
+    /**
+     * Get the number of jobs waiting for a slot.
+     *
+     * @return Queued job count
+     */
+    public int getQueued() {
+        synchronized (lock) {
+            return queue.size();
+        }
+    }
+
+    /**
+     * Get the number of transfers in progress.
+     *
+     * @return Running job count
+     */
+    public int getRunning() {
+        synchronized (lock) {
+            return running;
+        }
+    }
+
+    /**
+     * Wait until every submitted job has finished.
+     *
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void awaitIdle() throws InterruptedException {
+        synchronized (lock) {
+            while (running > 0 || !queue.isEmpty()) {
+                lock.wait();
+            }
+        }
+    }
+
+    /**
+     * Cancel queued jobs, interrupt running transfers and shut down the
+     * executor. Interrupted transfers keep their progress files and can be
+     * resumed later.
+     */
+    @Override
+    public void close() {
+        synchronized (lock) {
+            closed = true;
+            for (Job job : queue) {
+                job.result.cancel(false);
+            }
+            queue.clear();
+            lock.notifyAll();
+        }
+        executor.shutdownNow();
+    }
+
+    /**
+     * Start queued jobs while slots are free. Called with lock held.
+     */
+    private void dispatch() {
+        Iterator<Job> candidates = queue.iterator();
+        while (running < maxConnections && candidates.hasNext()) {
+            Job job = candidates.next();
+            if (job.result.isDone()) {
+                candidates.remove();
+                continue;
+            }
+            int active = perDevice.getOrDefault(job.device, 0);
+            if (active >= maxPerDevice) {
+                continue;
+            }
+            candidates.remove();
+            perDevice.put(job.device, active + 1);
+            running++;
+            try {
+                job.task = executor.submit(() -> run(job));
+            } catch (RejectedExecutionException e) {
+                finished(job);
+                job.result.completeExceptionally(e);
+            }
+        }
+        lock.notifyAll();
+    }
+
+    private void run(Job job) {
+        try {
+            IOException failure = null;
+            for (int attempt = 0; attempt < MAX_ATTEMPTS && !job.result.isDone(); attempt++) {
+                try {
+                    job.result.complete(receiver.resume(job.device, job.file.fileName, job.target,
+                            bandwidth != null ? bandwidth::acquire : null));
+                    return;
+                } catch (FileNotFoundException e) {
+                    failure = e;
+                    break;
+                } catch (IOException e) {
+                    if (Thread.currentThread().isInterrupted()) {
+                        failure = e;
+                        break;
+                    }
+                    if (failure != null) {
+                        e.addSuppressed(failure);
+                    }
+                    failure = e;
+                }
+            }
+            if (failure != null) {
+                job.result.completeExceptionally(failure);
+            }
+        } catch (RuntimeException e) {
+            job.result.completeExceptionally(e);
+        } finally {
+            if (!job.result.isDone()) {
+                job.result.completeExceptionally(new CancellationException("Scheduler closed"));
+            }
+            synchronized (lock) {
+                finished(job);
+                if (!closed) {
+                    dispatch();
+                }
+                lock.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Release a job's slots. Called with lock held.
+     */
+    private void finished(Job job) {
+        running--;
+        int active = perDevice.get(job.device) - 1;
+        if (active == 0) {
+            perDevice.remove(job.device);
+        } else {
+            perDevice.put(job.device, active);
+        }
+    }
+
+    private static Comparator<Job> comparator(Order order) {
+        Comparator<Job> bySize = Comparator.comparingLong(job -> job.file.fileSize);
+        Comparator<Job> primary;
+        switch (order) {
+            case SHORTEST_FIRST:
+                primary = bySize;
+                break;
+            case LONGEST_FIRST:
+                primary = bySize.reversed();
+                break;
+            case EARLIEST_DEADLINE:
+                primary = Comparator.<Job, Instant>comparing(job -> job.deadline,
+                        Comparator.nullsLast(Comparator.naturalOrder())).thenComparing(bySize);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown order: " + order);
+        }
+        return primary.thenComparingLong(job -> job.sequence);
+    }
+
+    /**
+     * One queued or running download.
+     */
+    private static final class Job {
+        final InetSocketAddress device;
+        final FileMetadata file;
+        final Path target;
+        final Instant deadline;
+        final long sequence;
+        final CompletableFuture<FileResponse> result = new CompletableFuture<>();
+        volatile Future<?> task;
+
+        Job(InetSocketAddress device, FileMetadata file, Path target, Instant deadline, long sequence) {
+            this.device = device;
+            this.file = file;
+            this.target = target;
+            this.deadline = deadline;
+            this.sequence = sequence;
+        }
+
+        void cancel() {
+            Future<?> running = task;
+            if (running != null) {
+                running.cancel(true);
+            }
+        }
+    }
+
+    /**
+     * Token bucket shared by all transfers. Bytes are paid for after they
+     * are read; a reader that overdraws the bucket waits until the debt is
+     * refilled.
+     */
+    private static final class Bandwidth {
+        private final double bytesPerNano;
+        private final double burst;
+
+        /** Guarded by this */
+        private double tokens;
+        private long refilled = System.nanoTime();
+
+        Bandwidth(long bytesPerSecond) {
+            this.bytesPerNano = bytesPerSecond / 1e9;
+            this.burst = bytesPerSecond * BURST_SECONDS;
+            this.tokens = burst;
+        }
+
+        void acquire(long bytes) {
+            long debtNanos;
+            synchronized (this) {
+                long now = System.nanoTime();
+                tokens = Math.min(burst, tokens + (now - refilled) * bytesPerNano);
+                refilled = now;
+                tokens -= bytes;
+                debtNanos = tokens < 0 ? (long) (-tokens / bytesPerNano) : 0;
+            }
+            if (debtNanos > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(debtNanos);
+                } catch (InterruptedException e) {
+                    // The next channel read fails with ClosedByInterruptException
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+}
@@ -1,7 +1,10 @@
 package com.multicam.common;
 
 import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.util.List;
 import java.util.ArrayList;
 
@@ -9,7 +12,7 @@ import java.util.ArrayList;
  * File-related data types for MultiCam API.
  */
 public class FileTypes {
-    private static final Gson gson = new GsonBuilder().create();
+    private static final Gson gson = MultiCamJson.gson();
 
     /**
      * Metadata for a single video file.
@@ -64,6 +67,12 @@ public class FileTypes {
         /** Status (typically "ready") */
         public String status;
 
+        /** First byte of the file carried by the payload, null if the payload is the whole file */
+        public Long offset;
+
+        /** Number of payload bytes, null if the payload is the whole file */
+        public Long length;
+
         public FileResponse() {
         }
 
@@ -75,6 +84,27 @@ public class FileTypes {
             this.status = status;
         }
 
+        /**
+         * Get the position in the file of the first payload byte.
+         *
+         * @return Offset, 0 if the payload is the whole file
+         */
+        public long getPayloadOffset() {
+            return offset != null ? offset : 0;
+        }
+
+        /**
+         * Get the number of payload bytes that follow the header.
+         *
+         * @return Payload size in bytes
+         */
+        public long getPayloadSize() {
+            if (length != null) {
+                return length;
+            }
+            return offset != null ? fileSize - offset : fileSize;
+        }
+
         /**
          * Serialize file response to JSON string.
          *
@@ -93,6 +123,51 @@ public class FileTypes {
         public static FileResponse fromJson(String json) {
             return gson.fromJson(json, FileResponse.class);
         }
+
+        /**
+         * Serialize file response as UTF-8 JSON directly to an output stream.
+         * <p>
+         * The stream is flushed but not closed.
+         *
+         * @param out Stream to write to
+         * @throws IOException if writing to the stream fails
+         */
+        public void writeTo(OutputStream out) throws IOException {
+            Utf8Streams.write(MessageAdapters.FILE_RESPONSE, this, out);
+        }
+
+        /**
+         * Serialize file response as UTF-8 JSON into a buffer at its current position.
+         *
+         * @param dst Buffer to write to
+         * @throws java.nio.BufferOverflowException if the buffer has insufficient space
+         */
+        public void writeTo(ByteBuffer dst) {
+            Utf8Streams.write(MessageAdapters.FILE_RESPONSE, this, dst);
+        }
+
+        /**
+         * Deserialize file response from a UTF-8 JSON input stream.
+         * <p>
+         * Reads a single JSON object; bytes following it may be consumed from the stream.
+         *
+         * @param in Stream to read from
+         * @return FileResponse instance, or null if the stream is empty
+         * @throws IOException if reading from the stream fails
+         */
+        public static FileResponse fromStream(InputStream in) throws IOException {
+            return Utf8Streams.read(MessageAdapters.FILE_RESPONSE, in);
+        }
+
+        /**
+         * Deserialize file response from the UTF-8 JSON bytes remaining in a buffer.
+         *
+         * @param src Buffer to read from
+         * @return FileResponse instance, or null if the buffer is empty
+         */
+        public static FileResponse fromBuffer(ByteBuffer src) {
+            return Utf8Streams.read(MessageAdapters.FILE_RESPONSE, src);
+        }
     }
 
     /**
@@ -113,6 +188,9 @@ public class FileTypes {
         /** List of available files */
         public List<FileMetadata> files;
 
+        /** Correlation ID echoed from the command, null if the command carried none */
+        public Long requestId;
+
         public ListFilesResponse() {
             this.files = new ArrayList<>();
         }
@@ -143,6 +221,51 @@ public class FileTypes {
         public static ListFilesResponse fromJson(String json) {
             return gson.fromJson(json, ListFilesResponse.class);
         }
+
+        /**
+         * Serialize list files response as UTF-8 JSON directly to an output stream.
+         * <p>
+         * The stream is flushed but not closed.
+         *
+         * @param out Stream to write to
+         * @throws IOException if writing to the stream fails
+         */
+        public void writeTo(OutputStream out) throws IOException {
+            Utf8Streams.write(MessageAdapters.LIST_FILES_RESPONSE, this, out);
+        }
+
+        /**
+         * Serialize list files response as UTF-8 JSON into a buffer at its current position.
+         *
+         * @param dst Buffer to write to
+         * @throws java.nio.BufferOverflowException if the buffer has insufficient space
+         */
+        public void writeTo(ByteBuffer dst) {
+            Utf8Streams.write(MessageAdapters.LIST_FILES_RESPONSE, this, dst);
+        }
+
+        /**
+         * Deserialize list files response from a UTF-8 JSON input stream.
+         * <p>
+         * Reads a single JSON object; bytes following it may be consumed from the stream.
+         *
+         * @param in Stream to read from
+         * @return ListFilesResponse instance, or null if the stream is empty
+         * @throws IOException if reading from the stream fails
+         */
+        public static ListFilesResponse fromStream(InputStream in) throws IOException {
+            return Utf8Streams.read(MessageAdapters.LIST_FILES_RESPONSE, in);
+        }
+
+        /**
+         * Deserialize list files response from the UTF-8 JSON bytes remaining in a buffer.
+         *
+         * @param src Buffer to read from
+         * @return ListFilesResponse instance, or null if the buffer is empty
+         */
+        public static ListFilesResponse fromBuffer(ByteBuffer src) {
+            return Utf8Streams.read(MessageAdapters.LIST_FILES_RESPONSE, src);
+        }
     }
 
     /**
@@ -164,6 +287,9 @@ public class FileTypes {
         /** File size in bytes */
         public long fileSize;
 
+        /** Correlation ID echoed from the command, null if the command carried none */
+        public Long requestId;
+
         public StopRecordingResponse() {
         }
 
@@ -194,6 +320,51 @@ public class FileTypes {
         public static StopRecordingResponse fromJson(String json) {
             return gson.fromJson(json, StopRecordingResponse.class);
         }
+
+        /**
+         * Serialize response as UTF-8 JSON directly to an output stream.
+         * <p>
+         * The stream is flushed but not closed.
+         *
+         * @param out Stream to write to
+         * @throws IOException if writing to the stream fails
+         */
+        public void writeTo(OutputStream out) throws IOException {
+            Utf8Streams.write(MessageAdapters.STOP_RECORDING_RESPONSE, this, out);
+        }
+
+        /**
+         * Serialize response as UTF-8 JSON into a buffer at its current position.
+         *
+         * @param dst Buffer to write to
+         * @throws java.nio.BufferOverflowException if the buffer has insufficient space
+         */
+        public void writeTo(ByteBuffer dst) {
+            Utf8Streams.write(MessageAdapters.STOP_RECORDING_RESPONSE, this, dst);
+        }
+
+        /**
+         * Deserialize response from a UTF-8 JSON input stream.
+         * <p>
+         * Reads a single JSON object; bytes following it may be consumed from the stream.
+         *
+         * @param in Stream to read from
+         * @return StopRecordingResponse instance, or null if the stream is empty
+         * @throws IOException if reading from the stream fails
+         */
+        public static StopRecordingResponse fromStream(InputStream in) throws IOException {
+            return Utf8Streams.read(MessageAdapters.STOP_RECORDING_RESPONSE, in);
+        }
+
+        /**
+         * Deserialize response from the UTF-8 JSON bytes remaining in a buffer.
+         *
+         * @param src Buffer to read from
+         * @return StopRecordingResponse instance, or null if the buffer is empty
+         */
+        public static StopRecordingResponse fromBuffer(ByteBuffer src) {
+            return Utf8Streams.read(MessageAdapters.STOP_RECORDING_RESPONSE, src);
+        }
     }
 
     /**
@@ -212,6 +383,9 @@ public class FileTypes {
         /** Human-readable error message */
         public String message;
 
+        /** Correlation ID echoed from the command, null if the command carried none */
+        public Long requestId;
+
         public ErrorResponse() {
         }
 
@@ -240,5 +414,50 @@ public class FileTypes {
         public static ErrorResponse fromJson(String json) {
             return gson.fromJson(json, ErrorResponse.class);
         }
+
+        /**
+         * Serialize response as UTF-8 JSON directly to an output stream.
+         * <p>
+         * The stream is flushed but not closed.
+         *
+         * @param out Stream to write to
+         * @throws IOException if writing to the stream fails
+         */
+        public void writeTo(OutputStream out) throws IOException {
+            Utf8Streams.write(MessageAdapters.ERROR_RESPONSE, this, out);
+        }
+
+        /**
+         * Serialize response as UTF-8 JSON into a buffer at its current position.
+         *
+         * @param dst Buffer to write to
+         * @throws java.nio.BufferOverflowException if the buffer has insufficient space
+         */
+        public void writeTo(ByteBuffer dst) {
+            Utf8Streams.write(MessageAdapters.ERROR_RESPONSE, this, dst);
+        }
+
+        /**
+         * Deserialize response from a UTF-8 JSON input stream.
+         * <p>
+         * Reads a single JSON object; bytes following it may be consumed from the stream.
+         *
+         * @param in Stream to read from
+         * @return ErrorResponse instance, or null if the stream is empty
+         * @throws IOException if reading from the stream fails
+         */
+        public static ErrorResponse fromStream(InputStream in) throws IOException {
+            return Utf8Streams.read(MessageAdapters.ERROR_RESPONSE, in);
+        }
+
+        /**
+         * Deserialize response from the UTF-8 JSON bytes remaining in a buffer.
+         *
+         * @param src Buffer to read from
+         * @return ErrorResponse instance, or null if the buffer is empty
+         */
+        public static ErrorResponse fromBuffer(ByteBuffer src) {
+            return Utf8Streams.read(MessageAdapters.ERROR_RESPONSE, src);
+        }
     }
 }
@@ -0,0 +1,132 @@
+package com.multicam.common;
+
+import java.io.Closeable;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Runs blocking per-device calls across a fleet.
+ * <p>
+ * Each call runs on a {@link FleetExecutors} thread, so code written as a
+ * plain blocking socket exchange scales to large fleets on Java 21 virtual
+ * threads and stays bounded on Java 11.
+ * <pre>
+ * try (FleetDispatcher dispatcher = new FleetDispatcher()) {
+ *     Map&lt;String, CompletableFuture&lt;StatusResponse&gt;&gt; replies =
+ *             dispatcher.dispatch(hosts, host -&gt; queryStatus(host));
+ * }
+ * </pre>
+ */
+public final class FleetDispatcher implements Closeable {
+
+    /**
+     * Blocking call made against one device.
+     *
+     * @param <D> Device handle type
+     * @param <T> Result type
+     */
+    @FunctionalInterface
+    public interface DeviceCall<D, T> {
+        /**
+         * Perform the call.
+         *
+         * @param device Device to call
+         * @return Call result
+         * @throws Exception if the call fails
+         */
+        T call(D device) throws Exception;
+    }
+
+    private final ExecutorService executor;
+    private final boolean ownsExecutor;
+
+    /**
+     * Create a dispatcher on a new fleet executor, shut down by {@link #close()}.
+     */
+    public FleetDispatcher() {
+        this(FleetExecutors.newExecutor(), true);
+    }
+
+    /**
+     * Create a dispatcher on a caller-owned executor, which {@link #close()} leaves running.
+     *
+     * @param executor Executor to run calls on
+     */
+    public FleetDispatcher(ExecutorService executor) {
+        this(executor, false);
+    }
+
+    private FleetDispatcher(ExecutorService executor, boolean ownsExecutor) {
+        this.executor = executor;
+        this.ownsExecutor = ownsExecutor;
+    }
+
+    /**
+     * Run one blocking task.
+     *
+     * @param task Task to run
+     * @param <T>  Result type
+     * @return Future completing with the task's result or failure
+     */
+    public <T> CompletableFuture<T> submit(Callable<T> task) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        try {
+            executor.execute(() -> {
+                if (future.isDone()) {
+                    return;
+                }
+                try {
+                    future.complete(task.call());
+                } catch (Throwable e) {
+                    future.completeExceptionally(e instanceof CompletionException ? e.getCause() : e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    /**
+     * Run a blocking call against every device concurrently.
+     *
+     * @param devices Devices to call
+     * @param call    Call to make against each device
+     * @param <D>     Device handle type
+     * @param <T>     Result type
+     * @return Future per device, in the iteration order of {@code devices}
+     */
+    public <D, T> Map<D, CompletableFuture<T>> dispatch(Collection<? extends D> devices, DeviceCall<D, T> call) {
+        Map<D, CompletableFuture<T>> futures = new LinkedHashMap<>();
+        for (D device : devices) {
+            futures.put(device, submit(() -> call.call(device)));
+        }
+        return futures;
+    }
+
+    /**
+     * Check whether calls run on virtual threads.
+     *
+     * @return True if calls run on virtual threads
+     */
+    public boolean usesVirtualThreads() {
+        return ownsExecutor && FleetExecutors.usesVirtualThreads();
+    }
+
+    /**
+     * Shut down the executor if this dispatcher created it. Calls already
+     * submitted still run to completion.
+     */
+    @Override
+    public void close() {
+        if (ownsExecutor) {
+            executor.shutdown();
+        }
+    }
+}
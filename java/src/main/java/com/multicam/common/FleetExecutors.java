@@ -0,0 +1,55 @@
+package com.multicam.common;
+
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Executors for blocking per-device work such as command round trips and
+ * file transfers.
+ * <p>
+ * On Java 21 and later each task runs on its own virtual thread, so a
+ * thousand simultaneous GET_VIDEO or DEVICE_STATUS calls do not need a
+ * thousand OS threads. On Java 11 to 20 tasks share a bounded pool of
+ * platform threads. The choice is made by the multi-release JAR at class
+ * load time; when the library is used from a plain class directory the
+ * Java 11 pool is always used.
+ */
+public final class FleetExecutors {
+
+    /** Default size of the platform thread pool on Java 11 to 20 */
+    public static final int DEFAULT_PLATFORM_THREADS = 64;
+
+    private FleetExecutors() {
+        // Prevent instantiation
+    }
+
+    /**
+     * Check whether fleet executors run tasks on virtual threads.
+     *
+     * @return True on Java 21 and later when loaded from the multi-release JAR
+     */
+    public static boolean usesVirtualThreads() {
+        return FleetThreads.isVirtual();
+    }
+
+    /**
+     * Create a fleet executor with the default platform pool size.
+     *
+     * @return ExecutorService instance
+     */
+    public static ExecutorService newExecutor() {
+        return newExecutor(DEFAULT_PLATFORM_THREADS);
+    }
+
+    /**
+     * Create a fleet executor.
+     *
+     * @param maxPlatformThreads Pool size when virtual threads are unavailable
+     * @return ExecutorService instance
+     */
+    public static ExecutorService newExecutor(int maxPlatformThreads) {
+        if (maxPlatformThreads <= 0) {
+            throw new IllegalArgumentException("maxPlatformThreads must be positive: " + maxPlatformThreads);
+        }
+        return FleetThreads.newExecutor("multicam-fleet", maxPlatformThreads);
+    }
+}
@@ -0,0 +1,53 @@
+package com.multicam.common;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Thread source for fleet dispatch on Java 11 to 20: a bounded pool of
+ * platform threads.
+ * <p>
+ * The multi-release JAR replaces this class on Java 21 and later with a
+ * version that uses virtual threads (see {@code src/main/java21}). Both
+ * versions must keep the same package-private API.
+ */
+final class FleetThreads {
+
+    private FleetThreads() {
+        // Prevent instantiation
+    }
+
+    /**
+     * Check whether executors from this class run tasks on virtual threads.
+     *
+     * @return False on this runtime
+     */
+    static boolean isVirtual() {
+        return false;
+    }
+
+    /**
+     * Create an executor for blocking per-device work.
+     * <p>
+     * Up to {@code maxPlatformThreads} tasks run at once; the rest wait in an
+     * unbounded queue. Idle threads exit after a minute.
+     *
+     * @param name               Thread name prefix
+     * @param maxPlatformThreads Maximum number of threads
+     * @return ExecutorService instance
+     */
+    static ExecutorService newExecutor(String name, int maxPlatformThreads) {
+        AtomicInteger counter = new AtomicInteger();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(maxPlatformThreads, maxPlatformThreads,
+                60L, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), runnable -> {
+                    Thread thread = new Thread(runnable, name + "-" + counter.getAndIncrement());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+}
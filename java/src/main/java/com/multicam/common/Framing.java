@@ -0,0 +1,113 @@
+package com.multicam.common;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Length-prefixed framing for keep-alive connections.
+ * <p>
+ * On a connection opened in keep-alive mode every command and reply is a
+ * frame: a 4-byte big-endian payload length followed by the payload, a JSON
+ * or binary message. Lengths are limited to {@link #MAX_FRAME_SIZE}, so the
+ * first byte of a keep-alive connection is always {@code 0x00} and a device
+ * can tell it apart from a plain JSON ({@code '{'}) or binary ({@code 0xB1})
+ * command.
+ * <pre>
+ * // Device side
+ * byte[] command;
+ * while ((command = Framing.readFrame(in)) != null) {
+ *     Framing.writeFrame(out, handle(command));
+ * }
+ * </pre>
+ */
+public final class Framing {
+
+    /** Size of the frame length prefix in bytes */
+    public static final int HEADER_SIZE = 4;
+
+    /** Largest payload a frame may carry (16 MiB - 1) */
+    public static final int MAX_FRAME_SIZE = (1 << 24) - 1;
+
+    private Framing() {
+        // Prevent instantiation
+    }
+
+    /**
+     * Check whether a connection is in keep-alive mode from its first byte.
+     *
+     * @param firstByte First byte received on the connection
+     * @return True if the byte starts a frame
+     */
+    public static boolean isFramed(byte firstByte) {
+        return firstByte == 0;
+    }
+
+    /**
+     * Read one frame's payload.
+     *
+     * @param in Stream to read from
+     * @return Payload bytes, or null if the stream ended cleanly between frames
+     * @throws IOException if reading fails, the stream ends mid-frame or the length is invalid
+     */
+    public static byte[] readFrame(InputStream in) throws IOException {
+        int first = in.read();
+        if (first < 0) {
+            return null;
+        }
+        int length = first << 24;
+        for (int i = 1; i < HEADER_SIZE; i++) {
+            int b = in.read();
+            if (b < 0) {
+                throw new EOFException("End of stream inside frame header");
+            }
+            length |= b << (8 * (HEADER_SIZE - 1 - i));
+        }
+        checkLength(length);
+        byte[] payload = in.readNBytes(length);
+        if (payload.length < length) {
+            throw new EOFException("End of stream inside frame payload");
+        }
+        return payload;
+    }
+
+    /**
+     * Write one frame.
+     * <p>
+     * The stream is flushed but not closed.
+     *
+     * @param out     Stream to write to
+     * @param payload Payload bytes
+     * @throws IOException if writing fails or the payload is too large
+     */
+    public static void writeFrame(OutputStream out, byte[] payload) throws IOException {
+        checkLength(payload.length);
+        byte[] header = new byte[HEADER_SIZE];
+        ByteBuffer.wrap(header).putInt(payload.length);
+        out.write(header);
+        out.write(payload);
+        out.flush();
+    }
+
+    /**
+     * Wrap a payload in a frame.
+     *
+     * @param payload Payload bytes
+     * @return Buffer holding the length prefix and payload, ready to be written
+     * @throws IOException if the payload is too large
+     */
+    public static ByteBuffer frame(byte[] payload) throws IOException {
+        checkLength(payload.length);
+        ByteBuffer frame = ByteBuffer.allocate(HEADER_SIZE + payload.length);
+        frame.putInt(payload.length).put(payload).flip();
+        return frame;
+    }
+
+    static void checkLength(int length) throws IOException {
+        if (length < 0 || length > MAX_FRAME_SIZE) {
+            throw new IOException("Invalid frame length " + Integer.toUnsignedString(length));
+        }
+    }
+}
@@ -0,0 +1,386 @@
+package com.multicam.common;
+
+import java.io.Closeable;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+
+/**
+ * Periodic heartbeats and status polls for large fleets on a hashed timing wheel.
+ * <p>
+ * A {@link java.util.concurrent.ScheduledExecutorService} keeps its tasks in
+ * a heap, so every reschedule costs O(log n) under a shared lock, and tasks
+ * scheduled together fire together. This scheduler hashes each task into one
+ * of {@link #DEFAULT_WHEEL_SIZE} buckets by its next tick. A single thread
+ * advances one bucket per tick, so scheduling, rescheduling, changing an
+ * interval and cancelling are all O(1). Firing times are rounded to the tick
+ * ({@link #DEFAULT_TICK} by default).
+ * <p>
+ * New tasks start at a phase offset within their interval. The offsets
+ * follow a golden-ratio sequence, so any number of devices added in any
+ * order are spaced almost evenly across the interval, and a fleet
+ * registered at startup does not poll in one burst. Each task then runs at
+ * a fixed rate from its phase.
+ * <pre>
+ * try (HeartbeatScheduler scheduler = new HeartbeatScheduler()) {
+ *     for (CommandChannel channel : channels) {
+ *         scheduler.schedule(channel, CommandMessage::heartbeat, Duration.ofSeconds(5),
+ *                 (reply, error) -&gt; markAlive(channel.getDevice(), error == null));
+ *     }
+ * }
+ * </pre>
+ * Tasks run on the wheel thread and must not block; command sends through
+ * {@link CommandChannel} are asynchronous and qualify.
+ */
+public final class HeartbeatScheduler implements Closeable {
+
+    /** Default wheel resolution */
+    public static final Duration DEFAULT_TICK = Duration.ofMillis(10);
+
+    /** Default number of buckets (a power of two) */
+    public static final int DEFAULT_WHEEL_SIZE = 512;
+
+    /** Fractional part of the golden ratio, for low-discrepancy phase offsets */
+    private static final double GOLDEN_FRACTION = 0.6180339887498949;
+
+    private final long tickNanos;
+    private final Bucket[] wheel;
+    private final int mask;
+    private final Thread thread;
+    private final Object lock = new Object();
+
+    /** Guarded by lock */
+    private long currentTick;
+    private long phaseSequence;
+    private int size;
+    private boolean closed;
+
+    /**
+     * Create a scheduler with the default tick and wheel size.
+     */
+    public HeartbeatScheduler() {
+        this(DEFAULT_TICK, DEFAULT_WHEEL_SIZE);
+    }
+
+    /**
+     * Create a scheduler.
+     * <p>
+     * A revolution of the wheel ({@code tick * wheelSize}) should be about as
+     * long as the typical interval; longer intervals still work but leave
+     * tasks that are not yet due in the buckets the wheel passes.
+     *
+     * @param tick      Wheel resolution
+     * @param wheelSize Number of buckets, rounded up to a power of two
+     */
+    public HeartbeatScheduler(Duration tick, int wheelSize) {
+        if (tick.isNegative() || tick.isZero()) {
+            throw new IllegalArgumentException("Tick must be positive: " + tick);
+        }
+        if (wheelSize < 1 || wheelSize > 1 << 30) {
+            throw new IllegalArgumentException("Wheel size must be in [1, 2^30]: " + wheelSize);
+        }
+        int buckets = Integer.highestOneBit(wheelSize);
+        if (buckets < wheelSize) {
+            buckets <<= 1;
+        }
+        this.tickNanos = tick.toNanos();
+        this.wheel = new Bucket[buckets];
+        for (int i = 0; i < buckets; i++) {
+            wheel[i] = new Bucket();
+        }
+        this.mask = buckets - 1;
+        this.thread = new Thread(this::run, "multicam-heartbeat-wheel");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Run a task periodically.
+     *
+     * @param interval Time between runs, rounded to the tick
+     * @param task     Non-blocking task to run on the wheel thread
+     * @return Handle for changing the interval or cancelling
+     * @throws IllegalStateException if the scheduler is closed
+     */
+    public Task schedule(Duration interval, Runnable task) {
+        Task scheduled = new Task(task, toTicks(interval));
+        synchronized (lock) {
+            if (closed) {
+                throw new IllegalStateException("Scheduler is closed");
+            }
+            double phase = (phaseSequence++ * GOLDEN_FRACTION) % 1.0;
+            scheduled.lastTick = currentTick - (long) (phase * scheduled.intervalTicks);
+            insert(scheduled, scheduled.lastTick + scheduled.intervalTicks);
+        }
+        return scheduled;
+    }
+
+    /**
+     * Send a command to a device periodically.
+     * <p>
+     * A round is skipped while the previous command is still awaiting its
+     * reply, so a slow device never has more than one poll in flight.
+     *
+     * @param channel  Route to the device
+     * @param command  Builds the command for each round, e.g. {@code CommandMessage::heartbeat}
+     * @param interval Time between rounds, rounded to the tick
+     * @param listener Called with each reply or failure, on the thread completing the request
+     * @return Handle for changing the interval or cancelling
+     * @throws IllegalStateException if the scheduler is closed
+     */
+    public Task schedule(CommandChannel channel, Supplier<CommandMessage> command, Duration interval,
+                         BiConsumer<? super StatusResponse, ? super Throwable> listener) {
+        return schedule(interval, new Poll(channel, command, listener));
+    }
+
+    /**
+     * Get the number of scheduled tasks.
+     *
+     * @return Task count
+     */
+    public int size() {
+        synchronized (lock) {
+            return size;
+        }
+    }
+
+    /**
+     * Stop the wheel thread and drop all tasks. Requests already sent are not affected.
+     */
+    @Override
+    public void close() {
+        synchronized (lock) {
+            closed = true;
+            for (Bucket bucket : wheel) {
+                while (bucket.head != null) {
+                    Task task = bucket.head;
+                    bucket.remove(task);
+                    task.cancelled = true;
+                }
+            }
+            size = 0;
+        }
+        thread.interrupt();
+    }
+
+    private long toTicks(Duration interval) {
+        if (interval.isNegative() || interval.isZero()) {
+            throw new IllegalArgumentException("Interval must be positive: " + interval);
+        }
+        long nanos = interval.toNanos();
+        return Math.max(1, (nanos + tickNanos / 2) / tickNanos);
+    }
+
+    /** Caller holds lock. Deadlines that have already passed run on the next tick. */
+    private void insert(Task task, long deadlineTick) {
+        task.deadlineTick = Math.max(deadlineTick, currentTick + 1);
+        wheel[(int) (task.deadlineTick & mask)].add(task);
+        size++;
+    }
+
+    /** Caller holds lock */
+    private void unlink(Task task) {
+        task.bucket.remove(task);
+        size--;
+    }
+
+    private void run() {
+        long start = System.nanoTime();
+        List<Task> due = new ArrayList<>();
+        while (true) {
+            long tick;
+            synchronized (lock) {
+                if (closed) {
+                    return;
+                }
+                tick = currentTick + 1;
+            }
+            long sleep = start + tick * tickNanos - System.nanoTime();
+            while (sleep > 0) {
+                LockSupport.parkNanos(this, sleep);
+                if (Thread.interrupted()) {
+                    return;
+                }
+                sleep = start + tick * tickNanos - System.nanoTime();
+            }
+            synchronized (lock) {
+                if (closed) {
+                    return;
+                }
+                currentTick = tick;
+                Bucket bucket = wheel[(int) (tick & mask)];
+                Task task = bucket.head;
+                while (task != null) {
+                    Task next = task.next;
+                    if (task.deadlineTick <= tick) {
+                        unlink(task);
+                        task.lastTick = task.deadlineTick;
+                        insert(task, task.lastTick + task.intervalTicks);
+                        due.add(task);
+                    }
+                    task = next;
+                }
+            }
+            for (Task task : due) {
+                runTask(task);
+            }
+            due.clear();
+        }
+    }
+
+    private void runTask(Task task) {
+        if (task.cancelled) {
+            return;
+        }
+        try {
+            task.runnable.run();
+        } catch (RuntimeException | Error e) {
+            Thread current = Thread.currentThread();
+            current.getUncaughtExceptionHandler().uncaughtException(current, e);
+        }
+    }
+
+    /**
+     * Handle of a periodic task.
+     */
+    public final class Task {
+        private final Runnable runnable;
+
+        /** Guarded by the scheduler lock */
+        private long intervalTicks;
+        private long lastTick;
+        private long deadlineTick;
+        private Bucket bucket;
+        private Task prev;
+        private Task next;
+
+        /** Written under the scheduler lock, read by the wheel thread before each run */
+        private volatile boolean cancelled;
+
+        Task(Runnable runnable, long intervalTicks) {
+            this.runnable = runnable;
+            this.intervalTicks = intervalTicks;
+        }
+
+        /**
+         * Get the time between runs.
+         *
+         * @return Interval, rounded to the tick
+         */
+        public Duration getInterval() {
+            synchronized (lock) {
+                return Duration.ofNanos(intervalTicks * tickNanos);
+            }
+        }
+
+        /**
+         * Change the time between runs.
+         * <p>
+         * The next run moves to one new interval after the previous run (or
+         * the next tick, if that has already passed), keeping the task's
+         * phase relative to the rest of the fleet.
+         *
+         * @param interval New time between runs, rounded to the tick
+         */
+        public void setInterval(Duration interval) {
+            long ticks = toTicks(interval);
+            synchronized (lock) {
+                intervalTicks = ticks;
+                if (!cancelled) {
+                    unlink(this);
+                    insert(this, lastTick + ticks);
+                }
+            }
+        }
+
+        /**
+         * Stop running the task. A run already in progress finishes.
+         */
+        public void cancel() {
+            synchronized (lock) {
+                if (!cancelled) {
+                    cancelled = true;
+                    unlink(this);
+                }
+            }
+        }
+
+        /**
+         * Check whether the task has been cancelled or its scheduler closed.
+         *
+         * @return True once the task will no longer run
+         */
+        public boolean isCancelled() {
+            return cancelled;
+        }
+    }
+
+    /**
+     * Doubly-linked list of the tasks hashed to one slot of the wheel.
+     */
+    private static final class Bucket {
+        private Task head;
+
+        void add(Task task) {
+            task.bucket = this;
+            task.prev = null;
+            task.next = head;
+            if (head != null) {
+                head.prev = task;
+            }
+            head = task;
+        }
+
+        void remove(Task task) {
+            if (task.prev != null) {
+                task.prev.next = task.next;
+            } else {
+                head = task.next;
+            }
+            if (task.next != null) {
+                task.next.prev = task.prev;
+            }
+            task.bucket = null;
+            task.prev = null;
+            task.next = null;
+        }
+    }
+
+    /**
+     * Command round that skips while the previous one is still in flight.
+     */
+    private static final class Poll implements Runnable {
+        private final CommandChannel channel;
+        private final Supplier<CommandMessage> command;
+        private final BiConsumer<? super StatusResponse, ? super Throwable> listener;
+        private volatile CompletableFuture<StatusResponse> inFlight;
+
+        Poll(CommandChannel channel, Supplier<CommandMessage> command,
+             BiConsumer<? super StatusResponse, ? super Throwable> listener) {
+            this.channel = channel;
+            this.command = command;
+            this.listener = listener;
+        }
+
+        @Override
+        public void run() {
+            CompletableFuture<StatusResponse> previous = inFlight;
+            if (previous != null && !previous.isDone()) {
+                return;
+            }
+            CompletableFuture<StatusResponse> reply;
+            try {
+                reply = channel.send(command.get());
+            } catch (RuntimeException e) {
+                listener.accept(null, e);
+                return;
+            }
+            inFlight = reply;
+            reply.whenComplete(listener);
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package com.multicam.common;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Incremental scanner that finds the end of a JSON message in a byte stream.
+ * <p>
+ * The JSON command protocol has no length prefix, so a reader that must not
+ * wait for the peer to close the connection has to recognise where the
+ * top-level object ends. Only structure is tracked (brackets, strings and
+ * escapes); the message is validated when it is decoded. UTF-8 continuation
+ * bytes never collide with the ASCII structural characters.
+ */
+final class JsonMessageScanner {
+
+    private int depth;
+    private boolean started;
+    private boolean inString;
+    private boolean escaped;
+
+    /**
+     * Scan newly received bytes.
+     *
+     * @param buffer Buffer holding the message, indexed absolutely
+     * @param from   Index of the first byte not yet scanned
+     * @param to     Index just past the last received byte
+     * @return Index just past the end of the message, or -1 if it is not yet complete
+     */
+    int scan(ByteBuffer buffer, int from, int to) {
+        for (int i = from; i < to; i++) {
+            byte b = buffer.get(i);
+            if (inString) {
+                if (escaped) {
+                    escaped = false;
+                } else if (b == '\\') {
+                    escaped = true;
+                } else if (b == '"') {
+                    inString = false;
+                }
+                continue;
+            }
+            switch (b) {
+                case '"':
+                    inString = true;
+                    break;
+                case '{':
+                case '[':
+                    depth++;
+                    started = true;
+                    break;
+                case '}':
+                case ']':
+                    if (--depth == 0 && started) {
+                        return i + 1;
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Check whether any part of a message has been seen.
+     *
+     * @return True once an opening bracket has been scanned
+     */
+    boolean isStarted() {
+        return started;
+    }
+
+    /**
+     * Prepare to scan the next message.
+     */
+    void reset() {
+        depth = 0;
+        started = false;
+        inString = false;
+        escaped = false;
+    }
+}
@@ -0,0 +1,485 @@
+package com.multicam.common;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousChannelGroup;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.AsynchronousSocketChannel;
+import java.nio.channels.CompletionHandler;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Persistent, pipelined connection to a device that advertises
+ * {@link Capabilities#KEEP_ALIVE_V1}.
+ * <p>
+ * Commands and replies travel as length-prefixed frames (see {@link Framing})
+ * in the negotiated {@link WireFormat}. Several commands may be in flight at
+ * once. Commands sent before the connection is established are queued.
+ * <p>
+ * An ordered connection relies on the device answering in order and matches
+ * replies to requests first-in, first-out. A request that misses its
+ * deadline therefore fails every request in flight and closes the
+ * connection, since later replies could no longer be matched. For the same
+ * reason a request only gets its per-command deadline once it reaches the
+ * head of the pipeline; while it waits behind others it has the client's
+ * fixed command timeout.
+ * <p>
+ * A multiplexed connection, for devices that also advertise
+ * {@link Capabilities#REQUEST_ID_V1}, tags each command with a fresh
+ * {@code requestId} and matches replies by the echoed ID, so the device may
+ * answer in any order and a slow LIST_FILES does not hold back a HEARTBEAT
+ * sent after it. A request that misses its deadline fails alone; a late reply
+ * to it is discarded.
+ * <p>
+ * On either kind, an I/O error or the device closing the connection fails
+ * every request in flight. GET_VIDEO must use its own connection. Obtain
+ * instances from {@link MultiCamClient#connect(InetSocketAddress, WireFormat)}
+ * or {@link MultiCamClient#multiplex(InetSocketAddress, WireFormat)}.
+ */
+public final class KeepAliveConnection implements CommandChannel {
+
+    private static final int INITIAL_BUFFER_SIZE = 8192;
+
+    private final InetSocketAddress device;
+    private final WireFormat format;
+    private final boolean multiplexed;
+    private final MultiCamClient client;
+    private final ScheduledExecutorService timer;
+    private final Consumer<KeepAliveConnection> onClose;
+    private final AsynchronousSocketChannel channel;
+
+    private final Object lock = new Object();
+    private final ArrayDeque<Pending<?>> pending = new ArrayDeque<>();
+    private final Map<Long, Pending<?>> byRequestId = new HashMap<>();
+    private long nextRequestId;
+    private final ArrayDeque<Pending<?>> writes = new ArrayDeque<>();
+    private boolean connected;
+    private boolean writing;
+    private Throwable failure;
+
+    /** Only touched by the read completion chain */
+    private ByteBuffer input = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+    private long lastReplyNanos;
+
+    KeepAliveConnection(MultiCamClient client, AsynchronousChannelGroup group, InetSocketAddress device,
+                        WireFormat format, boolean multiplexed, Consumer<KeepAliveConnection> onClose)
+            throws IOException {
+        this.client = client;
+        this.device = device;
+        this.format = format;
+        this.multiplexed = multiplexed;
+        this.timer = client.timer();
+        this.onClose = onClose;
+        this.channel = AsynchronousSocketChannel.open(group);
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        channel.setOption(StandardSocketOptions.SO_KEEPALIVE, true);
+    }
+
+    void connect() {
+        channel.connect(device, null, handler(ignored -> connected()));
+    }
+
+    @Override
+    public InetSocketAddress getDevice() {
+        return device;
+    }
+
+    /**
+     * Get the encoding used for commands on this connection.
+     *
+     * @return Wire format
+     */
+    public WireFormat getFormat() {
+        return format;
+    }
+
+    /**
+     * Check whether replies are matched by request ID rather than by order.
+     *
+     * @return True for a multiplexed connection
+     */
+    public boolean isMultiplexed() {
+        return multiplexed;
+    }
+
+    /**
+     * Check whether the connection can still accept commands.
+     *
+     * @return False once the connection has failed or been closed
+     */
+    public boolean isOpen() {
+        synchronized (lock) {
+            return failure == null;
+        }
+    }
+
+    /**
+     * Get the number of requests awaiting a reply.
+     *
+     * @return In-flight request count
+     */
+    public int inFlight() {
+        synchronized (lock) {
+            return pending.size() + byRequestId.size();
+        }
+    }
+
+    /**
+     * Send a command and read the reply as a StatusResponse.
+     * <p>
+     * On a multiplexed connection the command is sent with a request ID
+     * assigned by the connection; any ID it already carries is replaced.
+     *
+     * @param command Command to send
+     * @return Future completing with the device's reply
+     * @throws IllegalArgumentException if the command is GET_VIDEO
+     */
+    @Override
+    public CompletableFuture<StatusResponse> send(CommandMessage command) {
+        return submit(command, payload -> WireFormat.detect(payload).readStatus(payload));
+    }
+
+    /**
+     * Send a command and decode the reply by command type.
+     *
+     * @param command Command to send
+     * @return Future completing with the decoded reply (see {@link ResponseDecoder})
+     * @throws IllegalArgumentException if the command is GET_VIDEO
+     */
+    @Override
+    public CompletableFuture<DecodedResponse> exchange(CommandMessage command) {
+        CommandType sent = command.command;
+        return submit(command, payload -> ResponseDecoder.decode(sent, payload));
+    }
+
+    /**
+     * Close the connection, failing any requests still in flight.
+     */
+    @Override
+    public void close() {
+        fail(new AsynchronousCloseException());
+    }
+
+    private <T> CompletableFuture<T> submit(CommandMessage command, Function<ByteBuffer, T> decoder) {
+        if (command.command == CommandType.GET_VIDEO) {
+            throw new IllegalArgumentException("GET_VIDEO requires its own connection");
+        }
+        Long requestId = null;
+        if (multiplexed) {
+            synchronized (lock) {
+                requestId = nextRequestId++;
+            }
+            command = command.withRequestId(requestId);
+        }
+        ByteBuffer frame;
+        try {
+            frame = Framing.frame(format == WireFormat.BINARY ? BinaryCodec.encode(command) : command.toBytes());
+        } catch (IOException e) {
+            CompletableFuture<T> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            return failed;
+        }
+        Pending<T> request = new Pending<>(command.command, requestId, frame, decoder);
+        request.future.whenComplete((result, error) -> {
+            request.disarm();
+            if (multiplexed && request.future.isCancelled()) {
+                // Nothing will collect a reply the device may never send
+                synchronized (lock) {
+                    byRequestId.remove(request.requestId, request);
+                }
+            }
+        });
+
+        boolean startWrite = false;
+        Throwable closedBy;
+        synchronized (lock) {
+            closedBy = failure;
+            if (closedBy == null) {
+                if (multiplexed) {
+                    byRequestId.put(requestId, request);
+                } else {
+                    pending.add(request);
+                }
+                boolean head = connected && (multiplexed || pending.size() == 1);
+                request.arm(head ? client.timeoutNanos(device, request.command) : client.commandTimeoutNanos());
+                writes.add(request);
+                if (connected && !writing) {
+                    writing = true;
+                    startWrite = true;
+                }
+            }
+        }
+        if (closedBy != null) {
+            request.future.completeExceptionally(closedBy);
+        }
+        if (startWrite) {
+            writeNext();
+        }
+        return request.future;
+    }
+
+    /**
+     * Fail a request that missed its deadline. On an ordered connection the
+     * whole connection goes with it; on a multiplexed one only the request.
+     */
+    private void timedOut(Long requestId, Pending<?> request, TimeoutException error) {
+        if (!multiplexed) {
+            fail(error);
+            return;
+        }
+        boolean removed;
+        synchronized (lock) {
+            removed = byRequestId.remove(requestId, request);
+        }
+        if (removed) {
+            request.future.completeExceptionally(error);
+        }
+    }
+
+    private void connected() {
+        boolean startWrite;
+        synchronized (lock) {
+            connected = true;
+            startWrite = !writing && !writes.isEmpty();
+            writing |= startWrite;
+            if (multiplexed) {
+                for (Pending<?> request : byRequestId.values()) {
+                    armHead(request);
+                }
+            } else {
+                armHead(pending.peek());
+            }
+        }
+        if (startWrite) {
+            writeNext();
+        }
+        channel.read(input, null, handler(this::received));
+    }
+
+    private void writeNext() {
+        Pending<?> next;
+        synchronized (lock) {
+            next = writes.peek();
+            if (next == null || failure != null) {
+                writing = false;
+                return;
+            }
+        }
+        if (next.sentNanos == 0) {
+            // Round trips are timed from here, not from submit, so queueing and connecting are excluded
+            next.sentNanos = System.nanoTime();
+        }
+        channel.write(next.frame, null, handler(written -> {
+            if (!next.frame.hasRemaining()) {
+                synchronized (lock) {
+                    writes.poll();
+                }
+            }
+            writeNext();
+        }));
+    }
+
+    private void received(int count) throws IOException {
+        if (count < 0) {
+            fail(new EOFException(device + " closed the connection"));
+            return;
+        }
+        input.flip();
+        int needed = 0;
+        while (input.remaining() >= Framing.HEADER_SIZE) {
+            int start = input.position();
+            int length = input.getInt(start);
+            Framing.checkLength(length);
+            if (input.remaining() - Framing.HEADER_SIZE < length) {
+                needed = Framing.HEADER_SIZE + length;
+                break;
+            }
+            ByteBuffer payload = input.duplicate();
+            payload.limit(start + Framing.HEADER_SIZE + length).position(start + Framing.HEADER_SIZE);
+            input.position(start + Framing.HEADER_SIZE + length);
+
+            if (multiplexed) {
+                Long requestId = peekRequestId(payload);
+                if (requestId == null) {
+                    throw new IOException("Reply without requestId from " + device);
+                }
+                Pending<?> request;
+                synchronized (lock) {
+                    request = byRequestId.remove(requestId);
+                }
+                // No match means the request already timed out
+                if (request != null) {
+                    request.complete(payload, System.nanoTime() - request.sentNanos);
+                }
+            } else {
+                Pending<?> request;
+                synchronized (lock) {
+                    request = pending.poll();
+                    armHead(pending.peek());
+                }
+                if (request == null) {
+                    throw new IOException("Unsolicited reply from " + device);
+                }
+                // The device only started on this request once it had answered the one before
+                long now = System.nanoTime();
+                long rttNanos = now - Math.max(request.sentNanos, lastReplyNanos);
+                lastReplyNanos = now;
+                request.complete(payload, rttNanos);
+            }
+        }
+        input.compact();
+        if (needed > input.capacity()) {
+            ByteBuffer larger = ByteBuffer.allocate(Math.max(needed, input.capacity() * 2));
+            input.flip();
+            larger.put(input);
+            input = larger;
+        }
+        channel.read(input, null, handler(this::received));
+    }
+
+    /**
+     * Give a request that the device is now working on its per-command
+     * deadline, replacing the fixed timeout it had while queued. Called with
+     * lock held.
+     */
+    private void armHead(Pending<?> request) {
+        if (request != null) {
+            request.arm(client.timeoutNanos(device, request.command));
+        }
+    }
+
+    /**
+     * Read the echoed request ID of a reply frame without consuming it.
+     */
+    private static Long peekRequestId(ByteBuffer payload) {
+        if (WireFormat.detect(payload) == WireFormat.BINARY) {
+            return BinaryCodec.peekRequestId(payload);
+        }
+        return StatusResponseView.of(payload.duplicate()).getRequestId();
+    }
+
+    private void fail(Throwable error) {
+        List<Pending<?>> failed;
+        synchronized (lock) {
+            if (failure != null) {
+                return;
+            }
+            failure = error;
+            failed = new ArrayList<>(pending);
+            failed.addAll(byRequestId.values());
+            pending.clear();
+            byRequestId.clear();
+            writes.clear();
+        }
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+            // Nothing left to release
+        }
+        onClose.accept(this);
+        for (Pending<?> request : failed) {
+            request.future.completeExceptionally(error);
+        }
+    }
+
+    private <V> CompletionHandler<V, Void> handler(IoConsumer<V> next) {
+        return new CompletionHandler<V, Void>() {
+            @Override
+            public void completed(V result, Void attachment) {
+                try {
+                    next.accept(result);
+                } catch (IOException | RuntimeException e) {
+                    fail(e);
+                }
+            }
+
+            @Override
+            public void failed(Throwable error, Void attachment) {
+                fail(error);
+            }
+        };
+    }
+
+    @FunctionalInterface
+    private interface IoConsumer<V> {
+        void accept(V value) throws IOException;
+    }
+
+    /**
+     * Request awaiting its reply frame.
+     */
+    private final class Pending<T> {
+        final CompletableFuture<T> future = new CompletableFuture<>();
+        final ByteBuffer frame;
+        final CommandType command;
+        private final Long requestId;
+        private final Function<ByteBuffer, T> decoder;
+        private volatile ScheduledFuture<?> timeout;
+
+        /** Time the frame was handed to the socket, or 0 while it is queued */
+        volatile long sentNanos;
+
+        Pending(CommandType command, Long requestId, ByteBuffer frame, Function<ByteBuffer, T> decoder) {
+            this.command = command;
+            this.requestId = requestId;
+            this.frame = frame;
+            this.decoder = decoder;
+        }
+
+        /**
+         * Start a deadline from now, replacing any earlier one.
+         */
+        void arm(long nanos) {
+            disarm();
+            if (future.isDone()) {
+                return;
+            }
+            timeout = timer.schedule(() -> {
+                if (!future.isDone()) {
+                    client.timedOut(device, command);
+                    timedOut(requestId, this, new TimeoutException(command + " to " + device
+                            + " timed out after " + Duration.ofNanos(nanos)));
+                }
+            }, nanos, TimeUnit.NANOSECONDS);
+        }
+
+        void disarm() {
+            ScheduledFuture<?> previous = timeout;
+            if (previous != null) {
+                previous.cancel(false);
+            }
+        }
+
+        /**
+         * Decode the reply and record its round-trip time. A malformed
+         * payload fails only this request; the frame boundary is intact, so
+         * the connection stays usable.
+         */
+        void complete(ByteBuffer payload, long rttNanos) {
+            T decoded;
+            try {
+                decoded = decoder.apply(payload);
+            } catch (RuntimeException e) {
+                future.completeExceptionally(e);
+                return;
+            }
+            client.replied(device, command, rttNanos);
+            future.complete(decoded);
+        }
+    }
+}
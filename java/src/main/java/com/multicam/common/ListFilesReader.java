@@ -0,0 +1,191 @@
+package com.multicam.common;
+
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.MalformedJsonException;
+import com.multicam.common.FileTypes.FileMetadata;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Streaming reader for LIST_FILES responses.
+ * <p>
+ * Emits each {@link FileMetadata} as soon as it has been parsed off the
+ * stream instead of building the whole file list first, so a controller can
+ * schedule downloads while a long listing is still arriving.
+ * <p>
+ * Response fields that precede {@code files} on the wire are available as
+ * soon as the reader is constructed; fields that follow it are available once
+ * iteration has finished. A reply without a {@code files} field (such as an
+ * error reply) simply yields no files.
+ * <pre>
+ * try (ListFilesReader files = new ListFilesReader(socket.getInputStream())) {
+ *     while (files.hasNext()) {
+ *         scheduleDownload(files.next());
+ *     }
+ * }
+ * </pre>
+ * I/O failures during iteration are thrown as {@link UncheckedIOException}.
+ */
+public final class ListFilesReader implements Iterator<FileMetadata>, Closeable {
+
+    private final InputStream stream;
+    private final JsonReader in;
+
+    private String deviceId;
+    private String status;
+    private double timestamp;
+    private Long requestId;
+
+    private boolean inFiles;
+    private boolean finished;
+
+    /**
+     * Start reading a LIST_FILES response from a UTF-8 JSON input stream.
+     * <p>
+     * Blocks until the {@code files} array (or the end of the response) is reached.
+     *
+     * @param stream Stream to read from
+     * @throws IOException if reading from the stream fails
+     */
+    public ListFilesReader(InputStream stream) throws IOException {
+        this.stream = stream;
+        this.in = new JsonReader(Utf8Streams.newReader(stream));
+        this.in.setLenient(true);
+        try {
+            in.beginObject();
+            readFields();
+        } catch (MalformedJsonException | IllegalStateException | NumberFormatException e) {
+            throw new JsonSyntaxException(e);
+        }
+    }
+
+    /**
+     * Get the ID of the responding device.
+     *
+     * @return Device ID, or null if not yet read
+     */
+    public String getDeviceId() {
+        return deviceId;
+    }
+
+    /**
+     * Get the raw status string of the response.
+     *
+     * @return Status string, or null if not yet read
+     */
+    public String getStatus() {
+        return status;
+    }
+
+    /**
+     * Get the status as a DeviceStatus enum value.
+     *
+     * @return DeviceStatus enum value, or null if unknown or not yet read
+     */
+    public DeviceStatus getDeviceStatus() {
+        return DeviceStatus.fromValue(status);
+    }
+
+    /**
+     * Get the response timestamp.
+     *
+     * @return Response timestamp, or 0.0 if not yet read
+     */
+    public double getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * Get the correlation ID echoed from the command.
+     *
+     * @return Request ID, or null if absent or not yet read
+     */
+    public Long getRequestId() {
+        return requestId;
+    }
+
+    @Override
+    public boolean hasNext() {
+        try {
+            while (!finished) {
+                if (!inFiles) {
+                    in.endObject();
+                    finished = true;
+                } else if (in.hasNext()) {
+                    return true;
+                } else {
+                    in.endArray();
+                    inFiles = false;
+                    readFields();
+                }
+            }
+            return false;
+        } catch (MalformedJsonException | IllegalStateException | NumberFormatException e) {
+            throw new JsonSyntaxException(e);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public FileMetadata next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        try {
+            return MessageAdapters.FILE_METADATA.read(in);
+        } catch (MalformedJsonException | IllegalStateException | NumberFormatException e) {
+            throw new JsonSyntaxException(e);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Close the underlying stream.
+     *
+     * @throws IOException if closing the stream fails
+     */
+    @Override
+    public void close() throws IOException {
+        stream.close();
+    }
+
+    /**
+     * Read top-level fields until the files array opens or the object ends.
+     */
+    private void readFields() throws IOException {
+        while (in.hasNext()) {
+            switch (in.nextName()) {
+                case "deviceId":
+                    deviceId = MessageAdapters.readString(in);
+                    break;
+                case "status":
+                    status = MessageAdapters.readString(in);
+                    break;
+                case "timestamp":
+                    timestamp = MessageAdapters.readDouble(in, timestamp);
+                    break;
+                case "requestId":
+                    requestId = MessageAdapters.readBoxedLong(in);
+                    break;
+                case "files":
+                    if (in.peek() == JsonToken.BEGIN_ARRAY) {
+                        in.beginArray();
+                        inFiles = true;
+                        return;
+                    }
+                    in.skipValue();
+                    break;
+                default:
+                    in.skipValue();
+            }
+        }
+    }
+}
@@ -0,0 +1,636 @@
+package com.multicam.common;
+
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import com.multicam.common.FileTypes.ErrorResponse;
+import com.multicam.common.FileTypes.FileMetadata;
+import com.multicam.common.FileTypes.FileResponse;
+import com.multicam.common.FileTypes.ListFilesResponse;
+import com.multicam.common.FileTypes.StopRecordingResponse;
+import com.multicam.common.UploadTypes.UploadItem;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Hand-written streaming Gson adapters for every MultiCam message type.
+ * <p>
+ * These replace Gson's reflective adapters on the hot path. Output matches the
+ * reflective encoding: fields are written in declaration order, null fields are
+ * omitted unless the writer serializes nulls, and unknown input fields are skipped.
+ */
+final class MessageAdapters {
+
+    static final TypeAdapter<String> STRING = new StringAdapter();
+    static final TypeAdapter<CommandMessage> COMMAND_MESSAGE = new CommandMessageAdapter();
+    static final TypeAdapter<UploadItem> UPLOAD_ITEM = new UploadItemAdapter();
+    static final TypeAdapter<StatusResponse> STATUS_RESPONSE = new StatusResponseAdapter();
+    static final TypeAdapter<FileMetadata> FILE_METADATA = new FileMetadataAdapter();
+    static final TypeAdapter<FileResponse> FILE_RESPONSE = new FileResponseAdapter();
+    static final TypeAdapter<ListFilesResponse> LIST_FILES_RESPONSE = new ListFilesResponseAdapter();
+    static final TypeAdapter<StopRecordingResponse> STOP_RECORDING_RESPONSE = new StopRecordingResponseAdapter();
+    static final TypeAdapter<ErrorResponse> ERROR_RESPONSE = new ErrorResponseAdapter();
+    static final TypeAdapter<List<UploadItem>> UPLOAD_ITEM_LIST = listOf(UPLOAD_ITEM);
+    static final TypeAdapter<List<String>> STRING_LIST = listOf(STRING);
+
+    private MessageAdapters() {
+        // Prevent instantiation
+    }
+
+    // Adapters
+
+    static final class StringAdapter extends TypeAdapter<String> {
+        @Override
+        public void write(JsonWriter out, String value) throws IOException {
+            out.value(value);
+        }
+
+        @Override
+        public String read(JsonReader in) throws IOException {
+            return readString(in);
+        }
+    }
+
+    static final class CommandMessageAdapter extends TypeAdapter<CommandMessage> {
+        @Override
+        public void write(JsonWriter out, CommandMessage value) throws IOException {
+            if (value == null) {
+                out.nullValue();
+                return;
+            }
+            out.beginObject();
+            out.name("command").value(value.command != null ? value.command.name() : null);
+            writeDouble(out.name("timestamp"), value.timestamp);
+            out.name("deviceId").value(value.deviceId);
+            out.name("requestId").value(value.requestId);
+            out.name("fileName").value(value.fileName);
+            out.name("uploadUrl").value(value.uploadUrl);
+            out.name("s3Bucket").value(value.s3Bucket);
+            out.name("s3Key").value(value.s3Key);
+            out.name("awsAccessKeyId").value(value.awsAccessKeyId);
+            out.name("awsSecretAccessKey").value(value.awsSecretAccessKey);
+            out.name("awsSessionToken").value(value.awsSessionToken);
+            out.name("awsRegion").value(value.awsRegion);
+            out.name("offset").value(value.offset);
+            out.name("length").value(value.length);
+            out.endObject();
+        }
+
+        @Override
+        public CommandMessage read(JsonReader in) throws IOException {
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+            CommandMessage message = new CommandMessage();
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "command":
+                        message.command = readCommandType(in);
+                        break;
+                    case "timestamp":
+                        message.timestamp = readDouble(in, message.timestamp);
+                        break;
+                    case "deviceId":
+                        message.deviceId = readString(in);
+                        break;
+                    case "requestId":
+                        message.requestId = readBoxedLong(in);
+                        break;
+                    case "fileName":
+                        message.fileName = readString(in);
+                        break;
+                    case "uploadUrl":
+                        message.uploadUrl = readString(in);
+                        break;
+                    case "s3Bucket":
+                        message.s3Bucket = readString(in);
+                        break;
+                    case "s3Key":
+                        message.s3Key = readString(in);
+                        break;
+                    case "awsAccessKeyId":
+                        message.awsAccessKeyId = readString(in);
+                        break;
+                    case "awsSecretAccessKey":
+                        message.awsSecretAccessKey = readString(in);
+                        break;
+                    case "awsSessionToken":
+                        message.awsSessionToken = readString(in);
+                        break;
+                    case "awsRegion":
+                        message.awsRegion = readString(in);
+                        break;
+                    case "offset":
+                        message.offset = readBoxedLong(in);
+                        break;
+                    case "length":
+                        message.length = readBoxedLong(in);
+                        break;
+                    default:
+                        in.skipValue();
+                }
+            }
+            in.endObject();
+            return message;
+        }
+    }
+
+    static final class UploadItemAdapter extends TypeAdapter<UploadItem> {
+        @Override
+        public void write(JsonWriter out, UploadItem value) throws IOException {
+            if (value == null) {
+                out.nullValue();
+                return;
+            }
+            out.beginObject();
+            out.name("fileName").value(value.fileName);
+            out.name("fileSize").value(value.fileSize);
+            out.name("bytesUploaded").value(value.bytesUploaded);
+            writeDouble(out.name("uploadProgress"), value.uploadProgress);
+            out.name("uploadSpeed").value(value.uploadSpeed);
+            out.name("status").value(value.status);
+            out.name("uploadUrl").value(value.uploadUrl);
+            out.name("error").value(value.error);
+            out.endObject();
+        }
+
+        @Override
+        public UploadItem read(JsonReader in) throws IOException {
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+            UploadItem item = new UploadItem();
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "fileName":
+                        item.fileName = readString(in);
+                        break;
+                    case "fileSize":
+                        item.fileSize = readLong(in, item.fileSize);
+                        break;
+                    case "bytesUploaded":
+                        item.bytesUploaded = readLong(in, item.bytesUploaded);
+                        break;
+                    case "uploadProgress":
+                        item.uploadProgress = readDouble(in, item.uploadProgress);
+                        break;
+                    case "uploadSpeed":
+                        item.uploadSpeed = readLong(in, item.uploadSpeed);
+                        break;
+                    case "status":
+                        item.status = readString(in);
+                        break;
+                    case "uploadUrl":
+                        item.uploadUrl = readString(in);
+                        break;
+                    case "error":
+                        item.error = readString(in);
+                        break;
+                    default:
+                        in.skipValue();
+                }
+            }
+            in.endObject();
+            return item;
+        }
+    }
+
+    static final class StatusResponseAdapter extends TypeAdapter<StatusResponse> {
+        @Override
+        public void write(JsonWriter out, StatusResponse value) throws IOException {
+            if (value == null) {
+                out.nullValue();
+                return;
+            }
+            out.beginObject();
+            out.name("deviceId").value(value.deviceId);
+            out.name("status").value(value.status);
+            writeDouble(out.name("timestamp"), value.timestamp);
+            out.name("requestId").value(value.requestId);
+            out.name("batteryLevel").value(value.batteryLevel);
+            out.name("deviceType").value(value.deviceType);
+            writeList(out.name("uploadQueue"), value.uploadQueue, UPLOAD_ITEM);
+            writeList(out.name("failedUploadQueue"), value.failedUploadQueue, UPLOAD_ITEM);
+            writeList(out.name("capabilities"), value.capabilities, STRING);
+            out.endObject();
+        }
+
+        @Override
+        public StatusResponse read(JsonReader in) throws IOException {
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+            StatusResponse response = new StatusResponse();
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "deviceId":
+                        response.deviceId = readString(in);
+                        break;
+                    case "status":
+                        response.status = readString(in);
+                        break;
+                    case "timestamp":
+                        response.timestamp = readDouble(in, response.timestamp);
+                        break;
+                    case "requestId":
+                        response.requestId = readBoxedLong(in);
+                        break;
+                    case "batteryLevel":
+                        response.batteryLevel = readBoxedDouble(in);
+                        break;
+                    case "deviceType":
+                        response.deviceType = readString(in);
+                        break;
+                    case "uploadQueue":
+                        response.uploadQueue = readList(in, UPLOAD_ITEM);
+                        break;
+                    case "failedUploadQueue":
+                        response.failedUploadQueue = readList(in, UPLOAD_ITEM);
+                        break;
+                    case "capabilities":
+                        response.capabilities = readList(in, STRING);
+                        break;
+                    default:
+                        in.skipValue();
+                }
+            }
+            in.endObject();
+            return response;
+        }
+    }
+
+    static final class FileMetadataAdapter extends TypeAdapter<FileMetadata> {
+        @Override
+        public void write(JsonWriter out, FileMetadata value) throws IOException {
+            if (value == null) {
+                out.nullValue();
+                return;
+            }
+            out.beginObject();
+            out.name("fileName").value(value.fileName);
+            out.name("fileSize").value(value.fileSize);
+            writeDouble(out.name("creationDate"), value.creationDate);
+            writeDouble(out.name("modificationDate"), value.modificationDate);
+            out.endObject();
+        }
+
+        @Override
+        public FileMetadata read(JsonReader in) throws IOException {
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+            FileMetadata metadata = new FileMetadata();
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "fileName":
+                        metadata.fileName = readString(in);
+                        break;
+                    case "fileSize":
+                        metadata.fileSize = readLong(in, metadata.fileSize);
+                        break;
+                    case "creationDate":
+                        metadata.creationDate = readDouble(in, metadata.creationDate);
+                        break;
+                    case "modificationDate":
+                        metadata.modificationDate = readDouble(in, metadata.modificationDate);
+                        break;
+                    default:
+                        in.skipValue();
+                }
+            }
+            in.endObject();
+            return metadata;
+        }
+    }
+
+    static final class FileResponseAdapter extends TypeAdapter<FileResponse> {
+        @Override
+        public void write(JsonWriter out, FileResponse value) throws IOException {
+            if (value == null) {
+                out.nullValue();
+                return;
+            }
+            out.beginObject();
+            out.name("deviceId").value(value.deviceId);
+            out.name("fileName").value(value.fileName);
+            out.name("fileSize").value(value.fileSize);
+            out.name("status").value(value.status);
+            out.name("offset").value(value.offset);
+            out.name("length").value(value.length);
+            out.endObject();
+        }
+
+        @Override
+        public FileResponse read(JsonReader in) throws IOException {
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+            FileResponse response = new FileResponse();
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "deviceId":
+                        response.deviceId = readString(in);
+                        break;
+                    case "fileName":
+                        response.fileName = readString(in);
+                        break;
+                    case "fileSize":
+                        response.fileSize = readLong(in, response.fileSize);
+                        break;
+                    case "status":
+                        response.status = readString(in);
+                        break;
+                    case "offset":
+                        response.offset = readBoxedLong(in);
+                        break;
+                    case "length":
+                        response.length = readBoxedLong(in);
+                        break;
+                    default:
+                        in.skipValue();
+                }
+            }
+            in.endObject();
+            return response;
+        }
+    }
+
+    static final class ListFilesResponseAdapter extends TypeAdapter<ListFilesResponse> {
+        @Override
+        public void write(JsonWriter out, ListFilesResponse value) throws IOException {
+            if (value == null) {
+                out.nullValue();
+                return;
+            }
+            out.beginObject();
+            out.name("deviceId").value(value.deviceId);
+            out.name("status").value(value.status);
+            writeDouble(out.name("timestamp"), value.timestamp);
+            out.name("requestId").value(value.requestId);
+            writeList(out.name("files"), value.files, FILE_METADATA);
+            out.endObject();
+        }
+
+        @Override
+        public ListFilesResponse read(JsonReader in) throws IOException {
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+            ListFilesResponse response = new ListFilesResponse();
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "deviceId":
+                        response.deviceId = readString(in);
+                        break;
+                    case "status":
+                        response.status = readString(in);
+                        break;
+                    case "timestamp":
+                        response.timestamp = readDouble(in, response.timestamp);
+                        break;
+                    case "requestId":
+                        response.requestId = readBoxedLong(in);
+                        break;
+                    case "files":
+                        response.files = readList(in, FILE_METADATA);
+                        break;
+                    default:
+                        in.skipValue();
+                }
+            }
+            in.endObject();
+            return response;
+        }
+    }
+
+    static final class StopRecordingResponseAdapter extends TypeAdapter<StopRecordingResponse> {
+        @Override
+        public void write(JsonWriter out, StopRecordingResponse value) throws IOException {
+            if (value == null) {
+                out.nullValue();
+                return;
+            }
+            out.beginObject();
+            out.name("deviceId").value(value.deviceId);
+            out.name("status").value(value.status);
+            writeDouble(out.name("timestamp"), value.timestamp);
+            out.name("requestId").value(value.requestId);
+            out.name("fileName").value(value.fileName);
+            out.name("fileSize").value(value.fileSize);
+            out.endObject();
+        }
+
+        @Override
+        public StopRecordingResponse read(JsonReader in) throws IOException {
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+            StopRecordingResponse response = new StopRecordingResponse();
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "deviceId":
+                        response.deviceId = readString(in);
+                        break;
+                    case "status":
+                        response.status = readString(in);
+                        break;
+                    case "timestamp":
+                        response.timestamp = readDouble(in, response.timestamp);
+                        break;
+                    case "requestId":
+                        response.requestId = readBoxedLong(in);
+                        break;
+                    case "fileName":
+                        response.fileName = readString(in);
+                        break;
+                    case "fileSize":
+                        response.fileSize = readLong(in, response.fileSize);
+                        break;
+                    default:
+                        in.skipValue();
+                }
+            }
+            in.endObject();
+            return response;
+        }
+    }
+
+    static final class ErrorResponseAdapter extends TypeAdapter<ErrorResponse> {
+        @Override
+        public void write(JsonWriter out, ErrorResponse value) throws IOException {
+            if (value == null) {
+                out.nullValue();
+                return;
+            }
+            out.beginObject();
+            out.name("deviceId").value(value.deviceId);
+            out.name("status").value(value.status);
+            writeDouble(out.name("timestamp"), value.timestamp);
+            out.name("requestId").value(value.requestId);
+            out.name("message").value(value.message);
+            out.endObject();
+        }
+
+        @Override
+        public ErrorResponse read(JsonReader in) throws IOException {
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+            ErrorResponse response = new ErrorResponse();
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "deviceId":
+                        response.deviceId = readString(in);
+                        break;
+                    case "status":
+                        response.status = readString(in);
+                        break;
+                    case "timestamp":
+                        response.timestamp = readDouble(in, response.timestamp);
+                        break;
+                    case "requestId":
+                        response.requestId = readBoxedLong(in);
+                        break;
+                    case "message":
+                        response.message = readString(in);
+                        break;
+                    default:
+                        in.skipValue();
+                }
+            }
+            in.endObject();
+            return response;
+        }
+    }
+
+    /**
+     * Adapter for a JSON array of elements, read into an ArrayList.
+     */
+    static <T> TypeAdapter<List<T>> listOf(TypeAdapter<T> elementAdapter) {
+        return new TypeAdapter<List<T>>() {
+            @Override
+            public void write(JsonWriter out, List<T> value) throws IOException {
+                writeList(out, value, elementAdapter);
+            }
+
+            @Override
+            public List<T> read(JsonReader in) throws IOException {
+                return readList(in, elementAdapter);
+            }
+        };
+    }
+
+    // Field Helpers
+
+    static void writeDouble(JsonWriter out, double value) throws IOException {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            throw new IllegalArgumentException(value + " is not a valid double value as per JSON specification.");
+        }
+        out.value(value);
+    }
+
+    static <T> void writeList(JsonWriter out, List<T> values, TypeAdapter<T> elementAdapter) throws IOException {
+        if (values == null) {
+            out.nullValue();
+            return;
+        }
+        out.beginArray();
+        for (int i = 0, n = values.size(); i < n; i++) {
+            elementAdapter.write(out, values.get(i));
+        }
+        out.endArray();
+    }
+
+    static String readString(JsonReader in) throws IOException {
+        JsonToken token = in.peek();
+        if (token == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        if (token == JsonToken.BOOLEAN) {
+            return Boolean.toString(in.nextBoolean());
+        }
+        return in.nextString();
+    }
+
+    static double readDouble(JsonReader in, double defaultValue) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return defaultValue;
+        }
+        return in.nextDouble();
+    }
+
+    static Double readBoxedDouble(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        return in.nextDouble();
+    }
+
+    static long readLong(JsonReader in, long defaultValue) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return defaultValue;
+        }
+        try {
+            return in.nextLong();
+        } catch (NumberFormatException e) {
+            throw new JsonSyntaxException(e);
+        }
+    }
+
+    static Long readBoxedLong(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        try {
+            return in.nextLong();
+        } catch (NumberFormatException e) {
+            throw new JsonSyntaxException(e);
+        }
+    }
+
+    static CommandType readCommandType(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        return CommandType.fromValue(in.nextString());
+    }
+
+    static <T> List<T> readList(JsonReader in, TypeAdapter<T> elementAdapter) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        List<T> values = new ArrayList<>();
+        in.beginArray();
+        while (in.hasNext()) {
+            values.add(elementAdapter.read(in));
+        }
+        in.endArray();
+        return values;
+    }
+}
@@ -0,0 +1,610 @@
+package com.multicam.common;
+
+import com.google.gson.TypeAdapter;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousChannelGroup;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.AsynchronousSocketChannel;
+import java.nio.channels.CompletionHandler;
+import java.time.Duration;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+
+/**
+ * Asynchronous controller client for the JSON command protocol.
+ * <p>
+ * Each request opens a connection, writes the command, reads one JSON reply
+ * and closes the connection, as described in PROTOCOL.md. All I/O is
+ * non-blocking on {@link AsynchronousSocketChannel}, so a single controller
+ * thread can keep hundreds of device requests in flight. Each request must
+ * finish within the command timeout (default {@link Constants#COMMAND_TIMEOUT}),
+ * measured from the call to the reply; otherwise its future fails with
+ * {@link TimeoutException} and the connection is closed. With adaptive
+ * timeouts, each request's deadline instead comes from the device's measured
+ * round-trip times (see {@link RttEstimator}), bounded by the command
+ * timeout, so an unresponsive device is detected in seconds. Devices that
+ * advertise {@link Capabilities#KEEP_ALIVE_V1} can instead be reached over a
+ * persistent {@link KeepAliveConnection}; {@link #channel(InetSocketAddress, StatusResponse)}
+ * picks the right route.
+ * <pre>
+ * try (MultiCamClient client = new MultiCamClient()) {
+ *     List&lt;CompletableFuture&lt;StatusResponse&gt;&gt; replies = devices.stream()
+ *             .map(device -&gt; client.send(device, CommandMessage.deviceStatus()))
+ *             .collect(Collectors.toList());
+ *     CompletableFuture.allOf(replies.toArray(new CompletableFuture[0])).join();
+ * }
+ * </pre>
+ * GET_VIDEO replies use the binary file transfer protocol and cannot be sent
+ * through this client; download videos with {@link VideoReceiver}. Futures complete on the channel group's threads;
+ * cancelling a future closes its connection.
+ */
+public final class MultiCamClient implements Closeable {
+
+    /** Default per-request deadline */
+    public static final Duration DEFAULT_TIMEOUT = Duration.ofMillis((long) (Constants.COMMAND_TIMEOUT * 1000));
+
+    /** Largest reply accepted before the request fails */
+    public static final int MAX_RESPONSE_SIZE = 64 * 1024 * 1024;
+
+    private static final int INITIAL_BUFFER_SIZE = 4096;
+
+    private final AsynchronousChannelGroup group;
+    private final long timeoutNanos;
+    private final ScheduledExecutorService timer;
+    private final Set<Exchange<?>> inFlight = ConcurrentHashMap.newKeySet();
+    private final Set<KeepAliveConnection> connections = ConcurrentHashMap.newKeySet();
+    private final RttTracker rtt = new RttTracker();
+    private final RttEstimator estimator;
+    private final boolean adaptiveTimeouts;
+    private volatile boolean closed;
+
+    /**
+     * Create a client on the default channel group with the default timeout.
+     */
+    public MultiCamClient() {
+        this(null, DEFAULT_TIMEOUT);
+    }
+
+    /**
+     * Create a client on the default channel group.
+     *
+     * @param commandTimeout Deadline for each request
+     */
+    public MultiCamClient(Duration commandTimeout) {
+        this(null, commandTimeout);
+    }
+
+    /**
+     * Create a client whose connections belong to a channel group.
+     * <p>
+     * The group is not shut down when the client is closed.
+     *
+     * @param group          Channel group (null for the default group)
+     * @param commandTimeout Deadline for each request
+     */
+    public MultiCamClient(AsynchronousChannelGroup group, Duration commandTimeout) {
+        this(group, commandTimeout, false);
+    }
+
+    /**
+     * Create a client, optionally deriving request deadlines from measured round-trip times.
+     * <p>
+     * With adaptive timeouts, each request to a device gets the deadline
+     * {@link RttEstimator} computes for the device and command type, at least
+     * {@link RttEstimator#DEFAULT_MIN_TIMEOUT} and at most
+     * {@code commandTimeout}. Commands a device has not answered before get
+     * the full {@code commandTimeout}.
+     *
+     * @param group            Channel group (null for the default group)
+     * @param commandTimeout   Deadline for each request, the upper bound with adaptive timeouts
+     * @param adaptiveTimeouts Whether to derive deadlines from measured round-trip times
+     */
+    public MultiCamClient(AsynchronousChannelGroup group, Duration commandTimeout, boolean adaptiveTimeouts) {
+        if (commandTimeout.isNegative() || commandTimeout.isZero()) {
+            throw new IllegalArgumentException("Timeout must be positive: " + commandTimeout);
+        }
+        this.group = group;
+        this.timeoutNanos = commandTimeout.toNanos();
+        Duration minTimeout = commandTimeout.compareTo(RttEstimator.DEFAULT_MIN_TIMEOUT) < 0
+                ? commandTimeout : RttEstimator.DEFAULT_MIN_TIMEOUT;
+        this.estimator = new RttEstimator(minTimeout, commandTimeout);
+        this.adaptiveTimeouts = adaptiveTimeouts;
+        this.timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "multicam-client-timer");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Send a command to a device on the default port and read its status reply.
+     *
+     * @param host    Device host name or address
+     * @param command Command to send
+     * @return Future completing with the device's reply
+     */
+    public CompletableFuture<StatusResponse> send(String host, CommandMessage command) {
+        return send(new InetSocketAddress(host, Constants.TCP_PORT), command);
+    }
+
+    /**
+     * Send a command to a device and read its reply as a StatusResponse.
+     * <p>
+     * Fields specific to other reply types are dropped; use
+     * {@link #exchange(InetSocketAddress, CommandMessage)} to keep them.
+     *
+     * @param device  Device address
+     * @param command Command to send
+     * @return Future completing with the device's reply
+     * @throws IllegalArgumentException if the command is GET_VIDEO
+     */
+    public CompletableFuture<StatusResponse> send(InetSocketAddress device, CommandMessage command) {
+        return start(device, command, MessageAdapters.STATUS_RESPONSE);
+    }
+
+    /**
+     * Send a command to a device and decode its reply by command type.
+     *
+     * @param device  Device address
+     * @param command Command to send
+     * @return Future completing with the decoded reply (see {@link ResponseDecoder})
+     * @throws IllegalArgumentException if the command is GET_VIDEO
+     */
+    public CompletableFuture<DecodedResponse> exchange(InetSocketAddress device, CommandMessage command) {
+        return start(device, command, ResponseDecoder.adapterFor(command.command));
+    }
+
+    /**
+     * Open a persistent, pipelined connection to a device.
+     * <p>
+     * Only for devices that advertise {@link Capabilities#KEEP_ALIVE_V1}. The
+     * connection is established in the background; commands sent meanwhile
+     * are queued. Requests on it use this client's command timeout,
+     * or adaptive timeouts if enabled.
+     *
+     * @param device Device address
+     * @param format Encoding for commands (see {@link WireFormat#negotiate(StatusResponse)})
+     * @return KeepAliveConnection instance
+     * @throws IOException if the socket cannot be opened
+     */
+    public KeepAliveConnection connect(InetSocketAddress device, WireFormat format) throws IOException {
+        return open(device, format, false);
+    }
+
+    /**
+     * Open a persistent connection whose replies may arrive in any order.
+     * <p>
+     * Only for devices that advertise both {@link Capabilities#KEEP_ALIVE_V1}
+     * and {@link Capabilities#REQUEST_ID_V1}. Each command is tagged with a
+     * request ID and completes when the reply echoing it arrives, so a slow
+     * command does not delay the ones sent after it.
+     *
+     * @param device Device address
+     * @param format Encoding for commands (see {@link WireFormat#negotiate(StatusResponse)})
+     * @return KeepAliveConnection instance
+     * @throws IOException if the socket cannot be opened
+     */
+    public KeepAliveConnection multiplex(InetSocketAddress device, WireFormat format) throws IOException {
+        return open(device, format, true);
+    }
+
+    private KeepAliveConnection open(InetSocketAddress device, WireFormat format, boolean multiplexed)
+            throws IOException {
+        if (closed) {
+            throw new IllegalStateException("Client is closed");
+        }
+        KeepAliveConnection connection = new KeepAliveConnection(this, group, device, format, multiplexed,
+                connections::remove);
+        connections.add(connection);
+        connection.connect();
+        return connection;
+    }
+
+    /**
+     * Get the best route to a device given its last status response.
+     * <p>
+     * Devices advertising {@link Capabilities#KEEP_ALIVE_V1} get a new
+     * {@link KeepAliveConnection} in the negotiated format, multiplexed if
+     * they also advertise {@link Capabilities#REQUEST_ID_V1}; all others,
+     * including devices not yet polled, get a connection per command.
+     *
+     * @param device Device address
+     * @param status Last status response from the device (null if none yet)
+     * @return CommandChannel instance
+     * @throws IOException if a keep-alive socket cannot be opened
+     */
+    public CommandChannel channel(InetSocketAddress device, StatusResponse status) throws IOException {
+        if (status != null && status.supports(Capabilities.KEEP_ALIVE_V1)) {
+            return open(device, WireFormat.negotiate(status), status.supports(Capabilities.REQUEST_ID_V1));
+        }
+        return new PerCommandChannel(device);
+    }
+
+    /**
+     * Get the round-trip times this client has measured per device.
+     *
+     * @return RttTracker instance
+     */
+    public RttTracker getRttTracker() {
+        return rtt;
+    }
+
+    /**
+     * Get the smoothed round-trip estimates this client keeps per device and command type.
+     *
+     * @return RttEstimator instance
+     */
+    public RttEstimator getRttEstimator() {
+        return estimator;
+    }
+
+    /**
+     * Check whether request deadlines follow measured round-trip times.
+     *
+     * @return True if adaptive timeouts are enabled
+     */
+    public boolean hasAdaptiveTimeouts() {
+        return adaptiveTimeouts;
+    }
+
+    /**
+     * Get the number of requests currently in flight.
+     *
+     * @return In-flight request count
+     */
+    public int inFlight() {
+        return inFlight.size();
+    }
+
+    /**
+     * Connect to a device now and send it a pre-encoded command later.
+     * <p>
+     * The exchange connects immediately; its {@code ready} future completes
+     * once the connection is established, after which
+     * {@link Exchange#fire(ByteBuffer)} writes the command and reads the
+     * reply. The command timeout covers the connect and, once restarted,
+     * the reply.
+     *
+     * @param device  Device address
+     * @param command Type of the command that will be fired, for decoding the reply
+     * @return Exchange whose future completes with the decoded reply
+     */
+    Exchange<DecodedResponse> prepare(InetSocketAddress device, CommandType command) {
+        Exchange<DecodedResponse> exchange = new Exchange<>(device, command, null,
+                ResponseDecoder.adapterFor(command));
+        if (closed) {
+            exchange.future.completeExceptionally(new IllegalStateException("Client is closed"));
+            exchange.ready.completeExceptionally(new IllegalStateException("Client is closed"));
+            return exchange;
+        }
+        exchange.start();
+        return exchange;
+    }
+
+    /**
+     * Get the timer that enforces request deadlines, for components layered
+     * on this client that need periodic work.
+     *
+     * @return Scheduled executor with a single daemon thread
+     */
+    ScheduledExecutorService timer() {
+        return timer;
+    }
+
+    /**
+     * Get the deadline for a request.
+     *
+     * @param device  Device address
+     * @param command Command type
+     * @return Timeout in nanoseconds
+     */
+    long timeoutNanos(InetSocketAddress device, CommandType command) {
+        return adaptiveTimeouts ? estimator.timeoutNanos(device, command) : timeoutNanos;
+    }
+
+    /**
+     * Get the fixed command timeout, used for requests queued behind others.
+     *
+     * @return Timeout in nanoseconds
+     */
+    long commandTimeoutNanos() {
+        return timeoutNanos;
+    }
+
+    /**
+     * Feed a reply's round-trip time to the tracker and the estimator.
+     *
+     * @param device   Device address
+     * @param command  Command type
+     * @param rttNanos Time from sending the command to decoding the reply
+     */
+    void replied(InetSocketAddress device, CommandType command, long rttNanos) {
+        rtt.recordNanos(device, rttNanos);
+        estimator.recordNanos(device, command, rttNanos);
+    }
+
+    /**
+     * Back off the estimator after a request missed its deadline.
+     *
+     * @param device  Device address
+     * @param command Command type
+     */
+    void timedOut(InetSocketAddress device, CommandType command) {
+        estimator.timedOut(device, command);
+    }
+
+    /**
+     * Fail all in-flight requests, close keep-alive connections and stop the
+     * timeout timer.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        for (Exchange<?> exchange : inFlight) {
+            exchange.future.completeExceptionally(new AsynchronousCloseException());
+        }
+        for (KeepAliveConnection connection : connections) {
+            connection.close();
+        }
+        timer.shutdownNow();
+    }
+
+    private <T> CompletableFuture<T> start(InetSocketAddress device, CommandMessage command, TypeAdapter<T> adapter) {
+        if (command.command == CommandType.GET_VIDEO) {
+            throw new IllegalArgumentException("GET_VIDEO replies use the binary transfer protocol; use VideoReceiver");
+        }
+        if (closed) {
+            CompletableFuture<T> failed = new CompletableFuture<>();
+            failed.completeExceptionally(new IllegalStateException("Client is closed"));
+            return failed;
+        }
+        Exchange<T> exchange = new Exchange<>(device, command.command, ByteBuffer.wrap(command.toBytes()), adapter);
+        exchange.start();
+        return exchange.future;
+    }
+
+    /**
+     * Connection-per-command route for devices without keep-alive support.
+     */
+    private final class PerCommandChannel implements CommandChannel {
+        private final InetSocketAddress device;
+
+        PerCommandChannel(InetSocketAddress device) {
+            this.device = device;
+        }
+
+        @Override
+        public InetSocketAddress getDevice() {
+            return device;
+        }
+
+        @Override
+        public CompletableFuture<StatusResponse> send(CommandMessage command) {
+            return MultiCamClient.this.send(device, command);
+        }
+
+        @Override
+        public CompletableFuture<DecodedResponse> exchange(CommandMessage command) {
+            return MultiCamClient.this.exchange(device, command);
+        }
+
+        @Override
+        public void close() {
+            // Each request closes its own connection
+        }
+    }
+
+    /**
+     * One connect, write, read, close cycle. A prepared exchange has no
+     * request yet: it stops after connecting until {@link #fire(ByteBuffer)}.
+     */
+    final class Exchange<T> {
+        final CompletableFuture<T> future = new CompletableFuture<>();
+
+        /** Completes when the connection is established */
+        final CompletableFuture<Void> ready = new CompletableFuture<>();
+
+        private final InetSocketAddress device;
+        private final CommandType command;
+        private final TypeAdapter<T> adapter;
+        private final JsonMessageScanner scanner = new JsonMessageScanner();
+        private ByteBuffer request;
+        private ByteBuffer response = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+        private volatile AsynchronousSocketChannel channel;
+        private volatile ScheduledFuture<?> timeout;
+        private volatile long deadlineNanos;
+        private long sentNanos;
+
+        Exchange(InetSocketAddress device, CommandType command, ByteBuffer request, TypeAdapter<T> adapter) {
+            this.device = device;
+            this.command = command;
+            this.request = request;
+            this.adapter = adapter;
+        }
+
+        void start() {
+            inFlight.add(this);
+            future.whenComplete((result, error) -> {
+                ready.completeExceptionally(error != null ? error : new IllegalStateException("Already completed"));
+                finish();
+            });
+            try {
+                // A prepared exchange may wait for its fire; only its reply gets an adaptive deadline
+                schedule(request != null ? timeoutNanos(device, command) : timeoutNanos);
+                AsynchronousSocketChannel opened = AsynchronousSocketChannel.open(group);
+                channel = opened;
+                opened.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            } catch (IOException | RuntimeException e) {
+                future.completeExceptionally(e);
+                return;
+            }
+            if (closed) {
+                future.completeExceptionally(new AsynchronousCloseException());
+            }
+            if (future.isDone()) {
+                // Closed or timed out while opening: finish() may have run before the channel existed
+                closeChannel();
+                return;
+            }
+            channel.connect(device, null, handler(ignored -> connected()));
+        }
+
+        /**
+         * Write a prepared exchange's command and read the reply. Must only
+         * be called once, after {@code ready} has completed normally. The
+         * connect timeout keeps running until {@link #restartTimeout()}, so
+         * a batch of fires is not slowed down by timer bookkeeping.
+         *
+         * @param request Encoded JSON command
+         */
+        void fire(ByteBuffer request) {
+            if (!ready.isDone() || ready.isCompletedExceptionally() || this.request != null) {
+                throw new IllegalStateException("Exchange is not ready to fire");
+            }
+            this.request = request;
+            sentNanos = System.nanoTime();
+            write();
+        }
+
+        /**
+         * Give a fired exchange a full command timeout for its reply.
+         */
+        void restartTimeout() {
+            if (future.isDone()) {
+                return;
+            }
+            ScheduledFuture<?> previous = timeout;
+            if (previous != null) {
+                previous.cancel(false);
+            }
+            schedule(timeoutNanos(device, command));
+        }
+
+        private void schedule(long nanos) {
+            deadlineNanos = nanos;
+            timeout = timer.schedule(this::timedOut, nanos, TimeUnit.NANOSECONDS);
+        }
+
+        private void connected() {
+            if (request != null) {
+                sentNanos = System.nanoTime();
+                write();
+            } else {
+                ready.complete(null);
+            }
+        }
+
+        private void write() {
+            channel.write(request, null, handler(written -> {
+                if (request.hasRemaining()) {
+                    write();
+                } else {
+                    read();
+                }
+            }));
+        }
+
+        private void read() {
+            if (!response.hasRemaining()) {
+                if (response.capacity() >= MAX_RESPONSE_SIZE) {
+                    future.completeExceptionally(new IOException(
+                            "Reply from " + device + " exceeds " + MAX_RESPONSE_SIZE + " bytes"));
+                    return;
+                }
+                ByteBuffer larger = ByteBuffer.allocate(Math.min(response.capacity() * 2, MAX_RESPONSE_SIZE));
+                response.flip();
+                larger.put(response);
+                response = larger;
+            }
+            channel.read(response, null, handler(this::received));
+        }
+
+        private void received(int count) {
+            if (count < 0) {
+                decode(response.position());
+                return;
+            }
+            int end = scanner.scan(response, response.position() - count, response.position());
+            if (end >= 0) {
+                decode(end);
+            } else {
+                read();
+            }
+        }
+
+        private void decode(int end) {
+            if (!scanner.isStarted()) {
+                future.completeExceptionally(new EOFException(device + " closed the connection without replying"));
+                return;
+            }
+            ByteBuffer reply = response.duplicate();
+            reply.limit(end).position(0);
+            T decoded = Utf8Streams.read(adapter, reply);
+            replied(device, command, System.nanoTime() - sentNanos);
+            future.complete(decoded);
+        }
+
+        private void timedOut() {
+            if (future.completeExceptionally(new TimeoutException(
+                    command + " to " + device + " timed out after " + Duration.ofNanos(deadlineNanos)))) {
+                MultiCamClient.this.timedOut(device, command);
+            }
+        }
+
+        private void finish() {
+            inFlight.remove(this);
+            if (timeout != null) {
+                timeout.cancel(false);
+            }
+            closeChannel();
+        }
+
+        private void closeChannel() {
+            AsynchronousSocketChannel open = channel;
+            if (open != null) {
+                try {
+                    open.close();
+                } catch (IOException ignored) {
+                    // Nothing left to release
+                }
+            }
+        }
+
+        /**
+         * Continue with the next step unless the request has already completed
+         * (timed out, cancelled or client closed).
+         */
+        private <V> CompletionHandler<V, Void> handler(Consumer<V> next) {
+            return new CompletionHandler<V, Void>() {
+                @Override
+                public void completed(V result, Void attachment) {
+                    if (future.isDone()) {
+                        return;
+                    }
+                    try {
+                        next.accept(result);
+                    } catch (RuntimeException e) {
+                        future.completeExceptionally(e);
+                    }
+                }
+
+                @Override
+                public void failed(Throwable error, Void attachment) {
+                    future.completeExceptionally(error);
+                }
+            };
+        }
+    }
+}
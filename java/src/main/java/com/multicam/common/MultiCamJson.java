@@ -0,0 +1,82 @@
+package com.multicam.common;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.TypeAdapter;
+import com.google.gson.TypeAdapterFactory;
+import com.google.gson.reflect.TypeToken;
+import com.multicam.common.FileTypes.ErrorResponse;
+import com.multicam.common.FileTypes.FileMetadata;
+import com.multicam.common.FileTypes.FileResponse;
+import com.multicam.common.FileTypes.ListFilesResponse;
+import com.multicam.common.FileTypes.StopRecordingResponse;
+import com.multicam.common.UploadTypes.UploadItem;
+
+/**
+ * Shared JSON configuration for MultiCam messages.
+ * <p>
+ * All message classes serialize through a single {@link Gson} instance with
+ * reflection-free streaming adapters registered for every message type.
+ */
+public final class MultiCamJson {
+
+    private static final TypeAdapterFactory FACTORY = new TypeAdapterFactory() {
+        @Override
+        @SuppressWarnings("unchecked")
+        public <T> TypeAdapter<T> create(Gson gson, TypeToken<T> type) {
+            Class<? super T> rawType = type.getRawType();
+            if (rawType == CommandMessage.class) {
+                return (TypeAdapter<T>) MessageAdapters.COMMAND_MESSAGE;
+            } else if (rawType == StatusResponse.class) {
+                return (TypeAdapter<T>) MessageAdapters.STATUS_RESPONSE;
+            } else if (rawType == UploadItem.class) {
+                return (TypeAdapter<T>) MessageAdapters.UPLOAD_ITEM;
+            } else if (rawType == FileMetadata.class) {
+                return (TypeAdapter<T>) MessageAdapters.FILE_METADATA;
+            } else if (rawType == FileResponse.class) {
+                return (TypeAdapter<T>) MessageAdapters.FILE_RESPONSE;
+            } else if (rawType == ListFilesResponse.class) {
+                return (TypeAdapter<T>) MessageAdapters.LIST_FILES_RESPONSE;
+            } else if (rawType == StopRecordingResponse.class) {
+                return (TypeAdapter<T>) MessageAdapters.STOP_RECORDING_RESPONSE;
+            } else if (rawType == ErrorResponse.class) {
+                return (TypeAdapter<T>) MessageAdapters.ERROR_RESPONSE;
+            }
+            return null;
+        }
+    };
+
+    private static final Gson GSON = registerTypeAdapters(new GsonBuilder()).create();
+
+    /**
+     * Get the shared Gson instance used by all MultiCam message classes.
+     *
+     * @return Gson instance with MultiCam adapters registered
+     */
+    public static Gson gson() {
+        return GSON;
+    }
+
+    /**
+     * Get the factory that supplies the MultiCam message adapters.
+     *
+     * @return TypeAdapterFactory for all MultiCam message types
+     */
+    public static TypeAdapterFactory typeAdapterFactory() {
+        return FACTORY;
+    }
+
+    /**
+     * Register the MultiCam message adapters on an application's own Gson builder.
+     *
+     * @param builder GsonBuilder to configure
+     * @return The same builder, for chaining
+     */
+    public static GsonBuilder registerTypeAdapters(GsonBuilder builder) {
+        return builder.registerTypeAdapterFactory(FACTORY);
+    }
+
+    private MultiCamJson() {
+        // Prevent instantiation
+    }
+}
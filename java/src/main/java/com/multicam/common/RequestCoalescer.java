@@ -0,0 +1,164 @@
+package com.multicam.common;
+
+import java.net.InetSocketAddress;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Single-flight coalescing of idempotent commands, layered on a {@link MultiCamClient}.
+ * <p>
+ * When several parts of a controller ask the same device the same
+ * idempotent question at once (see {@link CommandType#isIdempotent()}),
+ * only the first request goes out; callers arriving while it is in flight
+ * share its round trip and receive the same reply object. Requests are
+ * keyed by device, command type and file name; a new request is sent once
+ * the previous one has completed. Replies from {@link #send} and
+ * {@link #exchange} have different types and are coalesced separately.
+ * Other commands are always sent individually.
+ * <p>
+ * Shared replies must be treated as read-only. Cancelling a caller's future
+ * detaches that caller only; the request continues for the others.
+ * <pre>
+ * RequestCoalescer coalescer = new RequestCoalescer(client);
+ * CompletableFuture&lt;StatusResponse&gt; forUi = coalescer.send(device, CommandMessage.deviceStatus());
+ * CompletableFuture&lt;StatusResponse&gt; forUploads = coalescer.send(device, CommandMessage.deviceStatus());
+ * </pre>
+ */
+public final class RequestCoalescer {
+
+    private final MultiCamClient client;
+    private final ConcurrentMap<Key, CompletableFuture<StatusResponse>> statusFlights = new ConcurrentHashMap<>();
+    private final ConcurrentMap<Key, CompletableFuture<DecodedResponse>> decodedFlights = new ConcurrentHashMap<>();
+
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+
+    /**
+     * Create a coalescer.
+     *
+     * @param client Client used to send commands
+     */
+    public RequestCoalescer(MultiCamClient client) {
+        this.client = client;
+    }
+
+    /**
+     * Send a command, sharing an identical request already in flight, and
+     * read the reply as a StatusResponse.
+     *
+     * @param device  Device address
+     * @param command Command to send
+     * @return Future completing with the (possibly shared) reply
+     * @throws IllegalArgumentException if the command is GET_VIDEO
+     */
+    public CompletableFuture<StatusResponse> send(InetSocketAddress device, CommandMessage command) {
+        return coalesce(statusFlights, device, command, () -> client.send(device, command));
+    }
+
+    /**
+     * Send a command, sharing an identical request already in flight, and
+     * decode the reply by command type.
+     *
+     * @param device  Device address
+     * @param command Command to send
+     * @return Future completing with the (possibly shared) reply
+     * @throws IllegalArgumentException if the command is GET_VIDEO
+     */
+    public CompletableFuture<DecodedResponse> exchange(InetSocketAddress device, CommandMessage command) {
+        return coalesce(decodedFlights, device, command, () -> client.exchange(device, command));
+    }
+
+    /**
+     * Get the number of idempotent requests made through the coalescer.
+     *
+     * @return Request count
+     */
+    public long getRequests() {
+        return requests.get();
+    }
+
+    /**
+     * Get the number of requests that joined one already in flight instead
+     * of going to the network.
+     *
+     * @return Coalesced request count
+     */
+    public long getCoalesced() {
+        return coalesced.get();
+    }
+
+    private <T> CompletableFuture<T> coalesce(ConcurrentMap<Key, CompletableFuture<T>> flights,
+                                              InetSocketAddress device, CommandMessage command,
+                                              Supplier<CompletableFuture<T>> send) {
+        if (!command.command.isIdempotent()) {
+            return send.get();
+        }
+        requests.incrementAndGet();
+        Key key = new Key(device, command.command, command.fileName);
+        CompletableFuture<T> flight = flights.get(key);
+        if (flight != null) {
+            coalesced.incrementAndGet();
+            return flight.copy();
+        }
+        CompletableFuture<T> placeholder = new CompletableFuture<>();
+        flight = flights.putIfAbsent(key, placeholder);
+        if (flight != null) {
+            coalesced.incrementAndGet();
+            return flight.copy();
+        }
+        try {
+            send.get().whenComplete((reply, error) -> {
+                // Retire the flight before any caller sees its reply, so a request
+                // made once the reply is in hand goes to the network
+                flights.remove(key, placeholder);
+                if (error != null) {
+                    placeholder.completeExceptionally(error);
+                } else {
+                    placeholder.complete(reply);
+                }
+            });
+        } catch (RuntimeException e) {
+            flights.remove(key, placeholder);
+            placeholder.completeExceptionally(e);
+            throw e;
+        }
+        return placeholder.copy();
+    }
+
+    /**
+     * Identity of a request for coalescing.
+     */
+    private static final class Key {
+        private final InetSocketAddress device;
+        private final CommandType command;
+        private final String fileName;
+
+        Key(InetSocketAddress device, CommandType command, String fileName) {
+            this.device = device;
+            this.command = command;
+            this.fileName = fileName;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return device.equals(other.device) && command == other.command
+                    && Objects.equals(fileName, other.fileName);
+        }
+
+        @Override
+        public int hashCode() {
+            return (device.hashCode() * 31 + command.hashCode()) * 31 + Objects.hashCode(fileName);
+        }
+    }
+}
@@ -0,0 +1,311 @@
+package com.multicam.common;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Hedged requests for idempotent commands, layered on a {@link MultiCamClient}.
+ * <p>
+ * A few devices on flaky Wi-Fi can dominate the tail latency of a fleet-wide
+ * sweep. If an idempotent command (see {@link CommandType#isIdempotent()})
+ * has not been answered within the device's observed round-trip percentile
+ * (p95 by default, from {@link MultiCamClient#getRttTracker()}), the hedger
+ * sends the same command again on a fresh connection. The first reply wins.
+ * A losing hedge is cancelled. A losing original is left to finish so its
+ * round-trip time still feeds the statistics that set the hedge delay. The
+ * future fails only when every attempt has failed.
+ * <p>
+ * Hedges are paid for from a budget: each idempotent request earns
+ * {@code budget} tokens (up to {@link #MAX_BUDGET_TOKENS}) and each hedge
+ * costs one, so hedges stay below that fraction of requests even while a
+ * whole network is slow. Devices with fewer than {@link RttTracker#MIN_SAMPLES}
+ * samples, and all other commands, are sent once as usual.
+ * <pre>
+ * RequestHedger hedger = new RequestHedger(client);
+ * StatusResponse status = hedger.send(device, CommandMessage.deviceStatus()).join();
+ * </pre>
+ */
+public final class RequestHedger {
+
+    /** Default round-trip percentile after which a hedge is sent */
+    public static final double DEFAULT_PERCENTILE = 0.95;
+
+    /** Default hedges allowed per idempotent request */
+    public static final double DEFAULT_BUDGET = 0.05;
+
+    /** Most hedges that can be saved up and spent in a burst */
+    public static final double MAX_BUDGET_TOKENS = 10.0;
+
+    private final MultiCamClient client;
+    private final double percentile;
+    private final double budget;
+
+    private final Object lock = new Object();
+
+    /** Guarded by lock */
+    private double tokens;
+    private long requests;
+    private long hedges;
+    private long hedgeWins;
+    private long denied;
+
+    /**
+     * Create a hedger with the default percentile and budget.
+     *
+     * @param client Client used to send commands
+     */
+    public RequestHedger(MultiCamClient client) {
+        this(client, DEFAULT_PERCENTILE, DEFAULT_BUDGET);
+    }
+
+    /**
+     * Create a hedger.
+     *
+     * @param client     Client used to send commands
+     * @param percentile Round-trip percentile of the device after which to hedge (0.0-1.0)
+     * @param budget     Hedges allowed per idempotent request (0.0-1.0)
+     */
+    public RequestHedger(MultiCamClient client, double percentile, double budget) {
+        if (!(percentile > 0.0 && percentile <= 1.0)) {
+            throw new IllegalArgumentException("Percentile must be in (0, 1]: " + percentile);
+        }
+        if (!(budget >= 0.0 && budget <= 1.0)) {
+            throw new IllegalArgumentException("Budget must be in [0, 1]: " + budget);
+        }
+        this.client = client;
+        this.percentile = percentile;
+        this.budget = budget;
+    }
+
+    /**
+     * Send a command, hedging it if idempotent, and read the reply as a StatusResponse.
+     *
+     * @param device  Device address
+     * @param command Command to send
+     * @return Future completing with the first reply
+     * @throws IllegalArgumentException if the command is GET_VIDEO
+     */
+    public CompletableFuture<StatusResponse> send(InetSocketAddress device, CommandMessage command) {
+        return hedge(device, command, () -> client.send(device, command));
+    }
+
+    /**
+     * Send a command, hedging it if idempotent, and decode the reply by command type.
+     *
+     * @param device  Device address
+     * @param command Command to send
+     * @return Future completing with the first reply
+     * @throws IllegalArgumentException if the command is GET_VIDEO
+     */
+    public CompletableFuture<DecodedResponse> exchange(InetSocketAddress device, CommandMessage command) {
+        return hedge(device, command, () -> client.exchange(device, command));
+    }
+
+    /**
+     * Get a snapshot of the hedging counters.
+     *
+     * @return Stats instance
+     */
+    public Stats getStats() {
+        synchronized (lock) {
+            return new Stats(requests, hedges, hedgeWins, denied);
+        }
+    }
+
+    private <T> CompletableFuture<T> hedge(InetSocketAddress device, CommandMessage command,
+                                           Supplier<CompletableFuture<T>> attempt) {
+        CompletableFuture<T> primary = attempt.get();
+        if (!command.command.isIdempotent()) {
+            return primary;
+        }
+        synchronized (lock) {
+            requests++;
+            tokens = Math.min(MAX_BUDGET_TOKENS, tokens + budget);
+        }
+        RttTracker.Stats stats = client.getRttTracker().getStats(device);
+        if (stats == null || stats.getSampleCount() < RttTracker.MIN_SAMPLES || primary.isDone()) {
+            return primary;
+        }
+        Race<T> race = new Race<>(primary, attempt);
+        race.trigger = client.timer().schedule(race::hedge, stats.percentileNanos(percentile),
+                TimeUnit.NANOSECONDS);
+        return race.result;
+    }
+
+    private boolean withdraw() {
+        synchronized (lock) {
+            if (tokens < 1.0) {
+                denied++;
+                return false;
+            }
+            tokens -= 1.0;
+            hedges++;
+            return true;
+        }
+    }
+
+    private void won() {
+        synchronized (lock) {
+            hedgeWins++;
+        }
+    }
+
+    /**
+     * One request and its possible hedge, settling on the first reply.
+     */
+    private final class Race<T> {
+        final CompletableFuture<T> result = new CompletableFuture<>();
+        private final CompletableFuture<T> primary;
+        private final Supplier<CompletableFuture<T>> attempt;
+        private volatile ScheduledFuture<?> trigger;
+
+        /** Guarded by this */
+        private CompletableFuture<T> hedged;
+        private int outstanding = 1;
+
+        Race(CompletableFuture<T> primary, Supplier<CompletableFuture<T>> attempt) {
+            this.primary = primary;
+            this.attempt = attempt;
+            primary.whenComplete((reply, error) -> settle(reply, error, false));
+            result.whenComplete((reply, error) -> {
+                ScheduledFuture<?> pending = trigger;
+                if (pending != null) {
+                    pending.cancel(false);
+                }
+                CompletableFuture<T> loser;
+                synchronized (this) {
+                    loser = hedged;
+                }
+                if (loser != null) {
+                    loser.cancel(false);
+                }
+                if (result.isCancelled()) {
+                    primary.cancel(false);
+                }
+            });
+        }
+
+        void hedge() {
+            synchronized (this) {
+                if (result.isDone()) {
+                    return;
+                }
+                outstanding++;
+            }
+            if (!withdraw()) {
+                unsent();
+                return;
+            }
+            CompletableFuture<T> second;
+            try {
+                second = attempt.get();
+            } catch (RuntimeException e) {
+                settle(null, e, true);
+                return;
+            }
+            synchronized (this) {
+                hedged = second;
+            }
+            if (result.isDone()) {
+                second.cancel(false);
+            }
+            second.whenComplete((reply, error) -> settle(reply, error, true));
+        }
+
+        /**
+         * Record the end of one attempt.
+         */
+        private void settle(T reply, Throwable error, boolean fromHedge) {
+            boolean last;
+            synchronized (this) {
+                last = --outstanding == 0;
+            }
+            if (error == null) {
+                if (result.complete(reply) && fromHedge) {
+                    won();
+                }
+            } else if (last) {
+                result.completeExceptionally(error);
+            }
+        }
+
+        /**
+         * Withdraw a hedge the budget did not allow. If the original has
+         * already failed meanwhile, so has the request.
+         */
+        private void unsent() {
+            boolean last;
+            synchronized (this) {
+                last = --outstanding == 0;
+            }
+            if (last) {
+                primary.whenComplete((reply, error) -> {
+                    if (error != null) {
+                        result.completeExceptionally(error);
+                    }
+                });
+            }
+        }
+    }
+
+    /**
+     * Snapshot of hedging counters.
+     */
+    public static final class Stats {
+        private final long requests;
+        private final long hedges;
+        private final long hedgeWins;
+        private final long denied;
+
+        Stats(long requests, long hedges, long hedgeWins, long denied) {
+            this.requests = requests;
+            this.hedges = hedges;
+            this.hedgeWins = hedgeWins;
+            this.denied = denied;
+        }
+
+        /**
+         * Get the number of idempotent requests sent through the hedger.
+         *
+         * @return Request count
+         */
+        public long getRequests() {
+            return requests;
+        }
+
+        /**
+         * Get the number of hedges sent.
+         *
+         * @return Hedge count
+         */
+        public long getHedges() {
+            return hedges;
+        }
+
+        /**
+         * Get the number of requests answered first by their hedge.
+         *
+         * @return Hedge win count
+         */
+        public long getHedgeWins() {
+            return hedgeWins;
+        }
+
+        /**
+         * Get the number of hedges not sent because the budget was spent.
+         *
+         * @return Denied hedge count
+         */
+        public long getDenied() {
+            return denied;
+        }
+
+        @Override
+        public String toString() {
+            return "requests " + requests + ", hedges " + hedges + " (" + hedgeWins + " won), denied " + denied;
+        }
+    }
+}
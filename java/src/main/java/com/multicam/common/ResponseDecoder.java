@@ -0,0 +1,258 @@
+package com.multicam.common;
+
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import com.multicam.common.FileTypes.ErrorResponse;
+import com.multicam.common.FileTypes.FileMetadata;
+import com.multicam.common.FileTypes.ListFilesResponse;
+import com.multicam.common.FileTypes.StopRecordingResponse;
+import com.multicam.common.UploadTypes.UploadItem;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * Single-pass decoder for device replies.
+ * <p>
+ * The reply is read once into the union of all response fields; the concrete
+ * response type is then chosen from the {@code status} field and the command
+ * that was sent:
+ * <ul>
+ *   <li>Error statuses (see {@link DeviceStatus#isError()}) decode to {@link ErrorResponse}</li>
+ *   <li>STOP_RECORDING and UPLOAD_TO_CLOUD decode to {@link StopRecordingResponse}
+ *       (both carry {@code fileName} and {@code fileSize})</li>
+ *   <li>LIST_FILES decodes to {@link ListFilesResponse}</li>
+ *   <li>All other commands decode to {@link StatusResponse}</li>
+ * </ul>
+ * Unrecognized status values are treated as non-errors.
+ */
+public final class ResponseDecoder {
+
+    private static final CommandType[] COMMAND_TYPES = CommandType.values();
+
+    private static final DecodingAdapter[] ADAPTERS = new DecodingAdapter[COMMAND_TYPES.length];
+
+    private static final DecodingAdapter DEFAULT_ADAPTER = new DecodingAdapter(null);
+
+    static {
+        for (CommandType type : COMMAND_TYPES) {
+            ADAPTERS[type.ordinal()] = new DecodingAdapter(type);
+        }
+    }
+
+    private ResponseDecoder() {
+        // Prevent instantiation
+    }
+
+    /**
+     * Decode a reply from JSON string.
+     *
+     * @param sent Command the reply answers (null decodes as a status reply)
+     * @param json JSON string to parse
+     * @return Decoded reply, or null if the input is empty
+     * @throws JsonSyntaxException if the input is not a valid reply
+     */
+    public static DecodedResponse decode(CommandType sent, String json) {
+        if (json == null) {
+            return null;
+        }
+        try {
+            return Utf8Streams.read(adapterFor(sent), new StringReader(json));
+        } catch (IOException e) {
+            throw new JsonSyntaxException(e);
+        }
+    }
+
+    /**
+     * Decode a reply from a UTF-8 JSON input stream.
+     * <p>
+     * Reads a single JSON object; bytes following it may be consumed from the stream.
+     *
+     * @param sent Command the reply answers (null decodes as a status reply)
+     * @param in   Stream to read from
+     * @return Decoded reply, or null if the stream is empty
+     * @throws IOException if reading from the stream fails
+     */
+    public static DecodedResponse decode(CommandType sent, InputStream in) throws IOException {
+        return Utf8Streams.read(adapterFor(sent), in);
+    }
+
+    /**
+     * Decode a reply from the bytes remaining in a buffer.
+     * <p>
+     * Binary status replies (see {@link BinaryCodec}) are recognised by their
+     * first byte and decode to {@link DecodedResponse.StatusResult}, or to
+     * {@link DecodedResponse.ErrorResult} for error statuses.
+     *
+     * @param sent Command the reply answers (null decodes as a status reply)
+     * @param src  Buffer to read from
+     * @return Decoded reply, or null if the buffer is empty
+     */
+    public static DecodedResponse decode(CommandType sent, ByteBuffer src) {
+        if (WireFormat.detect(src) == WireFormat.BINARY) {
+            return fromStatus(BinaryCodec.decodeStatus(src));
+        }
+        return Utf8Streams.read(adapterFor(sent), src);
+    }
+
+    private static DecodedResponse fromStatus(StatusResponse response) {
+        DeviceStatus deviceStatus = response.getDeviceStatus();
+        if (deviceStatus != null && deviceStatus.isError()) {
+            ErrorResponse error = new ErrorResponse(response.deviceId, response.status, response.timestamp, null);
+            error.requestId = response.requestId;
+            return new DecodedResponse.ErrorResult(error);
+        }
+        return new DecodedResponse.StatusResult(response);
+    }
+
+    static TypeAdapter<DecodedResponse> adapterFor(CommandType sent) {
+        return sent != null ? ADAPTERS[sent.ordinal()] : DEFAULT_ADAPTER;
+    }
+
+    /**
+     * Adapter that reads the union of response fields and builds the matching response type.
+     */
+    private static final class DecodingAdapter extends TypeAdapter<DecodedResponse> {
+        private final CommandType sent;
+
+        DecodingAdapter(CommandType sent) {
+            this.sent = sent;
+        }
+
+        @Override
+        public void write(JsonWriter out, DecodedResponse value) throws IOException {
+            if (value == null) {
+                out.nullValue();
+                return;
+            }
+            switch (value.getKind()) {
+                case STOP_RECORDING:
+                    MessageAdapters.STOP_RECORDING_RESPONSE.write(out,
+                            ((DecodedResponse.StopRecordingResult) value).getResponse());
+                    break;
+                case LIST_FILES:
+                    MessageAdapters.LIST_FILES_RESPONSE.write(out,
+                            ((DecodedResponse.ListFilesResult) value).getResponse());
+                    break;
+                case ERROR:
+                    MessageAdapters.ERROR_RESPONSE.write(out, ((DecodedResponse.ErrorResult) value).getResponse());
+                    break;
+                default:
+                    MessageAdapters.STATUS_RESPONSE.write(out, ((DecodedResponse.StatusResult) value).getResponse());
+            }
+        }
+
+        @Override
+        public DecodedResponse read(JsonReader in) throws IOException {
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+            String deviceId = null;
+            String status = null;
+            double timestamp = 0;
+            Long requestId = null;
+            Double batteryLevel = null;
+            String deviceType = null;
+            List<UploadItem> uploadQueue = null;
+            List<UploadItem> failedUploadQueue = null;
+            boolean hasUploadQueue = false;
+            boolean hasFailedUploadQueue = false;
+            List<String> capabilities = null;
+            String fileName = null;
+            long fileSize = 0;
+            List<FileMetadata> files = null;
+            boolean hasFiles = false;
+            String message = null;
+
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "deviceId":
+                        deviceId = MessageAdapters.readString(in);
+                        break;
+                    case "status":
+                        status = MessageAdapters.readString(in);
+                        break;
+                    case "timestamp":
+                        timestamp = MessageAdapters.readDouble(in, timestamp);
+                        break;
+                    case "requestId":
+                        requestId = MessageAdapters.readBoxedLong(in);
+                        break;
+                    case "batteryLevel":
+                        batteryLevel = MessageAdapters.readBoxedDouble(in);
+                        break;
+                    case "deviceType":
+                        deviceType = MessageAdapters.readString(in);
+                        break;
+                    case "uploadQueue":
+                        uploadQueue = MessageAdapters.readList(in, MessageAdapters.UPLOAD_ITEM);
+                        hasUploadQueue = true;
+                        break;
+                    case "failedUploadQueue":
+                        failedUploadQueue = MessageAdapters.readList(in, MessageAdapters.UPLOAD_ITEM);
+                        hasFailedUploadQueue = true;
+                        break;
+                    case "capabilities":
+                        capabilities = MessageAdapters.readList(in, MessageAdapters.STRING);
+                        break;
+                    case "fileName":
+                        fileName = MessageAdapters.readString(in);
+                        break;
+                    case "fileSize":
+                        fileSize = MessageAdapters.readLong(in, fileSize);
+                        break;
+                    case "files":
+                        files = MessageAdapters.readList(in, MessageAdapters.FILE_METADATA);
+                        hasFiles = true;
+                        break;
+                    case "message":
+                        message = MessageAdapters.readString(in);
+                        break;
+                    default:
+                        in.skipValue();
+                }
+            }
+            in.endObject();
+
+            DeviceStatus deviceStatus = DeviceStatus.fromValue(status);
+            if (deviceStatus != null && deviceStatus.isError()) {
+                ErrorResponse response = new ErrorResponse(deviceId, status, timestamp, message);
+                response.requestId = requestId;
+                return new DecodedResponse.ErrorResult(response);
+            }
+            if (sent == CommandType.STOP_RECORDING || sent == CommandType.UPLOAD_TO_CLOUD) {
+                StopRecordingResponse response = new StopRecordingResponse(deviceId, status, timestamp,
+                        fileName, fileSize);
+                response.requestId = requestId;
+                return new DecodedResponse.StopRecordingResult(response);
+            }
+            if (sent == CommandType.LIST_FILES) {
+                ListFilesResponse response = new ListFilesResponse(deviceId, status, timestamp, null);
+                response.requestId = requestId;
+                if (hasFiles) {
+                    response.files = files;
+                }
+                return new DecodedResponse.ListFilesResult(response);
+            }
+            StatusResponse response = new StatusResponse(deviceId, status, timestamp);
+            response.requestId = requestId;
+            response.batteryLevel = batteryLevel;
+            response.deviceType = deviceType;
+            if (hasUploadQueue) {
+                response.uploadQueue = uploadQueue;
+            }
+            if (hasFailedUploadQueue) {
+                response.failedUploadQueue = failedUploadQueue;
+            }
+            response.capabilities = capabilities;
+            return new DecodedResponse.StatusResult(response);
+        }
+    }
+}
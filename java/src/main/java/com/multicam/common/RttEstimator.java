@@ -0,0 +1,201 @@
+package com.multicam.common;
+
+import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Smoothed round-trip time and variance per device and command type, and
+ * the request timeouts derived from them.
+ * <p>
+ * Follows the Jacobson/Karels estimator of TCP (RFC 6298). The first sample
+ * {@code R} sets {@code SRTT = R} and {@code RTTVAR = R/2}. Each later
+ * sample updates {@code RTTVAR = 3/4 RTTVAR + 1/4 |SRTT - R|} and then
+ * {@code SRTT = 7/8 SRTT + 1/8 R}. The timeout is
+ * {@code SRTT + 4 RTTVAR}, clamped to [minimum, maximum].
+ * <p>
+ * A jittery device gets a wide margin and a steady one a tight margin. A
+ * timeout doubles the next timeout for that device and command, up to the
+ * maximum, so a device that has merely become slower is not declared dead
+ * repeatedly. The next reply ends the backoff. Until a device has answered a
+ * command type, that type's timeout is the maximum.
+ * <p>
+ * {@link MultiCamClient} keeps one estimator and updates it from every
+ * reply; with adaptive timeouts enabled it also takes each request's
+ * deadline from it, using its command timeout as the maximum.
+ */
+public final class RttEstimator {
+
+    /** Default lower bound for a timeout, as recommended by RFC 6298 */
+    public static final Duration DEFAULT_MIN_TIMEOUT = Duration.ofSeconds(1);
+
+    /** Number of doublings after which backoff stops growing */
+    private static final int MAX_BACKOFF_SHIFT = 16;
+
+    private static final CommandType[] COMMANDS = CommandType.values();
+
+    private final long minNanos;
+    private final long maxNanos;
+    private final ConcurrentMap<InetSocketAddress, Estimate[]> devices = new ConcurrentHashMap<>();
+
+    /**
+     * Create an estimator with the default minimum and
+     * {@link Constants#COMMAND_TIMEOUT} as the maximum.
+     */
+    public RttEstimator() {
+        this(DEFAULT_MIN_TIMEOUT, MultiCamClient.DEFAULT_TIMEOUT);
+    }
+
+    /**
+     * Create an estimator.
+     *
+     * @param minTimeout Lower bound for derived timeouts
+     * @param maxTimeout Upper bound for derived timeouts, also used before the first sample
+     */
+    public RttEstimator(Duration minTimeout, Duration maxTimeout) {
+        if (minTimeout.isNegative() || minTimeout.isZero() || minTimeout.compareTo(maxTimeout) > 0) {
+            throw new IllegalArgumentException("Need 0 < minTimeout <= maxTimeout: " + minTimeout + ", " + maxTimeout);
+        }
+        this.minNanos = minTimeout.toNanos();
+        this.maxNanos = maxTimeout.toNanos();
+    }
+
+    /**
+     * Record a round trip.
+     *
+     * @param device  Device address
+     * @param command Type of the command that was answered
+     * @param rtt     Time from sending the command to receiving its reply
+     */
+    public void record(InetSocketAddress device, CommandType command, Duration rtt) {
+        recordNanos(device, command, rtt.toNanos());
+    }
+
+    void recordNanos(InetSocketAddress device, CommandType command, long rttNanos) {
+        if (rttNanos >= 0) {
+            estimate(device, command).sample(rttNanos);
+        }
+    }
+
+    /**
+     * Record that a command missed its deadline, backing off the next timeout.
+     *
+     * @param device  Device address
+     * @param command Type of the command that timed out
+     */
+    public void timedOut(InetSocketAddress device, CommandType command) {
+        estimate(device, command).backOff();
+    }
+
+    /**
+     * Get the timeout for the next command of a type to a device.
+     *
+     * @param device  Device address
+     * @param command Command type
+     * @return Timeout within [minimum, maximum]
+     */
+    public Duration getTimeout(InetSocketAddress device, CommandType command) {
+        return Duration.ofNanos(timeoutNanos(device, command));
+    }
+
+    long timeoutNanos(InetSocketAddress device, CommandType command) {
+        Estimate[] estimates = devices.get(device);
+        Estimate estimate = estimates != null ? estimates[command.ordinal()] : null;
+        return estimate != null ? estimate.timeoutNanos(minNanos, maxNanos) : maxNanos;
+    }
+
+    /**
+     * Get the smoothed round-trip time of a command type to a device.
+     *
+     * @param device  Device address
+     * @param command Command type
+     * @return SRTT, or null if the device has not answered this command yet
+     */
+    public Duration getSmoothedRtt(InetSocketAddress device, CommandType command) {
+        Estimate estimate = find(device, command);
+        return estimate != null ? estimate.smoothed() : null;
+    }
+
+    /**
+     * Get the round-trip time variation of a command type to a device.
+     *
+     * @param device  Device address
+     * @param command Command type
+     * @return RTTVAR, or null if the device has not answered this command yet
+     */
+    public Duration getRttVariation(InetSocketAddress device, CommandType command) {
+        Estimate estimate = find(device, command);
+        return estimate != null ? estimate.variation() : null;
+    }
+
+    /**
+     * Drop all estimates of a device.
+     *
+     * @param device Device address
+     */
+    public void forget(InetSocketAddress device) {
+        devices.remove(device);
+    }
+
+    private Estimate find(InetSocketAddress device, CommandType command) {
+        Estimate[] estimates = devices.get(device);
+        return estimates != null ? estimates[command.ordinal()] : null;
+    }
+
+    private Estimate estimate(InetSocketAddress device, CommandType command) {
+        Estimate[] estimates = devices.get(device);
+        if (estimates == null) {
+            estimates = devices.computeIfAbsent(device, ignored -> newEstimates());
+        }
+        return estimates[command.ordinal()];
+    }
+
+    private static Estimate[] newEstimates() {
+        Estimate[] estimates = new Estimate[COMMANDS.length];
+        for (int i = 0; i < estimates.length; i++) {
+            estimates[i] = new Estimate();
+        }
+        return estimates;
+    }
+
+    /**
+     * Estimator state for one device and command type.
+     */
+    private static final class Estimate {
+        private long srtt = -1;
+        private long rttvar;
+        private int backoff;
+
+        synchronized void sample(long rtt) {
+            if (srtt < 0) {
+                srtt = rtt;
+                rttvar = rtt / 2;
+            } else {
+                rttvar += (Math.abs(srtt - rtt) - rttvar) / 4;
+                srtt += (rtt - srtt) / 8;
+            }
+            backoff = 0;
+        }
+
+        synchronized void backOff() {
+            backoff = Math.min(backoff + 1, MAX_BACKOFF_SHIFT);
+        }
+
+        synchronized long timeoutNanos(long min, long max) {
+            if (srtt < 0) {
+                return max;
+            }
+            long base = Math.max(min, srtt + 4 * rttvar);
+            return base > max >> backoff ? max : Math.min(max, base << backoff);
+        }
+
+        synchronized Duration smoothed() {
+            return srtt < 0 ? null : Duration.ofNanos(srtt);
+        }
+
+        synchronized Duration variation() {
+            return srtt < 0 ? null : Duration.ofNanos(rttvar);
+        }
+    }
+}
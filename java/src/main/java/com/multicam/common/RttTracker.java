@@ -0,0 +1,269 @@
+package com.multicam.common;
+
+import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Per-device round-trip times observed on normal command traffic, and the
+ * synchronized-start lead time they imply.
+ * <p>
+ * {@link MultiCamClient} records the time from sending each command to
+ * decoding its reply, over per-command and keep-alive connections alike.
+ * The tracker keeps the most recent {@link #DEFAULT_WINDOW} samples per
+ * device. Requests that time out or fail are not recorded.
+ * <p>
+ * {@link #syncDelay(Collection, double)} replaces the fixed
+ * {@link Constants#SYNC_DELAY} with the smallest lead time that, at the
+ * requested confidence, lets every device in the fleet receive and
+ * acknowledge START_RECORDING before the start time. The full round trip
+ * is used because it bounds delivery plus device processing without
+ * assuming symmetric paths.
+ * <pre>
+ * Duration lead = client.getRttTracker().syncDelay(devices, 0.99);
+ * SyncStartBroadcaster.arm(client, devices).fire(lead);
+ * </pre>
+ */
+public final class RttTracker {
+
+    /** Default number of recent samples kept per device */
+    public static final int DEFAULT_WINDOW = 256;
+
+    /** Samples a device needs before its round-trip times are trusted */
+    public static final int MIN_SAMPLES = 8;
+
+    /** Default allowance on top of the measured round trip for clock error and scheduling */
+    public static final Duration DEFAULT_SAFETY_MARGIN = Duration.ofMillis(100);
+
+    /** Lead time used while any device in the fleet has too few samples */
+    public static final Duration FALLBACK_SYNC_DELAY = Duration.ofMillis((long) (Constants.SYNC_DELAY * 1000));
+
+    private final int window;
+    private final ConcurrentMap<InetSocketAddress, Samples> devices = new ConcurrentHashMap<>();
+
+    /**
+     * Create a tracker keeping {@link #DEFAULT_WINDOW} samples per device.
+     */
+    public RttTracker() {
+        this(DEFAULT_WINDOW);
+    }
+
+    /**
+     * Create a tracker.
+     *
+     * @param window Number of recent samples kept per device
+     */
+    public RttTracker(int window) {
+        if (window < MIN_SAMPLES) {
+            throw new IllegalArgumentException("Window must hold at least " + MIN_SAMPLES + " samples: " + window);
+        }
+        this.window = window;
+    }
+
+    /**
+     * Record a round trip to a device.
+     *
+     * @param device Device address
+     * @param rtt    Time from sending a command to receiving its reply
+     */
+    public void record(InetSocketAddress device, Duration rtt) {
+        recordNanos(device, rtt.toNanos());
+    }
+
+    void recordNanos(InetSocketAddress device, long rttNanos) {
+        if (rttNanos < 0) {
+            return;
+        }
+        Samples samples = devices.get(device);
+        if (samples == null) {
+            samples = devices.computeIfAbsent(device, ignored -> new Samples(window));
+        }
+        samples.add(rttNanos);
+    }
+
+    /**
+     * Get the round-trip statistics of a device.
+     *
+     * @param device Device address
+     * @return Stats snapshot, or null if nothing has been recorded
+     */
+    public Stats getStats(InetSocketAddress device) {
+        Samples samples = devices.get(device);
+        return samples != null ? samples.snapshot() : null;
+    }
+
+    /**
+     * Drop all samples of a device, for example after it moved to another network.
+     *
+     * @param device Device address
+     */
+    public void forget(InetSocketAddress device) {
+        devices.remove(device);
+    }
+
+    /**
+     * Get the lead time for a synchronized start, with the default safety margin.
+     *
+     * @param fleet      Devices that will receive START_RECORDING
+     * @param confidence Probability that every device replies in time (0.0-1.0, exclusive of 0)
+     * @return Lead time between dispatch and the start
+     * @see #syncDelay(Collection, double, Duration)
+     */
+    public Duration syncDelay(Collection<InetSocketAddress> fleet, double confidence) {
+        return syncDelay(fleet, confidence, DEFAULT_SAFETY_MARGIN);
+    }
+
+    /**
+     * Get the lead time for a synchronized start.
+     * <p>
+     * For the whole fleet to be in time with probability {@code confidence},
+     * each of its {@code n} devices must be in time with probability
+     * {@code confidence^(1/n)}, so a larger fleet is planned against a
+     * higher per-device percentile. The result is the largest such
+     * percentile among the devices, plus {@code margin}. Where the window
+     * has too few samples to resolve that percentile, its maximum is used.
+     * <p>
+     * If any device has fewer than {@link #MIN_SAMPLES} samples the fleet
+     * is not characterized yet, and {@link #FALLBACK_SYNC_DELAY} is returned.
+     *
+     * @param fleet      Devices that will receive START_RECORDING
+     * @param confidence Probability that every device replies in time (0.0-1.0, exclusive of 0)
+     * @param margin     Allowance added to the measured round trip
+     * @return Lead time between dispatch and the start
+     */
+    public Duration syncDelay(Collection<InetSocketAddress> fleet, double confidence, Duration margin) {
+        if (!(confidence > 0.0 && confidence <= 1.0)) {
+            throw new IllegalArgumentException("Confidence must be in (0, 1]: " + confidence);
+        }
+        if (fleet.isEmpty()) {
+            return margin;
+        }
+        double perDevice = Math.pow(confidence, 1.0 / fleet.size());
+        long worst = 0;
+        for (InetSocketAddress device : fleet) {
+            Samples samples = devices.get(device);
+            Stats stats = samples != null ? samples.snapshot() : null;
+            if (stats == null || stats.getSampleCount() < MIN_SAMPLES) {
+                return FALLBACK_SYNC_DELAY;
+            }
+            worst = Math.max(worst, stats.percentileNanos(perDevice));
+        }
+        return Duration.ofNanos(worst).plus(margin);
+    }
+
+    /**
+     * Ring buffer of the most recent samples of one device.
+     */
+    private static final class Samples {
+        private final long[] ring;
+        private int next;
+        private long total;
+
+        Samples(int window) {
+            this.ring = new long[window];
+        }
+
+        synchronized void add(long rttNanos) {
+            ring[next] = rttNanos;
+            next = next + 1 == ring.length ? 0 : next + 1;
+            total++;
+        }
+
+        synchronized Stats snapshot() {
+            int size = (int) Math.min(total, ring.length);
+            long[] sorted = Arrays.copyOf(ring, size);
+            Arrays.sort(sorted);
+            return new Stats(total, sorted);
+        }
+    }
+
+    /**
+     * Round-trip statistics of one device over its recent samples.
+     */
+    public static final class Stats {
+        private final long total;
+        private final long[] sorted;
+
+        Stats(long total, long[] sorted) {
+            this.total = total;
+            this.sorted = sorted;
+        }
+
+        /**
+         * Get the number of round trips recorded since tracking began.
+         *
+         * @return Total sample count
+         */
+        public long getTotalCount() {
+            return total;
+        }
+
+        /**
+         * Get the number of recent samples the statistics are based on.
+         *
+         * @return Sample count, at most the tracker's window
+         */
+        public int getSampleCount() {
+            return sorted.length;
+        }
+
+        /**
+         * Get the shortest recent round trip.
+         *
+         * @return Minimum round-trip time
+         */
+        public Duration getMin() {
+            return Duration.ofNanos(sorted[0]);
+        }
+
+        /**
+         * Get the longest recent round trip.
+         *
+         * @return Maximum round-trip time
+         */
+        public Duration getMax() {
+            return Duration.ofNanos(sorted[sorted.length - 1]);
+        }
+
+        /**
+         * Get the mean of the recent round trips.
+         *
+         * @return Mean round-trip time
+         */
+        public Duration getMean() {
+            long sum = 0;
+            for (long sample : sorted) {
+                sum += sample;
+            }
+            return Duration.ofNanos(sum / sorted.length);
+        }
+
+        /**
+         * Get a percentile of the recent round trips (nearest rank).
+         *
+         * @param percentile Fraction of samples at or below the result (0.0-1.0)
+         * @return Round-trip time at the percentile
+         */
+        public Duration getPercentile(double percentile) {
+            if (!(percentile >= 0.0 && percentile <= 1.0)) {
+                throw new IllegalArgumentException("Percentile must be in [0, 1]: " + percentile);
+            }
+            return Duration.ofNanos(percentileNanos(percentile));
+        }
+
+        long percentileNanos(double percentile) {
+            int rank = (int) Math.ceil(percentile * sorted.length);
+            return sorted[Math.max(0, Math.min(rank, sorted.length) - 1)];
+        }
+
+        @Override
+        public String toString() {
+            return "RTT min " + getMin().toMillis() + " ms, p50 " + getPercentile(0.5).toMillis()
+                    + " ms, p99 " + getPercentile(0.99).toMillis() + " ms, max " + getMax().toMillis()
+                    + " ms over " + sorted.length + " samples";
+        }
+    }
+}
@@ -0,0 +1,398 @@
+package com.multicam.common;
+
+import com.multicam.common.FileTypes.FileResponse;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetSocketAddress;
+import java.net.SocketException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Parallel download of one video over several connections.
+ * <p>
+ * A single TCP stream from a phone rarely fills the link. The downloader
+ * splits a video into segments, fetches them with ranged GET_VIDEO commands
+ * over separate connections, and writes each into one preallocated file
+ * with positional writes (see {@link VideoReceiver}). Workers take the next
+ * pending segment as they finish one, so faster streams carry more of the
+ * file.
+ * <p>
+ * The number of streams is chosen from measured throughput. The download
+ * starts with one stream and adds one per {@link #SAMPLE_INTERVAL} for as
+ * long as each addition raises the total throughput by at least
+ * {@link #MIN_GAIN}. If the last stream added made the download slower, it
+ * is withdrawn. The count never exceeds the configured maximum.
+ * <p>
+ * A segment whose connection fails is retried from its last written byte,
+ * up to {@link #MAX_ATTEMPTS} times. An error reply from the device, such as
+ * {@code file_not_found}, ends the download at once. Devices that predate
+ * ranged transfers answer
+ * the first request with the whole file, which is then received over that
+ * one connection.
+ * <pre>
+ * SegmentedDownloader downloader = new SegmentedDownloader();
+ * SegmentedDownloader.Result result = downloader.download(device, fileName, Paths.get("video.mp4"));
+ * </pre>
+ */
+public final class SegmentedDownloader {
+
+    /** Default maximum number of concurrent connections per download */
+    public static final int DEFAULT_MAX_STREAMS = 8;
+
+    /** Default size of the byte range fetched per request */
+    public static final long DEFAULT_SEGMENT_SIZE = 32L * 1024 * 1024;
+
+    /** Time over which throughput is measured before changing the stream count */
+    public static final Duration SAMPLE_INTERVAL = Duration.ofMillis(500);
+
+    /** Smallest relative throughput gain for which another stream is added */
+    public static final double MIN_GAIN = 0.10;
+
+    /** Attempts per segment before the download fails */
+    public static final int MAX_ATTEMPTS = 3;
+
+    private final VideoReceiver receiver;
+    private final int maxStreams;
+    private final long segmentSize;
+
+    /**
+     * Create a downloader with the default receiver, stream limit and segment size.
+     */
+    public SegmentedDownloader() {
+        this(new VideoReceiver(), DEFAULT_MAX_STREAMS, DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * Create a downloader.
+     *
+     * @param receiver    Receiver used for each segment
+     * @param maxStreams  Maximum number of concurrent connections
+     * @param segmentSize Size of the byte range fetched per request
+     */
+    public SegmentedDownloader(VideoReceiver receiver, int maxStreams, long segmentSize) {
+        if (maxStreams <= 0) {
+            throw new IllegalArgumentException("maxStreams must be positive: " + maxStreams);
+        }
+        if (segmentSize <= 0) {
+            throw new IllegalArgumentException("Segment size must be positive: " + segmentSize);
+        }
+        this.receiver = receiver;
+        this.maxStreams = maxStreams;
+        this.segmentSize = segmentSize;
+    }
+
+    /**
+     * Download a video into a file over as many connections as help.
+     *
+     * @param device   Device address
+     * @param fileName Name of the video on the device
+     * @param target   File to write; created or overwritten
+     * @return Result instance
+     * @throws java.io.FileNotFoundException if the device does not have the file
+     * @throws IOException                   if a segment fails {@link #MAX_ATTEMPTS} times or the
+     *                                       device replies with an error
+     */
+    public Result download(InetSocketAddress device, String fileName, Path target) throws IOException {
+        try (FileChannel file = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            return new Download(device, fileName, file).run();
+        }
+    }
+
+    /**
+     * State of one download, shared by its workers. Guarded by this.
+     */
+    private final class Download {
+        private final InetSocketAddress device;
+        private final String fileName;
+        private final FileChannel file;
+        private final LongAdder received = new LongAdder();
+        private final Deque<Segment> pending = new ArrayDeque<>();
+
+        private ExecutorService executor;
+        private FileResponse header;
+        private IOException failure;
+        private int active;
+        private int streams = 1;
+        private int peakStreams;
+        private int requests;
+        private int retries;
+
+        // Stream count controller
+        private boolean growing = true;
+        private boolean settling = true;
+        private double baseline;
+
+        Download(InetSocketAddress device, String fileName, FileChannel file) {
+            this.device = device;
+            this.fileName = fileName;
+            this.file = file;
+        }
+
+        Result run() throws IOException {
+            long started = System.nanoTime();
+            long interval = SAMPLE_INTERVAL.toNanos();
+            executor = FleetExecutors.newExecutor(maxStreams);
+            try {
+                synchronized (this) {
+                    pending.add(new Segment(0, segmentSize, 0));
+                    startWorker();
+                    long sampleStart = System.nanoTime();
+                    long sampleBytes = 0;
+                    while (failure == null && (active > 0 || !pending.isEmpty())) {
+                        long wait = sampleStart + interval - System.nanoTime();
+                        if (wait > 0) {
+                            TimeUnit.NANOSECONDS.timedWait(this, wait);
+                            continue;
+                        }
+                        long now = System.nanoTime();
+                        long bytes = received.sum();
+                        adapt((bytes - sampleBytes) * 1e9 / (now - sampleStart));
+                        sampleStart = now;
+                        sampleBytes = bytes;
+                    }
+                    if (failure != null) {
+                        throw failure;
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while downloading " + fileName);
+            } finally {
+                executor.shutdownNow();
+            }
+            return new Result(header, System.nanoTime() - started, peakStreams, requests, retries);
+        }
+
+        /**
+         * Change the stream count from the throughput of the last sample.
+         */
+        private void adapt(double rate) {
+            if (!growing || header == null) {
+                return;
+            }
+            if (settling) {
+                // Skip the sample in which the newest stream was still connecting
+                settling = false;
+                return;
+            }
+            if (rate > baseline * (1 + MIN_GAIN)) {
+                baseline = rate;
+                if (streams < maxStreams && !pending.isEmpty()) {
+                    streams++;
+                    startWorker();
+                    settling = true;
+                } else {
+                    growing = false;
+                }
+            } else {
+                if (rate < baseline && streams > 1) {
+                    // The last stream cost more than it brought; its worker stops after its segment
+                    streams--;
+                }
+                growing = false;
+            }
+        }
+
+        private void startWorker() {
+            active++;
+            peakStreams = Math.max(peakStreams, active);
+            executor.execute(this::work);
+        }
+
+        private void work() {
+            while (true) {
+                Segment segment;
+                synchronized (this) {
+                    if (failure != null || active > streams || pending.isEmpty()) {
+                        active--;
+                        notifyAll();
+                        return;
+                    }
+                    segment = pending.poll();
+                    requests++;
+                }
+                long[] written = new long[1];
+                try {
+                    FileResponse reply = receiver.receiveRange(device,
+                            CommandMessage.getVideo(fileName, segment.offset, segment.length), file,
+                            this::onHeader, bytes -> {
+                                written[0] += bytes;
+                                received.add(bytes);
+                            });
+                    check(segment, reply);
+                } catch (IOException | RuntimeException e) {
+                    failed(segment, written[0], e);
+                }
+            }
+        }
+
+        /**
+         * Plan the remaining segments once the first reply reveals the file size.
+         */
+        private synchronized void onHeader(FileResponse reply) {
+            if (header != null) {
+                return;
+            }
+            header = reply;
+            if (reply.offset == null) {
+                // No range support: the whole file arrives on this connection
+                growing = false;
+                return;
+            }
+            for (long position = reply.offset + reply.getPayloadSize(); position < reply.fileSize;
+                    position += segmentSize) {
+                pending.add(new Segment(position, Math.min(segmentSize, reply.fileSize - position), 0));
+            }
+        }
+
+        private void check(Segment segment, FileResponse reply) throws IOException {
+            FileResponse first;
+            synchronized (this) {
+                first = header;
+            }
+            if (reply.fileSize != first.fileSize) {
+                throw new IOException("File changed on the device during the download: " + fileName);
+            }
+            if (reply.offset == null && first.offset == null) {
+                return;
+            }
+            long end = reply.getPayloadOffset() + reply.getPayloadSize();
+            if (reply.offset == null || reply.offset != segment.offset
+                    || (reply.getPayloadSize() != segment.length && end != reply.fileSize)) {
+                throw new IOException("Device sent " + reply.getPayloadSize() + " bytes from "
+                        + reply.getPayloadOffset() + ", requested " + segment.length + " from " + segment.offset);
+            }
+        }
+
+        private synchronized void failed(Segment segment, long written, Exception e) {
+            retries++;
+            boolean retry = segment.attempts + 1 < MAX_ATTEMPTS && isTransportError(e);
+            if (retry && header != null && header.offset == null) {
+                // Without range support the whole file has to be fetched again
+                pending.addFirst(new Segment(0, segmentSize, segment.attempts + 1));
+            } else if (retry && written < segment.length) {
+                pending.addFirst(new Segment(segment.offset + written, segment.length - written,
+                        segment.attempts + 1));
+            } else if (failure == null) {
+                failure = e instanceof IOException ? (IOException) e
+                        : new IOException("Segment at " + segment.offset + " failed", e);
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Check whether a failure lies with the connection rather than the
+     * request, so that asking again may succeed. Error replies and malformed
+     * headers surface as plain IOExceptions.
+     */
+    private static boolean isTransportError(Exception e) {
+        return e instanceof SocketException || e instanceof InterruptedIOException || e instanceof EOFException
+                || e instanceof ClosedChannelException;
+    }
+
+    /**
+     * Byte range of the video still to be fetched.
+     */
+    private static final class Segment {
+        final long offset;
+        final long length;
+        final int attempts;
+
+        Segment(long offset, long length, int attempts) {
+            this.offset = offset;
+            this.length = length;
+            this.attempts = attempts;
+        }
+    }
+
+    /**
+     * Outcome of a segmented download.
+     */
+    public static final class Result {
+        private final FileResponse header;
+        private final long elapsedNanos;
+        private final int streams;
+        private final int requests;
+        private final int retries;
+
+        Result(FileResponse header, long elapsedNanos, int streams, int requests, int retries) {
+            this.header = header;
+            this.elapsedNanos = elapsedNanos;
+            this.streams = streams;
+            this.requests = requests;
+            this.retries = retries;
+        }
+
+        /**
+         * Get the header of the first reply, describing the whole file.
+         *
+         * @return FileResponse instance
+         */
+        public FileResponse getHeader() {
+            return header;
+        }
+
+        /**
+         * Get the time the download took.
+         *
+         * @return Elapsed time
+         */
+        public Duration getElapsed() {
+            return Duration.ofNanos(elapsedNanos);
+        }
+
+        /**
+         * Get the largest number of connections open at once.
+         *
+         * @return Peak stream count
+         */
+        public int getStreams() {
+            return streams;
+        }
+
+        /**
+         * Get the number of GET_VIDEO requests made, including retries.
+         *
+         * @return Request count
+         */
+        public int getRequests() {
+            return requests;
+        }
+
+        /**
+         * Get the number of failed requests that were retried or ended the download.
+         *
+         * @return Retry count
+         */
+        public int getRetries() {
+            return retries;
+        }
+
+        /**
+         * Get the average throughput of the download.
+         *
+         * @return Bytes per second
+         */
+        public double getThroughput() {
+            return elapsedNanos > 0 ? header.fileSize * 1e9 / elapsedNanos : 0;
+        }
+
+        @Override
+        public String toString() {
+            return header.fileSize + " bytes in " + getElapsed().toMillis() + " ms over " + streams
+                    + " streams (" + requests + " requests, " + retries + " retries)";
+        }
+    }
+}
@@ -1,7 +1,10 @@
 package com.multicam.common;
 
 import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.util.List;
 import java.util.ArrayList;
 import com.multicam.common.UploadTypes.UploadItem;
@@ -10,7 +13,7 @@ import com.multicam.common.UploadTypes.UploadItem;
  * Status response from a MultiCam device.
  */
 public class StatusResponse {
-    private static final Gson gson = new GsonBuilder().create();
+    private static final Gson gson = MultiCamJson.gson();
 
     /** Unique identifier of the responding device */
     public String deviceId;
@@ -33,6 +36,12 @@ public class StatusResponse {
     /** Failed upload queue */
     public List<UploadItem> failedUploadQueue;
 
+    /** Optional protocol features supported by the device (see Capabilities), null if not advertised */
+    public List<String> capabilities;
+
+    /** Correlation ID echoed from the command, null if the command carried none */
+    public Long requestId;
+
     public StatusResponse() {
         this.uploadQueue = new ArrayList<>();
         this.failedUploadQueue = new ArrayList<>();
@@ -55,6 +64,16 @@ public class StatusResponse {
         return DeviceStatus.fromValue(status);
     }
 
+    /**
+     * Check whether the device advertises a protocol capability.
+     *
+     * @param capability Capability name (see Capabilities)
+     * @return True if the capability is advertised
+     */
+    public boolean supports(String capability) {
+        return Capabilities.supports(capabilities, capability);
+    }
+
     /**
      * Serialize response to JSON string.
      *
@@ -73,4 +92,49 @@ public class StatusResponse {
     public static StatusResponse fromJson(String json) {
         return gson.fromJson(json, StatusResponse.class);
     }
+
+    /**
+     * Serialize response as UTF-8 JSON directly to an output stream.
+     * <p>
+     * The stream is flushed but not closed.
+     *
+     * @param out Stream to write to
+     * @throws IOException if writing to the stream fails
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        Utf8Streams.write(MessageAdapters.STATUS_RESPONSE, this, out);
+    }
+
+    /**
+     * Serialize response as UTF-8 JSON into a buffer at its current position.
+     *
+     * @param dst Buffer to write to
+     * @throws java.nio.BufferOverflowException if the buffer has insufficient space
+     */
+    public void writeTo(ByteBuffer dst) {
+        Utf8Streams.write(MessageAdapters.STATUS_RESPONSE, this, dst);
+    }
+
+    /**
+     * Deserialize response from a UTF-8 JSON input stream.
+     * <p>
+     * Reads a single JSON object; bytes following it may be consumed from the stream.
+     *
+     * @param in Stream to read from
+     * @return StatusResponse instance, or null if the stream is empty
+     * @throws IOException if reading from the stream fails
+     */
+    public static StatusResponse fromStream(InputStream in) throws IOException {
+        return Utf8Streams.read(MessageAdapters.STATUS_RESPONSE, in);
+    }
+
+    /**
+     * Deserialize response from the UTF-8 JSON bytes remaining in a buffer.
+     *
+     * @param src Buffer to read from
+     * @return StatusResponse instance, or null if the buffer is empty
+     */
+    public static StatusResponse fromBuffer(ByteBuffer src) {
+        return Utf8Streams.read(MessageAdapters.STATUS_RESPONSE, src);
+    }
 }
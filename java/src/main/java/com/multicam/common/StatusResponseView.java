@@ -0,0 +1,552 @@
+package com.multicam.common;
+
+import com.google.gson.JsonSyntaxException;
+import com.multicam.common.UploadTypes.UploadItem;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Lazy, partially parsed view of a {@link StatusResponse}.
+ * <p>
+ * Construction makes one structural pass over the raw UTF-8 JSON and records
+ * where each top-level field's value lies; nothing is decoded. Scalar fields
+ * are decoded on access, and the upload queues are only materialized when
+ * {@link #getUploadQueue()} or {@link #getFailedUploadQueue()} is called.
+ * Health checks that need only {@code deviceId}, {@code status} and
+ * {@code batteryLevel} never pay for large queues.
+ * <p>
+ * The view references the caller's byte array without copying it; the array
+ * must not be modified while the view is in use. Views are not thread-safe.
+ */
+public final class StatusResponseView {
+
+    private static final byte[] DEVICE_ID = ascii("deviceId");
+    private static final byte[] STATUS = ascii("status");
+    private static final byte[] TIMESTAMP = ascii("timestamp");
+    private static final byte[] BATTERY_LEVEL = ascii("batteryLevel");
+    private static final byte[] DEVICE_TYPE = ascii("deviceType");
+    private static final byte[] UPLOAD_QUEUE = ascii("uploadQueue");
+    private static final byte[] FAILED_UPLOAD_QUEUE = ascii("failedUploadQueue");
+    private static final byte[] CAPABILITIES = ascii("capabilities");
+    private static final byte[] REQUEST_ID = ascii("requestId");
+
+    private static final int F_DEVICE_ID = 0;
+    private static final int F_STATUS = 1;
+    private static final int F_TIMESTAMP = 2;
+    private static final int F_BATTERY_LEVEL = 3;
+    private static final int F_DEVICE_TYPE = 4;
+    private static final int F_UPLOAD_QUEUE = 5;
+    private static final int F_FAILED_UPLOAD_QUEUE = 6;
+    private static final int F_CAPABILITIES = 7;
+    private static final int F_REQUEST_ID = 8;
+    private static final int FIELD_COUNT = 9;
+
+    private static final byte[][] FIELD_NAMES = {
+            DEVICE_ID, STATUS, TIMESTAMP, BATTERY_LEVEL, DEVICE_TYPE, UPLOAD_QUEUE, FAILED_UPLOAD_QUEUE,
+            CAPABILITIES, REQUEST_ID
+    };
+
+    private final byte[] json;
+
+    /** Start (inclusive) and end (exclusive) of each field's value, or -1 if absent */
+    private final int[] starts = new int[FIELD_COUNT];
+    private final int[] ends = new int[FIELD_COUNT];
+
+    private List<UploadItem> uploadQueue;
+    private List<UploadItem> failedUploadQueue;
+    private boolean uploadQueueDecoded;
+    private boolean failedUploadQueueDecoded;
+    private List<String> capabilities;
+    private boolean capabilitiesDecoded;
+
+    private StatusResponseView(byte[] json, int offset, int length) {
+        this.json = json;
+        Arrays.fill(starts, -1);
+        Arrays.fill(ends, -1);
+        index(offset, offset + length);
+    }
+
+    /**
+     * Index a status response held in a byte array.
+     *
+     * @param json UTF-8 JSON bytes
+     * @return StatusResponseView over the bytes
+     * @throws JsonSyntaxException if the bytes are not a JSON object
+     */
+    public static StatusResponseView of(byte[] json) {
+        return new StatusResponseView(json, 0, json.length);
+    }
+
+    /**
+     * Index a status response held in a region of a byte array.
+     *
+     * @param json   Buffer holding UTF-8 JSON
+     * @param offset Start of the JSON
+     * @param length Length of the JSON in bytes
+     * @return StatusResponseView over the bytes
+     * @throws JsonSyntaxException if the bytes are not a JSON object
+     */
+    public static StatusResponseView of(byte[] json, int offset, int length) {
+        Objects.checkFromIndexSize(offset, length, json.length);
+        return new StatusResponseView(json, offset, length);
+    }
+
+    /**
+     * Index a status response held in the remaining bytes of a buffer.
+     * <p>
+     * Heap buffers are viewed in place; direct buffers are copied once.
+     * The buffer's position is advanced to its limit.
+     *
+     * @param src Buffer holding UTF-8 JSON
+     * @return StatusResponseView over the bytes
+     * @throws JsonSyntaxException if the bytes are not a JSON object
+     */
+    public static StatusResponseView of(ByteBuffer src) {
+        int length = src.remaining();
+        if (src.hasArray()) {
+            int offset = src.arrayOffset() + src.position();
+            src.position(src.limit());
+            return new StatusResponseView(src.array(), offset, length);
+        }
+        byte[] copy = new byte[length];
+        src.get(copy);
+        return new StatusResponseView(copy, 0, length);
+    }
+
+    /**
+     * Get the unique identifier of the responding device.
+     *
+     * @return Device ID, or null if absent
+     */
+    public String getDeviceId() {
+        return decodeString(F_DEVICE_ID);
+    }
+
+    /**
+     * Get the raw status string.
+     *
+     * @return Status string, or null if absent
+     */
+    public String getStatus() {
+        return decodeString(F_STATUS);
+    }
+
+    /**
+     * Get the status as a DeviceStatus, resolved from the raw bytes without decoding a String.
+     *
+     * @param unknown Value to return when the status is absent or unrecognized
+     * @return DeviceStatus enum value, or {@code unknown}
+     */
+    public DeviceStatus getDeviceStatus(DeviceStatus unknown) {
+        int start = starts[F_STATUS];
+        int end = ends[F_STATUS];
+        if (start < 0 || json[start] != '"' || indexOf(json, start + 1, end - 1, (byte) '\\') >= 0) {
+            DeviceStatus status = DeviceStatus.fromValue(getStatus());
+            return status != null ? status : unknown;
+        }
+        return DeviceStatus.fromUtf8(json, start + 1, end - start - 2, unknown);
+    }
+
+    /**
+     * Get the Unix timestamp when the response was generated.
+     *
+     * @return Timestamp, or 0.0 if absent
+     */
+    public double getTimestamp() {
+        Double value = decodeDouble(F_TIMESTAMP);
+        return value != null ? value : 0.0;
+    }
+
+    /**
+     * Get the correlation ID echoed from the command.
+     *
+     * @return Request ID, or null if absent
+     */
+    public Long getRequestId() {
+        int start = starts[F_REQUEST_ID];
+        if (start < 0) {
+            return null;
+        }
+        int end = ends[F_REQUEST_ID];
+        if (isNull(start, end)) {
+            return null;
+        }
+        if (json[start] == '"') {
+            start++;
+            end--;
+        }
+        try {
+            return Long.parseLong(new String(json, start, end - start, StandardCharsets.ISO_8859_1));
+        } catch (NumberFormatException e) {
+            throw new JsonSyntaxException(e);
+        }
+    }
+
+    /**
+     * Get the battery percentage.
+     *
+     * @return Battery level (0.0-100.0), or null if unavailable
+     */
+    public Double getBatteryLevel() {
+        return decodeDouble(F_BATTERY_LEVEL);
+    }
+
+    /**
+     * Get the type of device.
+     *
+     * @return Device type string, or null if unavailable
+     */
+    public String getDeviceType() {
+        return decodeString(F_DEVICE_TYPE);
+    }
+
+    /**
+     * Check whether the upload queue is present and non-empty, without decoding it.
+     *
+     * @return true if the upload queue has at least one entry
+     */
+    public boolean hasUploads() {
+        return isNonEmptyArray(F_UPLOAD_QUEUE);
+    }
+
+    /**
+     * Check whether the failed upload queue is present and non-empty, without decoding it.
+     *
+     * @return true if the failed upload queue has at least one entry
+     */
+    public boolean hasFailedUploads() {
+        return isNonEmptyArray(F_FAILED_UPLOAD_QUEUE);
+    }
+
+    /**
+     * Get the upload queue, decoding it on first access.
+     *
+     * @return Upload queue (empty if absent, null if explicitly null)
+     */
+    public List<UploadItem> getUploadQueue() {
+        if (!uploadQueueDecoded) {
+            uploadQueue = decodeQueue(F_UPLOAD_QUEUE);
+            uploadQueueDecoded = true;
+        }
+        return uploadQueue;
+    }
+
+    /**
+     * Get the failed upload queue, decoding it on first access.
+     *
+     * @return Failed upload queue (empty if absent, null if explicitly null)
+     */
+    public List<UploadItem> getFailedUploadQueue() {
+        if (!failedUploadQueueDecoded) {
+            failedUploadQueue = decodeQueue(F_FAILED_UPLOAD_QUEUE);
+            failedUploadQueueDecoded = true;
+        }
+        return failedUploadQueue;
+    }
+
+    /**
+     * Get the advertised protocol capabilities, decoding them on first access.
+     *
+     * @return Capability names, or null if not advertised
+     */
+    public List<String> getCapabilities() {
+        if (!capabilitiesDecoded) {
+            int start = starts[F_CAPABILITIES];
+            capabilities = start < 0 ? null : Utf8Streams.read(MessageAdapters.STRING_LIST,
+                    ByteBuffer.wrap(json, start, ends[F_CAPABILITIES] - start));
+            capabilitiesDecoded = true;
+        }
+        return capabilities;
+    }
+
+    /**
+     * Check whether the device advertises a protocol capability.
+     *
+     * @param capability Capability name (see Capabilities)
+     * @return True if the capability is advertised
+     */
+    public boolean supports(String capability) {
+        return Capabilities.supports(getCapabilities(), capability);
+    }
+
+    /**
+     * Materialize the full StatusResponse.
+     *
+     * @return StatusResponse instance
+     */
+    public StatusResponse toStatusResponse() {
+        StatusResponse response = new StatusResponse(getDeviceId(), getStatus(), getTimestamp());
+        response.batteryLevel = getBatteryLevel();
+        response.deviceType = getDeviceType();
+        response.uploadQueue = getUploadQueue();
+        response.failedUploadQueue = getFailedUploadQueue();
+        response.capabilities = getCapabilities();
+        response.requestId = getRequestId();
+        return response;
+    }
+
+    // Decoding
+
+    private String decodeString(int field) {
+        int start = starts[field];
+        if (start < 0) {
+            return null;
+        }
+        int end = ends[field];
+        if (json[start] != '"') {
+            // Gson reads unquoted scalars as their literal text
+            return isNull(start, end) ? null : new String(json, start, end - start, StandardCharsets.UTF_8);
+        }
+        return unescape(start + 1, end - 1);
+    }
+
+    private Double decodeDouble(int field) {
+        int start = starts[field];
+        if (start < 0) {
+            return null;
+        }
+        int end = ends[field];
+        if (isNull(start, end)) {
+            return null;
+        }
+        if (json[start] == '"') {
+            start++;
+            end--;
+        }
+        try {
+            return Double.parseDouble(new String(json, start, end - start, StandardCharsets.ISO_8859_1));
+        } catch (NumberFormatException e) {
+            throw new JsonSyntaxException(e);
+        }
+    }
+
+    private List<UploadItem> decodeQueue(int field) {
+        int start = starts[field];
+        if (start < 0) {
+            return new ArrayList<>();
+        }
+        return Utf8Streams.read(MessageAdapters.UPLOAD_ITEM_LIST,
+                ByteBuffer.wrap(json, start, ends[field] - start));
+    }
+
+    private boolean isNonEmptyArray(int field) {
+        int start = starts[field];
+        if (start < 0 || json[start] != '[') {
+            return false;
+        }
+        int pos = skipWhitespace(start + 1, ends[field]);
+        return json[pos] != ']';
+    }
+
+    private boolean isNull(int start, int end) {
+        return end - start == 4 && json[start] == 'n' && json[start + 1] == 'u'
+                && json[start + 2] == 'l' && json[start + 3] == 'l';
+    }
+
+    private String unescape(int start, int end) {
+        int escape = indexOf(json, start, end, (byte) '\\');
+        if (escape < 0) {
+            return new String(json, start, end - start, StandardCharsets.UTF_8);
+        }
+        StringBuilder sb = new StringBuilder(end - start);
+        sb.append(new String(json, start, escape - start, StandardCharsets.UTF_8));
+        int pos = escape;
+        while (pos < end) {
+            int next = indexOf(json, pos, end, (byte) '\\');
+            if (next < 0) {
+                sb.append(new String(json, pos, end - pos, StandardCharsets.UTF_8));
+                break;
+            }
+            sb.append(new String(json, pos, next - pos, StandardCharsets.UTF_8));
+            if (next + 1 >= end) {
+                throw syntaxError("Unterminated escape sequence", next);
+            }
+            byte c = json[next + 1];
+            pos = next + 2;
+            switch (c) {
+                case 'b':
+                    sb.append('\b');
+                    break;
+                case 'f':
+                    sb.append('\f');
+                    break;
+                case 'n':
+                    sb.append('\n');
+                    break;
+                case 'r':
+                    sb.append('\r');
+                    break;
+                case 't':
+                    sb.append('\t');
+                    break;
+                case 'u':
+                    if (pos + 4 > end) {
+                        throw syntaxError("Unterminated escape sequence", next);
+                    }
+                    try {
+                        sb.append((char) Integer.parseInt(
+                                new String(json, pos, 4, StandardCharsets.ISO_8859_1), 16));
+                    } catch (NumberFormatException e) {
+                        throw syntaxError("Malformed \\u escape", next);
+                    }
+                    pos += 4;
+                    break;
+                default:
+                    // \" \\ \/ and lenient unknown escapes map to the character itself
+                    sb.append((char) c);
+            }
+        }
+        return sb.toString();
+    }
+
+    // Indexing
+
+    private void index(int pos, int end) {
+        pos = skipWhitespace(pos, end);
+        if (pos >= end || json[pos] != '{') {
+            throw syntaxError("Expected BEGIN_OBJECT", pos);
+        }
+        pos = skipWhitespace(pos + 1, end);
+        if (pos < end && json[pos] == '}') {
+            return;
+        }
+        while (true) {
+            if (pos >= end || json[pos] != '"') {
+                throw syntaxError("Expected field name", pos);
+            }
+            int keyStart = pos + 1;
+            int keyEnd = endOfString(pos, end);
+            pos = skipWhitespace(keyEnd + 1, end);
+            if (pos >= end || json[pos] != ':') {
+                throw syntaxError("Expected ':'", pos);
+            }
+            pos = skipWhitespace(pos + 1, end);
+            int valueStart = pos;
+            pos = skipValue(pos, end);
+            int field = fieldIndex(keyStart, keyEnd);
+            if (field >= 0) {
+                starts[field] = valueStart;
+                ends[field] = pos;
+            }
+            pos = skipWhitespace(pos, end);
+            if (pos >= end) {
+                throw syntaxError("Unterminated object", pos);
+            }
+            if (json[pos] == '}') {
+                return;
+            }
+            if (json[pos] != ',') {
+                throw syntaxError("Expected ',' or '}'", pos);
+            }
+            pos = skipWhitespace(pos + 1, end);
+        }
+    }
+
+    private int fieldIndex(int keyStart, int keyEnd) {
+        int length = keyEnd - keyStart;
+        for (int f = 0; f < FIELD_COUNT; f++) {
+            byte[] name = FIELD_NAMES[f];
+            if (name.length == length && regionEquals(name, keyStart)) {
+                return f;
+            }
+        }
+        return -1;
+    }
+
+    private boolean regionEquals(byte[] name, int start) {
+        for (int i = 0; i < name.length; i++) {
+            if (json[start + i] != name[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Returns the index just past the value starting at {@code pos}. */
+    private int skipValue(int pos, int end) {
+        if (pos >= end) {
+            throw syntaxError("Expected value", pos);
+        }
+        byte c = json[pos];
+        if (c == '"') {
+            return endOfString(pos, end) + 1;
+        }
+        if (c == '{' || c == '[') {
+            int depth = 0;
+            while (pos < end) {
+                c = json[pos];
+                if (c == '"') {
+                    pos = endOfString(pos, end) + 1;
+                    continue;
+                }
+                if (c == '{' || c == '[') {
+                    depth++;
+                } else if (c == '}' || c == ']') {
+                    depth--;
+                    if (depth == 0) {
+                        return pos + 1;
+                    }
+                }
+                pos++;
+            }
+            throw syntaxError("Unterminated value", pos);
+        }
+        int start = pos;
+        while (pos < end) {
+            c = json[pos];
+            if (c == ',' || c == '}' || c == ']' || c == ' ' || c == '\t' || c == '\n' || c == '\r') {
+                break;
+            }
+            pos++;
+        }
+        if (pos == start) {
+            throw syntaxError("Expected value", pos);
+        }
+        return pos;
+    }
+
+    /** Returns the index of the closing quote of the string opening at {@code pos}. */
+    private int endOfString(int pos, int end) {
+        for (int i = pos + 1; i < end; i++) {
+            byte c = json[i];
+            if (c == '\\') {
+                i++;
+            } else if (c == '"') {
+                return i;
+            }
+        }
+        throw syntaxError("Unterminated string", pos);
+    }
+
+    private int skipWhitespace(int pos, int end) {
+        while (pos < end) {
+            byte c = json[pos];
+            if (c != ' ' && c != '\t' && c != '\n' && c != '\r') {
+                break;
+            }
+            pos++;
+        }
+        return pos;
+    }
+
+    private static int indexOf(byte[] bytes, int start, int end, byte target) {
+        for (int i = start; i < end; i++) {
+            if (bytes[i] == target) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static JsonSyntaxException syntaxError(String message, int pos) {
+        return new JsonSyntaxException(message + " at offset " + pos);
+    }
+
+    private static byte[] ascii(String name) {
+        return name.getBytes(StandardCharsets.US_ASCII);
+    }
+}
@@ -0,0 +1,361 @@
+package com.multicam.common;
+
+import java.io.Closeable;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Low-skew broadcast of a synchronized START_RECORDING to a fleet.
+ * <p>
+ * Sending the command to one device after another spends the sync delay on
+ * connection setup, so the last devices of a large fleet may receive it
+ * almost too late. The broadcaster splits the work in two phases:
+ * <ol>
+ *   <li>{@link #arm} opens a connection to every device and encodes the
+ *       command once, ahead of time;</li>
+ *   <li>{@link #fire(Duration)} picks the sync timestamp, patches it into the
+ *       shared encoding and writes it to every armed connection in one tight
+ *       loop, so dispatch costs a socket write per device.</li>
+ * </ol>
+ * The resulting {@link Report} gives, per device, the dispatch skew (time
+ * from the start of the loop until the command was handed to the socket) and
+ * whether the device accepted the schedule
+ * ({@link DeviceStatus#SCHEDULED_RECORDING_ACCEPTED}) or refused it, for
+ * example with {@link DeviceStatus#TIME_NOT_SYNCHRONIZED}.
+ * <pre>
+ * SyncStartBroadcaster broadcast = SyncStartBroadcaster.arm(client, devices);
+ * broadcast.ready().join();
+ * SyncStartBroadcaster.Report report = broadcast.fire(Duration.ofSeconds(1)).join();
+ * </pre>
+ * Each connection is subject to the client's command timeout, once from
+ * arming and again once every device has been sent the command. A broadcaster fires once; closing it
+ * before then releases the armed connections.
+ */
+public final class SyncStartBroadcaster implements Closeable {
+
+    private final List<InetSocketAddress> devices;
+    private final List<MultiCamClient.Exchange<DecodedResponse>> exchanges;
+    private final CommandTemplate template;
+    private final byte[] command;
+    private final CompletableFuture<Void> ready;
+    private boolean fired;
+
+    private SyncStartBroadcaster(MultiCamClient client, Collection<InetSocketAddress> devices, String deviceId) {
+        this.devices = new ArrayList<>(devices);
+        this.template = CommandTemplate.of(CommandType.START_RECORDING, deviceId);
+        this.command = template.newBuffer();
+        this.exchanges = new ArrayList<>(this.devices.size());
+        CompletableFuture<?>[] connected = new CompletableFuture<?>[this.devices.size()];
+        for (int i = 0; i < connected.length; i++) {
+            MultiCamClient.Exchange<DecodedResponse> exchange =
+                    client.prepare(this.devices.get(i), CommandType.START_RECORDING);
+            exchanges.add(exchange);
+            connected[i] = exchange.ready.handle((ignored, error) -> null);
+        }
+        this.ready = CompletableFuture.allOf(connected);
+    }
+
+    /**
+     * Open connections to the devices for a START_RECORDING sent by the controller.
+     *
+     * @param client  Client whose channel group and timeout the connections use
+     * @param devices Device addresses, in dispatch order
+     * @return SyncStartBroadcaster instance
+     */
+    public static SyncStartBroadcaster arm(MultiCamClient client, Collection<InetSocketAddress> devices) {
+        return arm(client, devices, "controller");
+    }
+
+    /**
+     * Open connections to the devices for a START_RECORDING.
+     *
+     * @param client   Client whose channel group and timeout the connections use
+     * @param devices  Device addresses, in dispatch order
+     * @param deviceId ID of the sending device
+     * @return SyncStartBroadcaster instance
+     */
+    public static SyncStartBroadcaster arm(MultiCamClient client, Collection<InetSocketAddress> devices,
+                                           String deviceId) {
+        return new SyncStartBroadcaster(client, devices, deviceId);
+    }
+
+    /**
+     * Get a future that completes once every connection is established or has failed.
+     * <p>
+     * The future never completes exceptionally; devices that could not be
+     * reached are reported as failed by {@link #fire(Duration)}.
+     *
+     * @return Future completing when arming has finished
+     */
+    public CompletableFuture<Void> ready() {
+        return ready;
+    }
+
+    /**
+     * Get the number of devices whose connection is established.
+     *
+     * @return Armed device count
+     */
+    public int armedCount() {
+        int count = 0;
+        for (MultiCamClient.Exchange<DecodedResponse> exchange : exchanges) {
+            if (isArmed(exchange)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Send START_RECORDING scheduled {@code delay} from now to every armed device.
+     *
+     * @param delay Lead time between dispatch and the synchronized start
+     * @return Future completing with the report once every device has replied or failed
+     * @throws IllegalStateException if the broadcaster has already fired or been closed
+     */
+    public CompletableFuture<Report> fire(Duration delay) {
+        Instant now = Instant.now();
+        long epochMicros = Math.addExact(Math.multiplyExact(now.getEpochSecond(), 1_000_000L),
+                now.getNano() / 1000 + delay.toNanos() / 1000);
+        return fireAtMicros(epochMicros);
+    }
+
+    /**
+     * Send START_RECORDING scheduled at a fixed time to every armed device.
+     *
+     * @param syncTimestamp Unix timestamp of the synchronized start, in seconds
+     * @return Future completing with the report once every device has replied or failed
+     * @throws IllegalStateException if the broadcaster has already fired or been closed
+     */
+    public CompletableFuture<Report> fireAt(double syncTimestamp) {
+        return fireAtMicros(Math.round(syncTimestamp * 1_000_000.0));
+    }
+
+    /**
+     * Release the armed connections without sending anything. Has no effect
+     * after {@link #fire(Duration)}.
+     */
+    @Override
+    public synchronized void close() {
+        if (fired) {
+            return;
+        }
+        fired = true;
+        for (MultiCamClient.Exchange<DecodedResponse> exchange : exchanges) {
+            exchange.future.cancel(false);
+        }
+    }
+
+    private synchronized CompletableFuture<Report> fireAtMicros(long epochMicros) {
+        if (fired) {
+            throw new IllegalStateException("Broadcaster has already fired or been closed");
+        }
+        fired = true;
+        template.stampMicros(command, epochMicros);
+
+        int count = exchanges.size();
+        long[] skews = new long[count];
+        long start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            MultiCamClient.Exchange<DecodedResponse> exchange = exchanges.get(i);
+            if (isArmed(exchange)) {
+                try {
+                    exchange.fire(ByteBuffer.wrap(command));
+                    skews[i] = System.nanoTime() - start;
+                    continue;
+                } catch (IllegalStateException e) {
+                    // Failed between the check and the fire; reported below
+                }
+            }
+            // Not sent: stop a late connect from holding the report open until its timeout
+            exchange.future.cancel(false);
+            skews[i] = -1;
+        }
+        for (int i = 0; i < count; i++) {
+            if (skews[i] >= 0) {
+                exchanges.get(i).restartTimeout();
+            }
+        }
+
+        double syncTimestamp = epochMicros / 1_000_000.0;
+        CompletableFuture<?>[] replies = new CompletableFuture<?>[count];
+        for (int i = 0; i < count; i++) {
+            replies[i] = exchanges.get(i).future.handle((reply, error) -> null);
+        }
+        return CompletableFuture.allOf(replies).thenApply(ignored -> {
+            Map<InetSocketAddress, Result> results = new LinkedHashMap<>();
+            for (int i = 0; i < count; i++) {
+                CompletableFuture<DecodedResponse> future = exchanges.get(i).future;
+                DecodedResponse reply = null;
+                Throwable error = null;
+                try {
+                    reply = future.join();
+                } catch (CompletionException e) {
+                    error = e.getCause();
+                } catch (RuntimeException e) {
+                    error = e;
+                }
+                results.put(devices.get(i), new Result(devices.get(i), skews[i], reply, error));
+            }
+            return new Report(syncTimestamp, results);
+        });
+    }
+
+    private static boolean isArmed(MultiCamClient.Exchange<DecodedResponse> exchange) {
+        return exchange.ready.isDone() && !exchange.ready.isCompletedExceptionally();
+    }
+
+    /**
+     * Outcome of a broadcast.
+     */
+    public static final class Report {
+        private final double syncTimestamp;
+        private final Map<InetSocketAddress, Result> results;
+
+        Report(double syncTimestamp, Map<InetSocketAddress, Result> results) {
+            this.syncTimestamp = syncTimestamp;
+            this.results = Collections.unmodifiableMap(results);
+        }
+
+        /**
+         * Get the scheduled start time sent to the devices.
+         *
+         * @return Unix timestamp in seconds
+         */
+        public double getSyncTimestamp() {
+            return syncTimestamp;
+        }
+
+        /**
+         * Get the per-device results, in dispatch order.
+         *
+         * @return Unmodifiable map from device address to result
+         */
+        public Map<InetSocketAddress, Result> getResults() {
+            return results;
+        }
+
+        /**
+         * Get the number of devices that accepted the scheduled start.
+         *
+         * @return Accepted device count
+         */
+        public int getAcceptedCount() {
+            int count = 0;
+            for (Result result : results.values()) {
+                if (result.isAccepted()) {
+                    count++;
+                }
+            }
+            return count;
+        }
+
+        /**
+         * Check whether every device accepted the scheduled start.
+         *
+         * @return true if all devices replied SCHEDULED_RECORDING_ACCEPTED
+         */
+        public boolean allAccepted() {
+            return getAcceptedCount() == results.size();
+        }
+
+        /**
+         * Get the largest dispatch skew among devices the command was sent to.
+         *
+         * @return Largest skew, or zero if nothing was sent
+         */
+        public Duration getMaxSkew() {
+            Duration max = Duration.ZERO;
+            for (Result result : results.values()) {
+                Duration skew = result.getDispatchSkew();
+                if (skew != null && skew.compareTo(max) > 0) {
+                    max = skew;
+                }
+            }
+            return max;
+        }
+    }
+
+    /**
+     * Outcome for one device.
+     */
+    public static final class Result {
+        private final InetSocketAddress device;
+        private final long skewNanos;
+        private final DecodedResponse reply;
+        private final Throwable error;
+
+        Result(InetSocketAddress device, long skewNanos, DecodedResponse reply, Throwable error) {
+            this.device = device;
+            this.skewNanos = skewNanos;
+            this.reply = reply;
+            this.error = error;
+        }
+
+        /**
+         * Get the device address.
+         *
+         * @return Device address
+         */
+        public InetSocketAddress getDevice() {
+            return device;
+        }
+
+        /**
+         * Get the time from the start of the dispatch loop until the command
+         * was handed to this device's socket.
+         *
+         * @return Dispatch skew, or null if the command was never sent
+         */
+        public Duration getDispatchSkew() {
+            return skewNanos >= 0 ? Duration.ofNanos(skewNanos) : null;
+        }
+
+        /**
+         * Get the device's reply.
+         *
+         * @return Decoded reply, or null if the request failed
+         */
+        public DecodedResponse getReply() {
+            return reply;
+        }
+
+        /**
+         * Get the reply status as a DeviceStatus enum value.
+         *
+         * @return DeviceStatus enum value, or null if unknown or the request failed
+         */
+        public DeviceStatus getDeviceStatus() {
+            return reply != null ? reply.getDeviceStatus() : null;
+        }
+
+        /**
+         * Check whether the device accepted the scheduled start.
+         *
+         * @return true if the device replied SCHEDULED_RECORDING_ACCEPTED
+         */
+        public boolean isAccepted() {
+            return getDeviceStatus() == DeviceStatus.SCHEDULED_RECORDING_ACCEPTED;
+        }
+
+        /**
+         * Get the failure that prevented a reply, such as a refused
+         * connection or a timeout.
+         *
+         * @return Failure, or null if the device replied
+         */
+        public Throwable getError() {
+            return error;
+        }
+    }
+}
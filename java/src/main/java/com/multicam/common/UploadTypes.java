@@ -1,7 +1,7 @@
 package com.multicam.common;
 
 import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
+import java.nio.ByteBuffer;
 import java.util.List;
 import java.util.ArrayList;
 
@@ -9,7 +9,7 @@ import java.util.ArrayList;
  * Upload-related data types for MultiCam API.
  */
 public class UploadTypes {
-    private static final Gson gson = new GsonBuilder().create();
+    private static final Gson gson = MultiCamJson.gson();
 
     /**
      * Upload item status values.
@@ -27,6 +27,9 @@ public class UploadTypes {
         /** Upload failed (see error field) */
         FAILED("failed");
 
+        private static final Utf8EnumLookup<UploadStatus> UTF8_LOOKUP =
+                Utf8EnumLookup.of(values(), UploadStatus::getValue);
+
         private final String value;
 
         UploadStatus(String value) {
@@ -38,12 +41,36 @@ public class UploadTypes {
         }
 
         public static UploadStatus fromValue(String value) {
-            for (UploadStatus status : values()) {
-                if (status.value.equals(value)) {
-                    return status;
-                }
-            }
-            return null;
+            int ordinal = value != null ? UTF8_LOOKUP.indexOf(value) : -1;
+            return ordinal >= 0 ? UTF8_LOOKUP.constant(ordinal) : null;
+        }
+
+        /**
+         * Get UploadStatus from the raw UTF-8 bytes of a wire token, without decoding a String.
+         *
+         * @param bytes   Buffer holding the token
+         * @param offset  Start of the token
+         * @param length  Length of the token in bytes
+         * @param unknown Value to return when the token matches no upload status
+         * @return UploadStatus enum value, or {@code unknown}
+         */
+        public static UploadStatus fromUtf8(byte[] bytes, int offset, int length, UploadStatus unknown) {
+            return UTF8_LOOKUP.lookup(bytes, offset, length, unknown);
+        }
+
+        /**
+         * Get UploadStatus from the raw UTF-8 bytes of a wire token, without decoding a String.
+         * <p>
+         * Uses absolute indexing; the buffer's position is not changed.
+         *
+         * @param buffer  Buffer holding the token
+         * @param offset  Absolute index of the start of the token
+         * @param length  Length of the token in bytes
+         * @param unknown Value to return when the token matches no upload status
+         * @return UploadStatus enum value, or {@code unknown}
+         */
+        public static UploadStatus fromUtf8(ByteBuffer buffer, int offset, int length, UploadStatus unknown) {
+            return UTF8_LOOKUP.lookup(buffer, offset, length, unknown);
         }
     }
 
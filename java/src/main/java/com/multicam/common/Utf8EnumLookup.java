@@ -0,0 +1,236 @@
+package com.multicam.common;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.function.Function;
+
+/**
+ * Perfect-hash lookup from raw UTF-8 wire tokens to enum constants.
+ * <p>
+ * Parsers that hold the bytes of a JSON string token can map it to an enum
+ * constant without decoding a {@code String}: the token is hashed, one table
+ * slot is probed and its bytes compared. The hash seed is chosen at
+ * construction so that no two wire values share a slot.
+ *
+ * @param <E> Enum type
+ */
+public final class Utf8EnumLookup<E extends Enum<E>> {
+
+    private static final int FNV_OFFSET = 0x811C9DC5;
+    private static final int FNV_PRIME = 0x01000193;
+
+    private final E[] constants;
+    private final byte[][] keys;
+    private final int[] ordinals;
+    private final int mask;
+    private final int seed;
+
+    private Utf8EnumLookup(E[] constants, Function<E, String> wireValue) {
+        this.constants = constants.clone();
+        byte[][] encoded = new byte[constants.length][];
+        for (int i = 0; i < constants.length; i++) {
+            encoded[i] = wireValue.apply(constants[i]).getBytes(StandardCharsets.UTF_8);
+        }
+
+        int size = Integer.highestOneBit(Math.max(constants.length, 1) * 4 - 1) << 1;
+        while (true) {
+            for (int candidate = 0; candidate < 1024; candidate++) {
+                int[] table = tryBuild(encoded, size, candidate);
+                if (table != null) {
+                    this.mask = size - 1;
+                    this.seed = candidate;
+                    this.ordinals = table;
+                    this.keys = new byte[size][];
+                    for (int slot = 0; slot < size; slot++) {
+                        if (table[slot] >= 0) {
+                            keys[slot] = encoded[table[slot]];
+                        }
+                    }
+                    return;
+                }
+            }
+            size <<= 1;
+        }
+    }
+
+    /**
+     * Build a lookup over the given constants.
+     *
+     * @param constants Enum constants, typically {@code values()}
+     * @param wireValue Function giving each constant's wire value
+     * @param <E>       Enum type
+     * @return Utf8EnumLookup instance
+     * @throws IllegalArgumentException if two constants share a wire value
+     */
+    public static <E extends Enum<E>> Utf8EnumLookup<E> of(E[] constants, Function<E, String> wireValue) {
+        return new Utf8EnumLookup<>(constants, wireValue);
+    }
+
+    /**
+     * Find the ordinal of the constant whose wire value equals the UTF-8 token.
+     *
+     * @param bytes  Buffer holding the token
+     * @param offset Start of the token
+     * @param length Length of the token in bytes
+     * @return Ordinal of the matching constant, or -1 if none matches
+     */
+    public int indexOf(byte[] bytes, int offset, int length) {
+        Objects.checkFromIndexSize(offset, length, bytes.length);
+        int h = seed ^ FNV_OFFSET;
+        for (int i = offset, end = offset + length; i < end; i++) {
+            h = (h ^ (bytes[i] & 0xFF)) * FNV_PRIME;
+        }
+        int slot = mix(h, length) & mask;
+        byte[] key = keys[slot];
+        if (key == null || key.length != length) {
+            return -1;
+        }
+        for (int i = 0; i < length; i++) {
+            if (key[i] != bytes[offset + i]) {
+                return -1;
+            }
+        }
+        return ordinals[slot];
+    }
+
+    /**
+     * Find the ordinal of the constant whose wire value equals the UTF-8 token.
+     * <p>
+     * Uses absolute indexing; the buffer's position is not changed.
+     *
+     * @param buffer Buffer holding the token
+     * @param offset Absolute index of the start of the token
+     * @param length Length of the token in bytes
+     * @return Ordinal of the matching constant, or -1 if none matches
+     */
+    public int indexOf(ByteBuffer buffer, int offset, int length) {
+        Objects.checkFromIndexSize(offset, length, buffer.limit());
+        int h = seed ^ FNV_OFFSET;
+        for (int i = offset, end = offset + length; i < end; i++) {
+            h = (h ^ (buffer.get(i) & 0xFF)) * FNV_PRIME;
+        }
+        int slot = mix(h, length) & mask;
+        byte[] key = keys[slot];
+        if (key == null || key.length != length) {
+            return -1;
+        }
+        for (int i = 0; i < length; i++) {
+            if (key[i] != buffer.get(offset + i)) {
+                return -1;
+            }
+        }
+        return ordinals[slot];
+    }
+
+    /**
+     * Find the ordinal of the constant whose wire value equals the characters.
+     * <p>
+     * Wire values are ASCII, so the characters are compared as single UTF-8 bytes.
+     *
+     * @param value Wire value
+     * @return Ordinal of the matching constant, or -1 if none matches
+     */
+    public int indexOf(CharSequence value) {
+        int length = value.length();
+        int h = seed ^ FNV_OFFSET;
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c >= 0x80) {
+                return -1;
+            }
+            h = (h ^ c) * FNV_PRIME;
+        }
+        int slot = mix(h, length) & mask;
+        byte[] key = keys[slot];
+        if (key == null || key.length != length) {
+            return -1;
+        }
+        for (int i = 0; i < length; i++) {
+            if (key[i] != value.charAt(i)) {
+                return -1;
+            }
+        }
+        return ordinals[slot];
+    }
+
+    /**
+     * Map a UTF-8 token to its enum constant.
+     *
+     * @param bytes   Buffer holding the token
+     * @param offset  Start of the token
+     * @param length  Length of the token in bytes
+     * @param unknown Constant to return when no wire value matches
+     * @return Matching constant, or {@code unknown}
+     */
+    public E lookup(byte[] bytes, int offset, int length, E unknown) {
+        int ordinal = indexOf(bytes, offset, length);
+        return ordinal >= 0 ? constants[ordinal] : Objects.requireNonNull(unknown, "unknown");
+    }
+
+    /**
+     * Map a UTF-8 token to its enum constant using absolute buffer indexing.
+     *
+     * @param buffer  Buffer holding the token
+     * @param offset  Absolute index of the start of the token
+     * @param length  Length of the token in bytes
+     * @param unknown Constant to return when no wire value matches
+     * @return Matching constant, or {@code unknown}
+     */
+    public E lookup(ByteBuffer buffer, int offset, int length, E unknown) {
+        int ordinal = indexOf(buffer, offset, length);
+        return ordinal >= 0 ? constants[ordinal] : Objects.requireNonNull(unknown, "unknown");
+    }
+
+    /**
+     * Map a wire value to its enum constant.
+     *
+     * @param value   Wire value
+     * @param unknown Constant to return when no wire value matches
+     * @return Matching constant, or {@code unknown}
+     */
+    public E lookup(CharSequence value, E unknown) {
+        int ordinal = value != null ? indexOf(value) : -1;
+        return ordinal >= 0 ? constants[ordinal] : Objects.requireNonNull(unknown, "unknown");
+    }
+
+    /**
+     * Get the constant with the given ordinal, as returned by {@code indexOf}.
+     *
+     * @param ordinal Ordinal from {@code indexOf}
+     * @return Enum constant
+     * @throws ArrayIndexOutOfBoundsException if the ordinal is -1
+     */
+    public E constant(int ordinal) {
+        return constants[ordinal];
+    }
+
+    private static int[] tryBuild(byte[][] encoded, int size, int seed) {
+        int[] table = new int[size];
+        Arrays.fill(table, -1);
+        for (int i = 0; i < encoded.length; i++) {
+            byte[] key = encoded[i];
+            int h = seed ^ FNV_OFFSET;
+            for (byte b : key) {
+                h = (h ^ (b & 0xFF)) * FNV_PRIME;
+            }
+            int slot = mix(h, key.length) & (size - 1);
+            if (table[slot] >= 0) {
+                if (Arrays.equals(encoded[table[slot]], key)) {
+                    throw new IllegalArgumentException("Duplicate wire value: "
+                            + new String(key, StandardCharsets.UTF_8));
+                }
+                return null;
+            }
+            table[slot] = i;
+        }
+        return table;
+    }
+
+    private static int mix(int h, int length) {
+        h ^= length;
+        h ^= h >>> 16;
+        return h;
+    }
+}
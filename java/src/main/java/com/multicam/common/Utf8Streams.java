@@ -0,0 +1,384 @@
+package com.multicam.common;
+
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+import com.google.gson.stream.MalformedJsonException;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+
+/**
+ * UTF-8 encode/decode of JSON messages directly against streams and buffers.
+ * <p>
+ * The readers and writers here transcode characters to and from UTF-8 bytes
+ * as Gson produces or consumes them, so a message never exists as an
+ * intermediate {@code String} or {@code byte[]}.
+ */
+final class Utf8Streams {
+
+    private static final int STREAM_BUFFER_SIZE = 512;
+
+    private static final char REPLACEMENT_CHAR = '\uFFFD';
+
+    private Utf8Streams() {
+        // Prevent instantiation
+    }
+
+    /**
+     * Encode a message as UTF-8 JSON onto an output stream.
+     * The stream is flushed but not closed.
+     */
+    static <T> void write(TypeAdapter<T> adapter, T value, OutputStream out) throws IOException {
+        OutputStreamWriter writer = new OutputStreamWriter(out);
+        JsonWriter jsonWriter = MultiCamJson.gson().newJsonWriter(writer);
+        adapter.write(jsonWriter, value);
+        jsonWriter.flush();
+    }
+
+    /**
+     * Encode a message as UTF-8 JSON into a buffer, starting at its position.
+     *
+     * @throws java.nio.BufferOverflowException if the buffer has insufficient space
+     */
+    static <T> void write(TypeAdapter<T> adapter, T value, ByteBuffer dst) {
+        try {
+            JsonWriter jsonWriter = MultiCamJson.gson().newJsonWriter(new ByteBufferWriter(dst));
+            adapter.write(jsonWriter, value);
+            jsonWriter.flush();
+        } catch (IOException e) {
+            // ByteBufferWriter performs no I/O
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Decode one JSON message from an input stream.
+     * <p>
+     * Bytes after the end of the message may be consumed from the stream.
+     *
+     * @return Decoded message, or null if the stream is empty
+     * @throws JsonSyntaxException if the input is not a valid message
+     * @throws IOException         if reading from the stream fails
+     */
+    static <T> T read(TypeAdapter<T> adapter, InputStream in) throws IOException {
+        return read(adapter, new InputStreamReader(in));
+    }
+
+    /**
+     * Decode one JSON message from the remaining bytes of a buffer.
+     * <p>
+     * The buffer's position is advanced past the bytes consumed, which may
+     * include bytes after the end of the message.
+     *
+     * @return Decoded message, or null if the buffer is empty
+     * @throws JsonSyntaxException if the input is not a valid message
+     */
+    static <T> T read(TypeAdapter<T> adapter, ByteBuffer src) {
+        try {
+            return read(adapter, new ByteBufferReader(src));
+        } catch (IOException e) {
+            throw new JsonSyntaxException(e);
+        }
+    }
+
+    /**
+     * Create a character reader that decodes UTF-8 from an input stream.
+     * <p>
+     * Reads return as soon as some input is available, so a streaming parser
+     * sees each value as it arrives rather than after a full buffer fills.
+     */
+    static Reader newReader(InputStream in) {
+        return new InputStreamReader(in);
+    }
+
+    /**
+     * Decode one JSON message from a character source with the same leniency as Gson.
+     *
+     * @return Decoded message, or null if the source is empty
+     */
+    static <T> T read(TypeAdapter<T> adapter, Reader reader) throws IOException {
+        JsonReader in = new JsonReader(reader);
+        in.setLenient(true);
+        try {
+            in.peek();
+        } catch (EOFException e) {
+            return null;
+        }
+        try {
+            return adapter.read(in);
+        } catch (MalformedJsonException | IllegalStateException | NumberFormatException e) {
+            throw new JsonSyntaxException(e);
+        }
+    }
+
+    // Writers
+
+    /**
+     * Writer that encodes UTF-8 one byte at a time into a sink.
+     */
+    private abstract static class Utf8Writer extends Writer {
+        private char highSurrogate;
+
+        abstract void put(byte b) throws IOException;
+
+        @Override
+        public void write(int c) throws IOException {
+            encode((char) c);
+        }
+
+        @Override
+        public void write(char[] cbuf, int off, int len) throws IOException {
+            for (int i = off, end = off + len; i < end; i++) {
+                encode(cbuf[i]);
+            }
+        }
+
+        @Override
+        public void write(String str, int off, int len) throws IOException {
+            for (int i = off, end = off + len; i < end; i++) {
+                encode(str.charAt(i));
+            }
+        }
+
+        private void encode(char c) throws IOException {
+            if (highSurrogate != 0) {
+                char high = highSurrogate;
+                highSurrogate = 0;
+                if (Character.isLowSurrogate(c)) {
+                    int codePoint = Character.toCodePoint(high, c);
+                    put((byte) (0xF0 | (codePoint >> 18)));
+                    put((byte) (0x80 | ((codePoint >> 12) & 0x3F)));
+                    put((byte) (0x80 | ((codePoint >> 6) & 0x3F)));
+                    put((byte) (0x80 | (codePoint & 0x3F)));
+                    return;
+                }
+                put((byte) '?');
+            }
+            if (c < 0x80) {
+                put((byte) c);
+            } else if (c < 0x800) {
+                put((byte) (0xC0 | (c >> 6)));
+                put((byte) (0x80 | (c & 0x3F)));
+            } else if (Character.isHighSurrogate(c)) {
+                highSurrogate = c;
+            } else if (Character.isLowSurrogate(c)) {
+                put((byte) '?');
+            } else {
+                put((byte) (0xE0 | (c >> 12)));
+                put((byte) (0x80 | ((c >> 6) & 0x3F)));
+                put((byte) (0x80 | (c & 0x3F)));
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (highSurrogate != 0) {
+                highSurrogate = 0;
+                put((byte) '?');
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+    }
+
+    private static final class OutputStreamWriter extends Utf8Writer {
+        private final OutputStream out;
+        private final byte[] buf = new byte[STREAM_BUFFER_SIZE];
+        private int count;
+
+        OutputStreamWriter(OutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        void put(byte b) throws IOException {
+            if (count == buf.length) {
+                out.write(buf, 0, count);
+                count = 0;
+            }
+            buf[count++] = b;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            super.flush();
+            if (count > 0) {
+                out.write(buf, 0, count);
+                count = 0;
+            }
+            out.flush();
+        }
+    }
+
+    private static final class ByteBufferWriter extends Utf8Writer {
+        private final ByteBuffer dst;
+
+        ByteBufferWriter(ByteBuffer dst) {
+            this.dst = dst;
+        }
+
+        @Override
+        void put(byte b) {
+            dst.put(b);
+        }
+    }
+
+    // Readers
+
+    /**
+     * Reader that decodes UTF-8 from a byte source. Malformed input decodes to U+FFFD.
+     */
+    private abstract static class Utf8Reader extends Reader {
+        private char lowSurrogate;
+
+        /** Byte that ended a truncated sequence, to be decoded next, or -1 */
+        private int pushedBack = -1;
+
+        /** Next byte as 0-255, or -1 at end of input. */
+        abstract int next() throws IOException;
+
+        /** Whether more bytes can be read without blocking indefinitely. */
+        abstract boolean ready0();
+
+        @Override
+        public int read(char[] cbuf, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            int n = 0;
+            if (lowSurrogate != 0) {
+                cbuf[off + n++] = lowSurrogate;
+                lowSurrogate = 0;
+            }
+            while (n < len && (n == 0 || pushedBack >= 0 || ready0())) {
+                int b = nextByte();
+                if (b < 0) {
+                    break;
+                }
+                int codePoint = decode(b);
+                if (codePoint < 0x10000) {
+                    cbuf[off + n++] = (char) codePoint;
+                } else {
+                    cbuf[off + n++] = Character.highSurrogate(codePoint);
+                    if (n < len) {
+                        cbuf[off + n++] = Character.lowSurrogate(codePoint);
+                    } else {
+                        lowSurrogate = Character.lowSurrogate(codePoint);
+                    }
+                }
+            }
+            return n == 0 ? -1 : n;
+        }
+
+        private int nextByte() throws IOException {
+            int b = pushedBack;
+            if (b >= 0) {
+                pushedBack = -1;
+                return b;
+            }
+            return next();
+        }
+
+        private int decode(int b) throws IOException {
+            if (b < 0x80) {
+                return b;
+            }
+            int extra;
+            int codePoint;
+            int min;
+            if ((b & 0xE0) == 0xC0) {
+                extra = 1;
+                codePoint = b & 0x1F;
+                min = 0x80;
+            } else if ((b & 0xF0) == 0xE0) {
+                extra = 2;
+                codePoint = b & 0x0F;
+                min = 0x800;
+            } else if ((b & 0xF8) == 0xF0) {
+                extra = 3;
+                codePoint = b & 0x07;
+                min = 0x10000;
+            } else {
+                return REPLACEMENT_CHAR;
+            }
+            for (int i = 0; i < extra; i++) {
+                int cont = next();
+                if ((cont & 0xC0) != 0x80) {
+                    // The byte that cut the sequence short starts the next character
+                    if (cont >= 0) {
+                        pushedBack = cont;
+                    }
+                    return REPLACEMENT_CHAR;
+                }
+                codePoint = (codePoint << 6) | (cont & 0x3F);
+            }
+            if (codePoint < min || codePoint > Character.MAX_CODE_POINT
+                    || (codePoint >= Character.MIN_SURROGATE && codePoint <= Character.MAX_SURROGATE)) {
+                return REPLACEMENT_CHAR;
+            }
+            return codePoint;
+        }
+
+        @Override
+        public void close() {
+            // Closing the message reader never closes the underlying source
+        }
+    }
+
+    private static final class InputStreamReader extends Utf8Reader {
+        private final InputStream in;
+        private final byte[] buf = new byte[STREAM_BUFFER_SIZE];
+        private int pos;
+        private int limit;
+
+        InputStreamReader(InputStream in) {
+            this.in = in;
+        }
+
+        @Override
+        int next() throws IOException {
+            if (pos == limit) {
+                limit = in.read(buf, 0, buf.length);
+                pos = 0;
+                if (limit <= 0) {
+                    limit = 0;
+                    return -1;
+                }
+            }
+            return buf[pos++] & 0xFF;
+        }
+
+        @Override
+        boolean ready0() {
+            return pos < limit;
+        }
+    }
+
+    private static final class ByteBufferReader extends Utf8Reader {
+        private final ByteBuffer src;
+
+        ByteBufferReader(ByteBuffer src) {
+            this.src = src;
+        }
+
+        @Override
+        int next() {
+            return src.hasRemaining() ? src.get() & 0xFF : -1;
+        }
+
+        @Override
+        boolean ready0() {
+            return src.hasRemaining();
+        }
+    }
+}
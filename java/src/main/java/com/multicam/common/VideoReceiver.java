@@ -0,0 +1,599 @@
+package com.multicam.common;
+
+import com.multicam.common.FileTypes.ErrorResponse;
+import com.multicam.common.FileTypes.FileResponse;
+import java.io.EOFException;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.LongConsumer;
+
+/**
+ * Receiver for GET_VIDEO replies (the binary file transfer protocol) that
+ * writes video data straight to disk.
+ * <p>
+ * The 4-byte header size and the JSON {@link FileResponse} header are read
+ * exactly, so no video bytes are consumed with them. The payload then goes
+ * from the socket into one reusable direct buffer and is written to the
+ * file at its absolute position; video bytes are never copied onto the Java
+ * heap. The target file is sized to {@code fileSize} before the payload
+ * arrives.
+ * <p>
+ * If the transfer fails, the file is truncated to the bytes actually
+ * received, leaving a valid prefix. An error reply from the device (such as
+ * {@code file_not_found}) is thrown as an exception. The transfer fails with
+ * {@link SocketTimeoutException} if no data arrives for the stall timeout
+ * (default {@link Constants#DOWNLOAD_STALL_TIMEOUT}).
+ * <p>
+ * {@link #resume} makes a download survive dropped connections and restarts:
+ * it syncs the file to disk at regular checkpoints, records the durable
+ * length in a progress file next to the target, and on the next call asks
+ * the device only for the bytes after it (a ranged GET_VIDEO).
+ * <pre>
+ * VideoReceiver receiver = new VideoReceiver();
+ * FileTypes.FileResponse header = receiver.download(device, fileName, Paths.get("video.mp4"));
+ * </pre>
+ * Instances are stateless and thread-safe; downloads block the calling
+ * thread, so fan them out with {@link FleetDispatcher}.
+ */
+public final class VideoReceiver {
+
+    /** Default size of the direct transfer buffer */
+    public static final int DEFAULT_BUFFER_SIZE = 1024 * 1024;
+
+    /** Default time without data after which a transfer fails */
+    public static final Duration DEFAULT_STALL_TIMEOUT =
+            Duration.ofMillis((long) (Constants.DOWNLOAD_STALL_TIMEOUT * 1000));
+
+    /** Largest JSON header or error reply accepted */
+    public static final int MAX_HEADER_SIZE = 64 * 1024;
+
+    /** Default number of bytes between progress checkpoints of a resumable download */
+    public static final long DEFAULT_CHECKPOINT_INTERVAL = 32L * 1024 * 1024;
+
+    /** Suffix of the progress file kept next to the target of a resumable download */
+    public static final String PROGRESS_SUFFIX = ".part";
+
+    private static final int PROGRESS_MAGIC = 0x4D435052;
+
+    private static final ScheduledExecutorService WATCHDOG = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "multicam-video-watchdog");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final int bufferSize;
+    private final long stallNanos;
+    private final long checkpointInterval;
+
+    /**
+     * Create a receiver with the default buffer size, stall timeout and checkpoint interval.
+     */
+    public VideoReceiver() {
+        this(DEFAULT_BUFFER_SIZE, DEFAULT_STALL_TIMEOUT);
+    }
+
+    /**
+     * Create a receiver with the default checkpoint interval.
+     *
+     * @param bufferSize   Size of the direct buffer used per transfer
+     * @param stallTimeout Time without data after which a transfer fails
+     */
+    public VideoReceiver(int bufferSize, Duration stallTimeout) {
+        this(bufferSize, stallTimeout, DEFAULT_CHECKPOINT_INTERVAL);
+    }
+
+    /**
+     * Create a receiver.
+     *
+     * @param bufferSize         Size of the direct buffer used per transfer
+     * @param stallTimeout       Time without data after which a transfer fails
+     * @param checkpointInterval Bytes received between progress checkpoints in {@link #resume}
+     */
+    public VideoReceiver(int bufferSize, Duration stallTimeout, long checkpointInterval) {
+        if (bufferSize <= 0) {
+            throw new IllegalArgumentException("Buffer size must be positive: " + bufferSize);
+        }
+        if (stallTimeout.isNegative() || stallTimeout.isZero()) {
+            throw new IllegalArgumentException("Stall timeout must be positive: " + stallTimeout);
+        }
+        if (checkpointInterval <= 0) {
+            throw new IllegalArgumentException("Checkpoint interval must be positive: " + checkpointInterval);
+        }
+        this.bufferSize = bufferSize;
+        this.stallNanos = stallTimeout.toNanos();
+        this.checkpointInterval = checkpointInterval;
+    }
+
+    /**
+     * Download a video from a device into a file.
+     *
+     * @param device   Device address
+     * @param fileName Name of the video on the device
+     * @param target   File to write; created or overwritten
+     * @return Header sent by the device
+     * @throws FileNotFoundException if the device does not have the file
+     * @throws IOException           if the transfer fails or the device replies with an error
+     */
+    public FileResponse download(InetSocketAddress device, String fileName, Path target) throws IOException {
+        return download(device, CommandMessage.getVideo(fileName), target);
+    }
+
+    /**
+     * Send a GET_VIDEO command to a device and receive the video into a file.
+     *
+     * @param device  Device address
+     * @param command GET_VIDEO command
+     * @param target  File to write; created or overwritten
+     * @return Header sent by the device
+     * @throws FileNotFoundException if the device does not have the file
+     * @throws IOException           if the transfer fails or the device replies with an error
+     */
+    public FileResponse download(InetSocketAddress device, CommandMessage command, Path target) throws IOException {
+        if (command.command != CommandType.GET_VIDEO) {
+            throw new IllegalArgumentException("Expected GET_VIDEO, got " + command.command);
+        }
+        try (SocketChannel channel = connect(device, command)) {
+            return receive(channel, target);
+        }
+    }
+
+    /**
+     * Download a video into a file, continuing a previous attempt if one was
+     * interrupted.
+     * <p>
+     * While data arrives, the file is synced every checkpoint interval and the
+     * durable length is recorded in a progress file (the target name plus
+     * {@link #PROGRESS_SUFFIX}). If that file exists, only the rest of the
+     * video is requested. A device that ignores the range sends the whole
+     * file again. If the file changed size on the device, or the device
+     * rejects the saved range, the download starts over. On success the progress file is deleted. A target without a
+     * progress file is downloaded from the start.
+     *
+     * @param device   Device address
+     * @param fileName Name of the video on the device
+     * @param target   File to write
+     * @return Header sent by the device
+     * @throws FileNotFoundException if the device does not have the file
+     * @throws IOException           if the transfer fails or the device replies with an error;
+     *                               progress up to the last synced byte is kept
+     */
+    public FileResponse resume(InetSocketAddress device, String fileName, Path target) throws IOException {
+        return resume(device, fileName, target, null);
+    }
+
+    /**
+     * Resumable download that reports payload bytes as they are written.
+     *
+     * @param onReceived Called with the number of payload bytes written after each read, or null
+     */
+    FileResponse resume(InetSocketAddress device, String fileName, Path target, LongConsumer onReceived)
+            throws IOException {
+        Path progressFile = progressFile(target);
+        for (boolean restarted = false; ; restarted = true) {
+            long[] saved = readProgress(progressFile, target);
+            long offset = saved != null ? saved[0] : 0;
+            CommandMessage command = offset > 0
+                    ? CommandMessage.getVideo(fileName, offset, null)
+                    : CommandMessage.getVideo(fileName);
+            try (SocketChannel channel = connect(device, command)) {
+                FileResponse header = watch(channel, onReceived, watchdog -> {
+                    ByteBuffer prefix = readPrefix(channel, watchdog);
+                    if (isErrorReply(prefix)) {
+                        IOException error = errorReply(channel, prefix, watchdog);
+                        if (offset > 0 && !(error instanceof FileNotFoundException)) {
+                            // Most likely the video shrank below the saved offset; the bytes on disk are stale
+                            Files.deleteIfExists(progressFile);
+                            return null;
+                        }
+                        throw error;
+                    }
+                    FileResponse reply = readHeader(channel, prefix, watchdog);
+                    long start = reply.getPayloadOffset();
+                    if (start > 0 && saved != null && reply.fileSize != saved[1]) {
+                        // The video changed on the device; the bytes on disk are stale
+                        Files.deleteIfExists(progressFile);
+                        return null;
+                    }
+                    if (start != 0 && start != offset) {
+                        throw new IOException("Device sent bytes from " + start + ", requested " + offset);
+                    }
+                    if (start + reply.getPayloadSize() != reply.fileSize) {
+                        throw new IOException("Device sent " + reply.getPayloadSize() + " bytes from " + start
+                                + " of a " + reply.fileSize + "-byte file, requested the rest");
+                    }
+                    receiveResumable(channel, target, progressFile, reply, watchdog);
+                    return reply;
+                });
+                if (header != null) {
+                    return header;
+                }
+            }
+            if (restarted) {
+                throw new IOException("File changed on the device during the download: " + fileName);
+            }
+        }
+    }
+
+    /**
+     * Receive a GET_VIDEO reply from a connected blocking channel into a file.
+     * <p>
+     * The command must already have been written. The channel is left open.
+     *
+     * @param channel Blocking channel to read from
+     * @param target  File to write; created or overwritten
+     * @return Header sent by the device
+     * @throws FileNotFoundException if the device does not have the file
+     * @throws IOException           if the transfer fails or the device replies with an error
+     */
+    public FileResponse receive(SocketChannel channel, Path target) throws IOException {
+        return watch(channel, watchdog -> {
+            FileResponse header = readHeader(channel, watchdog);
+            long start = header.getPayloadOffset();
+            long size = header.getPayloadSize();
+            if (header.offset == null) {
+                try (FileChannel file = FileChannel.open(target, StandardOpenOption.CREATE,
+                        StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                    preallocate(file, header.fileSize);
+                    receivePayload(channel, file, 0, size, watchdog, null, file::truncate);
+                }
+            } else {
+                // A ranged reply fills in its part of the file and leaves the rest alone
+                try (FileChannel file = FileChannel.open(target, StandardOpenOption.CREATE,
+                        StandardOpenOption.WRITE)) {
+                    preallocate(file, header.fileSize);
+                    receivePayload(channel, file, start, size, watchdog, null, null);
+                }
+            }
+            return header;
+        });
+    }
+
+    /**
+     * Send a GET_VIDEO command and write its reply into a shared file at the
+     * position given by the reply header.
+     * <p>
+     * The file is grown to the header's {@code fileSize} if it is shorter.
+     * Several ranges of one file may be received concurrently.
+     *
+     * @param device     Device address
+     * @param command    GET_VIDEO command, usually with a range
+     * @param file       File to write
+     * @param onHeader   Called with the reply header before any payload is written
+     * @param onReceived Called with the number of payload bytes written after each read
+     * @return Header sent by the device
+     * @throws IOException if the transfer fails or the device replies with an error
+     */
+    FileResponse receiveRange(InetSocketAddress device, CommandMessage command, FileChannel file,
+                              Consumer<FileResponse> onHeader, LongConsumer onReceived) throws IOException {
+        try (SocketChannel channel = connect(device, command)) {
+            return watch(channel, onReceived, watchdog -> {
+                FileResponse header = readHeader(channel, watchdog);
+                onHeader.accept(header);
+                preallocate(file, header.fileSize);
+                receivePayload(channel, file, header.getPayloadOffset(), header.getPayloadSize(), watchdog,
+                        null, null);
+                return header;
+            });
+        }
+    }
+
+    private void receiveResumable(SocketChannel channel, Path target, Path progressFile, FileResponse header,
+                                  Watchdog watchdog) throws IOException {
+        long fileSize = header.fileSize;
+        try (FileChannel file = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            if (file.size() > fileSize) {
+                file.truncate(fileSize);
+            }
+            preallocate(file, fileSize);
+            long start = header.getPayloadOffset();
+            if (start == 0) {
+                writeProgress(progressFile, 0, fileSize);
+            }
+            Checkpoint checkpoint = position -> writeProgress(progressFile, position, fileSize);
+            receivePayload(channel, file, start, header.getPayloadSize(), watchdog, checkpoint, position -> {
+                file.force(false);
+                checkpoint.reached(position);
+            });
+            file.force(false);
+        }
+        Files.deleteIfExists(progressFile);
+    }
+
+    private SocketChannel connect(InetSocketAddress device, CommandMessage command) throws IOException {
+        SocketChannel channel = SocketChannel.open();
+        try {
+            channel.socket().connect(device, (int) Math.min(Integer.MAX_VALUE, TimeUnit.NANOSECONDS.toMillis(stallNanos)));
+            ByteBuffer request = ByteBuffer.wrap(command.toBytes());
+            while (request.hasRemaining()) {
+                channel.write(request);
+            }
+            return channel;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Run a transfer under a stall watchdog, reporting a stall as a timeout.
+     */
+    private FileResponse watch(SocketChannel channel, Transfer transfer) throws IOException {
+        return watch(channel, null, transfer);
+    }
+
+    private FileResponse watch(SocketChannel channel, LongConsumer onReceived, Transfer transfer)
+            throws IOException {
+        Watchdog watchdog = new Watchdog(channel, onReceived);
+        try {
+            return transfer.run(watchdog);
+        } catch (AsynchronousCloseException e) {
+            if (watchdog.stalled) {
+                throw new SocketTimeoutException("No data from " + channel.socket().getRemoteSocketAddress()
+                        + " for " + Duration.ofNanos(stallNanos));
+            }
+            throw e;
+        } finally {
+            watchdog.cancel();
+        }
+    }
+
+    private FileResponse readHeader(SocketChannel channel, Watchdog watchdog) throws IOException {
+        ByteBuffer prefix = readPrefix(channel, watchdog);
+        if (isErrorReply(prefix)) {
+            throw errorReply(channel, prefix, watchdog);
+        }
+        return readHeader(channel, prefix, watchdog);
+    }
+
+    /**
+     * Read the first four bytes of a reply: the header size, or the start of a JSON error reply.
+     */
+    private static ByteBuffer readPrefix(SocketChannel channel, Watchdog watchdog) throws IOException {
+        ByteBuffer prefix = ByteBuffer.allocate(4);
+        readFully(channel, prefix, watchdog);
+        return prefix;
+    }
+
+    private static boolean isErrorReply(ByteBuffer prefix) {
+        byte first = prefix.get(0);
+        return first == '{' || first == ' ' || first == '\t' || first == '\r' || first == '\n';
+    }
+
+    private FileResponse readHeader(SocketChannel channel, ByteBuffer prefix, Watchdog watchdog) throws IOException {
+        int size = prefix.getInt(0);
+        if (size <= 0 || size > MAX_HEADER_SIZE) {
+            throw new IOException("Invalid GET_VIDEO header size: " + Integer.toUnsignedString(size));
+        }
+        ByteBuffer json = ByteBuffer.allocate(size);
+        readFully(channel, json, watchdog);
+        json.flip();
+        FileResponse header;
+        try {
+            header = FileResponse.fromBuffer(json);
+        } catch (RuntimeException e) {
+            throw new IOException("Malformed GET_VIDEO header", e);
+        }
+        if (header == null) {
+            throw new IOException("Empty GET_VIDEO header");
+        }
+        long start = header.getPayloadOffset();
+        long length = header.getPayloadSize();
+        if (header.fileSize < 0 || start < 0 || length < 0 || start + length > header.fileSize) {
+            throw new IOException("Invalid range in GET_VIDEO header: " + start + "+" + length
+                    + " of " + header.fileSize + " bytes");
+        }
+        return header;
+    }
+
+    /**
+     * Read a JSON error reply, which the device sends instead of the binary
+     * header and follows by closing the connection.
+     */
+    private IOException errorReply(SocketChannel channel, ByteBuffer prefix, Watchdog watchdog) throws IOException {
+        ByteBuffer reply = ByteBuffer.allocate(MAX_HEADER_SIZE);
+        reply.put(prefix.flip());
+        while (reply.hasRemaining()) {
+            int read = channel.read(reply);
+            if (read < 0) {
+                break;
+            }
+            watchdog.progress();
+        }
+        reply.flip();
+        ErrorResponse error;
+        try {
+            error = ErrorResponse.fromBuffer(reply);
+        } catch (RuntimeException e) {
+            return new IOException("Malformed GET_VIDEO error reply", e);
+        }
+        if (error == null || error.status == null) {
+            return new IOException("GET_VIDEO failed without a status");
+        }
+        String message = "GET_VIDEO failed with status " + error.status
+                + (error.message != null ? ": " + error.message : "");
+        return DeviceStatus.fromValue(error.status) == DeviceStatus.FILE_NOT_FOUND
+                ? new FileNotFoundException(message)
+                : new IOException(message);
+    }
+
+    /**
+     * Size the file up front instead of growing it with every write.
+     */
+    private static void preallocate(FileChannel file, long size) throws IOException {
+        if (file.size() < size) {
+            file.write(ByteBuffer.allocate(1), size - 1);
+        }
+    }
+
+    /**
+     * Copy {@code size} payload bytes into the file from {@code start}.
+     *
+     * @param checkpoint Called with the position after each synced checkpoint interval, or null
+     * @param onFailure  Called with the position reached before rethrowing a failure, or null
+     */
+    private void receivePayload(SocketChannel channel, FileChannel file, long start, long size, Watchdog watchdog,
+                                Checkpoint checkpoint, Checkpoint onFailure) throws IOException {
+        long end = start + size;
+        ByteBuffer buffer = ByteBuffer.allocateDirect((int) Math.max(1, Math.min(bufferSize, size)));
+        long position = start;
+        long nextCheckpoint = checkpoint != null ? start + checkpointInterval : Long.MAX_VALUE;
+        try {
+            while (position < end) {
+                buffer.clear();
+                if (end - position < buffer.capacity()) {
+                    buffer.limit((int) (end - position));
+                }
+                if (channel.read(buffer) < 0) {
+                    throw new EOFException("Connection closed at byte " + position + " of " + end);
+                }
+                buffer.flip();
+                int read = buffer.remaining();
+                while (buffer.hasRemaining()) {
+                    position += file.write(buffer, position);
+                }
+                watchdog.received(read);
+                if (position >= nextCheckpoint && position < end) {
+                    file.force(false);
+                    checkpoint.reached(position);
+                    nextCheckpoint = position + checkpointInterval;
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            if (onFailure != null) {
+                try {
+                    onFailure.reached(position);
+                } catch (IOException suppressed) {
+                    e.addSuppressed(suppressed);
+                }
+            }
+            throw e;
+        }
+    }
+
+    private static Path progressFile(Path target) {
+        return target.resolveSibling(target.getFileName() + PROGRESS_SUFFIX);
+    }
+
+    /**
+     * Read the durable length and file size recorded for a download.
+     *
+     * @return Length and file size, or null if there is nothing to resume
+     */
+    private static long[] readProgress(Path progressFile, Path target) throws IOException {
+        if (!Files.exists(progressFile) || !Files.exists(target)) {
+            return null;
+        }
+        ByteBuffer record = ByteBuffer.wrap(Files.readAllBytes(progressFile));
+        if (record.remaining() != 20 || record.getInt() != PROGRESS_MAGIC) {
+            return null;
+        }
+        long position = record.getLong();
+        long fileSize = record.getLong();
+        if (position < 0 || position > fileSize || Files.size(target) < position) {
+            return null;
+        }
+        return new long[] {position, fileSize};
+    }
+
+    /**
+     * Record the durable length of a download, replacing the previous record atomically.
+     */
+    private static void writeProgress(Path progressFile, long position, long fileSize) throws IOException {
+        Path temp = progressFile.resolveSibling(progressFile.getFileName() + ".tmp");
+        ByteBuffer record = ByteBuffer.allocate(20).putInt(PROGRESS_MAGIC).putLong(position).putLong(fileSize);
+        record.flip();
+        try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (record.hasRemaining()) {
+                out.write(record);
+            }
+            out.force(false);
+        }
+        Files.move(temp, progressFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void readFully(SocketChannel channel, ByteBuffer dst, Watchdog watchdog) throws IOException {
+        while (dst.hasRemaining()) {
+            if (channel.read(dst) < 0) {
+                throw new EOFException("Connection closed while reading the GET_VIDEO header");
+            }
+            watchdog.progress();
+        }
+    }
+
+    /**
+     * Body of a transfer run under a watchdog.
+     */
+    private interface Transfer {
+        FileResponse run(Watchdog watchdog) throws IOException;
+    }
+
+    /**
+     * Receiver of a byte position during a transfer.
+     */
+    private interface Checkpoint {
+        void reached(long position) throws IOException;
+    }
+
+    /**
+     * Closes the channel once no data has arrived for the stall timeout,
+     * since blocking channel reads ignore socket timeouts.
+     */
+    private final class Watchdog {
+        private final SocketChannel channel;
+        private final LongConsumer onReceived;
+        private final ScheduledFuture<?> check;
+        private volatile long lastProgress = System.nanoTime();
+        private volatile boolean stalled;
+
+        Watchdog(SocketChannel channel, LongConsumer onReceived) {
+            this.channel = channel;
+            this.onReceived = onReceived;
+            long period = Math.max(TimeUnit.MILLISECONDS.toNanos(10), Math.min(stallNanos / 4, TimeUnit.SECONDS.toNanos(1)));
+            this.check = WATCHDOG.scheduleAtFixedRate(this::check, period, period, TimeUnit.NANOSECONDS);
+        }
+
+        void progress() {
+            lastProgress = System.nanoTime();
+        }
+
+        void received(int bytes) {
+            progress();
+            if (onReceived != null) {
+                onReceived.accept(bytes);
+            }
+        }
+
+        void cancel() {
+            check.cancel(false);
+        }
+
+        private void check() {
+            if (System.nanoTime() - lastProgress > stallNanos) {
+                stalled = true;
+                check.cancel(false);
+                try {
+                    channel.close();
+                } catch (IOException ignored) {
+                    // The blocked read fails either way
+                }
+            }
+        }
+    }
+}
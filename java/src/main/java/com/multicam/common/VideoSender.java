@@ -0,0 +1,158 @@
+package com.multicam.common;
+
+import com.multicam.common.FileTypes.ErrorResponse;
+import com.multicam.common.FileTypes.FileResponse;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.IllegalBlockingModeException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Device side of the GET_VIDEO binary file transfer protocol.
+ * <p>
+ * Writes the 4-byte big-endian header size and the JSON {@link FileResponse}
+ * header, then streams the file with {@link FileChannel#transferTo}. When the
+ * target is a socket the kernel copies the file straight from the page cache
+ * ({@code sendfile} on Linux), without passing it through a user-space
+ * buffer. Channels must be in blocking mode.
+ * <p>
+ * A command's {@code offset} and {@code length} select a byte range; the
+ * served range is echoed in the header so the controller can tell the reply
+ * from a whole-file one.
+ * <pre>
+ * // Device side, after reading a GET_VIDEO command
+ * VideoSender.send(socketChannel, deviceId, videoDirectory.resolve(command.fileName),
+ *         command.offset, command.length);
+ * </pre>
+ */
+public final class VideoSender {
+
+    private VideoSender() {
+        // Prevent instantiation
+    }
+
+    /**
+     * Send a file as a GET_VIDEO reply.
+     * <p>
+     * If the file does not exist, a {@code file_not_found} error reply is
+     * sent instead and {@link NoSuchFileException} is thrown.
+     *
+     * @param out      Blocking channel to write to
+     * @param deviceId Device ID to report in the header
+     * @param file     File to send
+     * @return Number of file bytes sent
+     * @throws NoSuchFileException if the file does not exist
+     * @throws IOException         if reading the file or writing to the channel fails
+     */
+    public static long send(WritableByteChannel out, String deviceId, Path file) throws IOException {
+        return send(out, deviceId, file, null, null);
+    }
+
+    /**
+     * Send a byte range of a file as a GET_VIDEO reply.
+     * <p>
+     * The range is clamped to the end of the file. If neither bound is given
+     * the whole file is sent without a range in the header. If the file does
+     * not exist, or the range is invalid, an error reply is sent instead and
+     * an exception is thrown.
+     *
+     * @param out      Blocking channel to write to
+     * @param deviceId Device ID to report in the header
+     * @param file     File to send
+     * @param offset   First byte to send (null for the start of the file)
+     * @param length   Number of bytes to send (null for the rest of the file)
+     * @return Number of file bytes sent
+     * @throws NoSuchFileException if the file does not exist
+     * @throws IOException         if the range is invalid, or reading the file or writing to the channel fails
+     */
+    public static long send(WritableByteChannel out, String deviceId, Path file, Long offset, Long length)
+            throws IOException {
+        if (!Files.isRegularFile(file)) {
+            sendError(out, error(deviceId, DeviceStatus.FILE_NOT_FOUND, "File not found: " + file.getFileName()));
+            throw new NoSuchFileException(file.toString());
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            FileResponse header = new FileResponse(deviceId, String.valueOf(file.getFileName()), size,
+                    DeviceStatus.READY.getValue());
+            if (offset != null || length != null) {
+                long start = offset != null ? offset : 0;
+                if (start < 0 || start > size || (length != null && length < 0)) {
+                    sendError(out, error(deviceId, DeviceStatus.ERROR, "Invalid range " + start + "+" + length
+                            + " for " + size + " bytes"));
+                    throw new IOException("Invalid range " + start + "+" + length + " for " + file);
+                }
+                header.offset = start;
+                header.length = length != null ? Math.min(length, size - start) : size - start;
+            }
+            return send(out, header, channel);
+        }
+    }
+
+    /**
+     * Send a header and the payload it describes: the byte range given by its
+     * {@code offset} and {@code length}, or the first {@code fileSize} bytes.
+     *
+     * @param out    Blocking channel to write to
+     * @param header Header describing the payload
+     * @param file   File to send
+     * @return Number of file bytes sent
+     * @throws EOFException if the file ends before the payload
+     * @throws IOException  if reading the file or writing to the channel fails
+     */
+    public static long send(WritableByteChannel out, FileResponse header, FileChannel file) throws IOException {
+        requireBlocking(out);
+        byte[] json = header.toJson().getBytes(StandardCharsets.UTF_8);
+        ByteBuffer buffer = ByteBuffer.allocate(Framing.HEADER_SIZE + json.length);
+        buffer.putInt(json.length).put(json).flip();
+        writeFully(out, buffer);
+
+        long start = header.getPayloadOffset();
+        long end = start + header.getPayloadSize();
+        long position = start;
+        while (position < end) {
+            long sent = file.transferTo(position, end - position, out);
+            if (sent <= 0 && position >= file.size()) {
+                throw new EOFException("File ended at byte " + position + " of " + end);
+            }
+            position += sent;
+        }
+        return position - start;
+    }
+
+    /**
+     * Send an error reply in place of the binary header.
+     *
+     * @param out   Blocking channel to write to
+     * @param error Error to send
+     * @throws IOException if writing to the channel fails
+     */
+    public static void sendError(WritableByteChannel out, ErrorResponse error) throws IOException {
+        requireBlocking(out);
+        writeFully(out, ByteBuffer.wrap(error.toJson().getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static ErrorResponse error(String deviceId, DeviceStatus status, String message) {
+        return new ErrorResponse(deviceId, status.getValue(), System.currentTimeMillis() / 1000.0, message);
+    }
+
+    private static void requireBlocking(WritableByteChannel out) {
+        if (out instanceof SelectableChannel && !((SelectableChannel) out).isBlocking()) {
+            throw new IllegalBlockingModeException();
+        }
+    }
+
+    private static void writeFully(WritableByteChannel out, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package com.multicam.common;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Encoding used for commands and status responses on a connection.
+ * <p>
+ * JSON is always understood. The controller switches a device to
+ * {@link #BINARY} only after that device has advertised
+ * {@link Capabilities#BINARY_V1} in a JSON status response, so devices that
+ * predate the binary codec keep receiving JSON. A device answers in the
+ * format of the command it received, which it can tell from the first byte.
+ * <pre>
+ * WireFormat format = WireFormat.negotiate(StatusResponse.fromStream(in));
+ * format.write(command, out);
+ * StatusResponse status = format.readStatus(in);
+ * </pre>
+ */
+public enum WireFormat {
+    /** UTF-8 JSON, understood by every device */
+    JSON,
+
+    /** Compact binary encoding (see {@link BinaryCodec}) */
+    BINARY;
+
+    /**
+     * Choose the format to use with a device from its last status response.
+     *
+     * @param status Status response from the device (null if none yet)
+     * @return BINARY if the device advertises {@link Capabilities#BINARY_V1}, otherwise JSON
+     */
+    public static WireFormat negotiate(StatusResponse status) {
+        return status != null && status.supports(Capabilities.BINARY_V1) ? BINARY : JSON;
+    }
+
+    /**
+     * Detect the format of a message from its first byte.
+     *
+     * @param firstByte First byte of the message
+     * @return BINARY if the byte is {@link BinaryCodec#MAGIC}, otherwise JSON
+     */
+    public static WireFormat detect(byte firstByte) {
+        return firstByte == BinaryCodec.MAGIC ? BINARY : JSON;
+    }
+
+    /**
+     * Detect the format of the message at a buffer's position without consuming it.
+     *
+     * @param src Buffer holding the message
+     * @return Detected format, or JSON if the buffer is empty
+     */
+    public static WireFormat detect(ByteBuffer src) {
+        return src.hasRemaining() ? detect(src.get(src.position())) : JSON;
+    }
+
+    /**
+     * Write a command in this format to an output stream.
+     * <p>
+     * The stream is flushed but not closed.
+     *
+     * @param message Command to write
+     * @param out     Stream to write to
+     * @throws IOException if writing to the stream fails
+     */
+    public void write(CommandMessage message, OutputStream out) throws IOException {
+        if (this == BINARY) {
+            BinaryCodec.encode(message, out);
+        } else {
+            message.writeTo(out);
+        }
+    }
+
+    /**
+     * Write a command in this format into a buffer at its current position.
+     *
+     * @param message Command to write
+     * @param dst     Buffer to write to
+     * @throws java.nio.BufferOverflowException if the buffer has insufficient space
+     */
+    public void write(CommandMessage message, ByteBuffer dst) {
+        if (this == BINARY) {
+            BinaryCodec.encode(message, dst);
+        } else {
+            message.writeTo(dst);
+        }
+    }
+
+    /**
+     * Write a status response in this format to an output stream.
+     * <p>
+     * The stream is flushed but not closed.
+     *
+     * @param response Response to write
+     * @param out      Stream to write to
+     * @throws IOException if writing to the stream fails
+     */
+    public void write(StatusResponse response, OutputStream out) throws IOException {
+        if (this == BINARY) {
+            BinaryCodec.encode(response, out);
+        } else {
+            response.writeTo(out);
+        }
+    }
+
+    /**
+     * Write a status response in this format into a buffer at its current position.
+     *
+     * @param response Response to write
+     * @param dst      Buffer to write to
+     * @throws java.nio.BufferOverflowException if the buffer has insufficient space
+     */
+    public void write(StatusResponse response, ByteBuffer dst) {
+        if (this == BINARY) {
+            BinaryCodec.encode(response, dst);
+        } else {
+            response.writeTo(dst);
+        }
+    }
+
+    /**
+     * Read a command in this format from an input stream.
+     *
+     * @param in Stream to read from
+     * @return CommandMessage instance, or null if the stream is empty
+     * @throws IOException if reading from the stream fails
+     */
+    public CommandMessage readCommand(InputStream in) throws IOException {
+        return this == BINARY ? BinaryCodec.decodeCommand(in) : CommandMessage.fromStream(in);
+    }
+
+    /**
+     * Read a command in this format from the bytes remaining in a buffer.
+     *
+     * @param src Buffer to read from
+     * @return CommandMessage instance, or null if the buffer is empty
+     */
+    public CommandMessage readCommand(ByteBuffer src) {
+        return this == BINARY ? BinaryCodec.decodeCommand(src) : CommandMessage.fromBuffer(src);
+    }
+
+    /**
+     * Read a status response in this format from an input stream.
+     *
+     * @param in Stream to read from
+     * @return StatusResponse instance, or null if the stream is empty
+     * @throws IOException if reading from the stream fails
+     */
+    public StatusResponse readStatus(InputStream in) throws IOException {
+        return this == BINARY ? BinaryCodec.decodeStatus(in) : StatusResponse.fromStream(in);
+    }
+
+    /**
+     * Read a status response in this format from the bytes remaining in a buffer.
+     *
+     * @param src Buffer to read from
+     * @return StatusResponse instance, or null if the buffer is empty
+     */
+    public StatusResponse readStatus(ByteBuffer src) {
+        return this == BINARY ? BinaryCodec.decodeStatus(src) : StatusResponse.fromBuffer(src);
+    }
+}
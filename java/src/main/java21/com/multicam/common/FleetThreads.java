@@ -0,0 +1,43 @@
+package com.multicam.common;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Thread source for fleet dispatch on Java 21 and later: one virtual thread
+ * per task.
+ * <p>
+ * Blocking socket and file I/O parks the virtual thread instead of an OS
+ * thread, so a thousand simultaneous device calls need only a handful of
+ * carrier threads. Loaded from {@code META-INF/versions/21} of the
+ * multi-release JAR in place of the Java 11 pool.
+ */
+final class FleetThreads {
+
+    private FleetThreads() {
+        // Prevent instantiation
+    }
+
+    /**
+     * Check whether executors from this class run tasks on virtual threads.
+     *
+     * @return True on this runtime
+     */
+    static boolean isVirtual() {
+        return true;
+    }
+
+    /**
+     * Create an executor for blocking per-device work.
+     * <p>
+     * Every task gets its own virtual thread; {@code maxPlatformThreads} is
+     * ignored.
+     *
+     * @param name               Thread name prefix
+     * @param maxPlatformThreads Ignored on this runtime
+     * @return ExecutorService instance
+     */
+    static ExecutorService newExecutor(String name, int maxPlatformThreads) {
+        return Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name(name + "-", 0).factory());
+    }
+}
@@ -0,0 +1,52 @@
+package com.multicam.common;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.nio.ByteBuffer;
+import org.junit.Test;
+
+/**
+ * Copies and round trips of commands.
+ */
+public class CommandMessageTest {
+
+    @Test
+    public void withRequestIdKeepsRange() {
+        CommandMessage copy = CommandMessage.getVideo("video.mp4", 123L, 456L).withRequestId(9L);
+
+        assertEquals(Long.valueOf(9), copy.requestId);
+        assertEquals(Long.valueOf(123), copy.offset);
+        assertEquals(Long.valueOf(456), copy.length);
+
+        CommandMessage parsed = CommandMessage.fromJson(copy.toJson());
+        assertEquals(Long.valueOf(123), parsed.offset);
+        assertEquals(Long.valueOf(456), parsed.length);
+        assertEquals(Long.valueOf(9), parsed.requestId);
+    }
+
+    @Test
+    public void withRequestIdKeepsUploadFields() {
+        CommandMessage original = CommandMessage.uploadToCloudWithIAM("video.mp4", "bucket", "key", "id", "secret",
+                "token", "us-east-1", "controller");
+        CommandMessage copy = original.withRequestId(3L);
+
+        assertEquals(original.timestamp, copy.timestamp, 0.0);
+        assertEquals("bucket", copy.s3Bucket);
+        assertEquals("key", copy.s3Key);
+        assertEquals("token", copy.awsSessionToken);
+        assertEquals("us-east-1", copy.awsRegion);
+        assertNull(original.requestId);
+    }
+
+    @Test
+    public void rangeSurvivesBinaryCodec() {
+        CommandMessage command = CommandMessage.getVideo("video.mp4", 1L << 33, null).withRequestId(7L);
+
+        CommandMessage decoded = BinaryCodec.decodeCommand(ByteBuffer.wrap(BinaryCodec.encode(command)));
+
+        assertEquals(Long.valueOf(1L << 33), decoded.offset);
+        assertNull(decoded.length);
+        assertEquals(Long.valueOf(7), decoded.requestId);
+    }
+}
@@ -0,0 +1,173 @@
+package com.multicam.common;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Connection reuse and per-device caps against loopback devices that take
+ * 20 ms per command and count their sockets and the commands they are
+ * working on at once.
+ */
+public class ConnectionPoolTest {
+
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final AtomicInteger accepted = new AtomicInteger();
+    private final AtomicInteger busy = new AtomicInteger();
+    private final AtomicInteger maxBusy = new AtomicInteger();
+    private final List<Socket> sockets = new CopyOnWriteArrayList<>();
+    private final List<ServerSocket> servers = new ArrayList<>();
+    private final MultiCamClient client = new MultiCamClient(Duration.ofSeconds(2));
+
+    @After
+    public void tearDown() throws IOException {
+        client.close();
+        for (ServerSocket server : servers) {
+            server.close();
+        }
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void keepAliveConnectionIsReused() throws IOException {
+        InetSocketAddress device = startDevice(true);
+        try (ConnectionPool pool = new ConnectionPool(client)) {
+            pool.prewarm(device, keepAliveStatus(), 1).join();
+            for (int i = 0; i < 20; i++) {
+                assertEquals("ready", pool.send(device, CommandMessage.heartbeat()).join().status);
+            }
+
+            assertEquals(1, accepted.get());
+            assertEquals(1, pool.openConnections(device));
+            assertEquals(20, pool.getStats().getHits());
+        }
+    }
+
+    @Test
+    public void concurrentCommandsWaitForTheCap() throws IOException {
+        InetSocketAddress device = startDevice(true);
+        try (ConnectionPool pool = new ConnectionPool(client, 2, ConnectionPool.DEFAULT_VALIDATION_INTERVAL)) {
+            pool.update(device, keepAliveStatus());
+            sendConcurrently(pool, device, 20);
+
+            assertTrue("Opened " + accepted.get() + " sockets", accepted.get() <= 2);
+            assertTrue("Served " + maxBusy.get() + " commands at once", maxBusy.get() <= 2);
+            assertTrue(pool.getStats().getWaits() > 0);
+        }
+    }
+
+    @Test
+    public void perCommandDeviceIsCapped() throws IOException {
+        InetSocketAddress device = startDevice(false);
+        try (ConnectionPool pool = new ConnectionPool(client, 2, ConnectionPool.DEFAULT_VALIDATION_INTERVAL)) {
+            sendConcurrently(pool, device, 20);
+
+            assertEquals(20, accepted.get());
+            assertTrue("Served " + maxBusy.get() + " commands at once", maxBusy.get() <= 2);
+        }
+    }
+
+    @Test
+    public void connectionClosedByDeviceIsReplaced() throws Exception {
+        InetSocketAddress device = startDevice(true);
+        try (ConnectionPool pool = new ConnectionPool(client)) {
+            pool.prewarm(device, keepAliveStatus(), 1).join();
+            for (Socket socket : sockets) {
+                socket.close();
+            }
+            TimeUnit.MILLISECONDS.sleep(100);
+
+            assertEquals("ready", pool.send(device, CommandMessage.heartbeat()).join().status);
+            assertEquals(2, accepted.get());
+        }
+    }
+
+    private void sendConcurrently(ConnectionPool pool, InetSocketAddress device, int count) {
+        List<CompletableFuture<StatusResponse>> replies = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            replies.add(pool.send(device, CommandMessage.deviceStatus()));
+        }
+        for (CompletableFuture<StatusResponse> reply : replies) {
+            assertEquals("ready", reply.join().status);
+        }
+    }
+
+    private static StatusResponse keepAliveStatus() {
+        StatusResponse status = new StatusResponse("device", "ready", 1.0);
+        status.capabilities = Collections.singletonList(Capabilities.KEEP_ALIVE_V1);
+        return status;
+    }
+
+    private InetSocketAddress startDevice(boolean keepAlive) throws IOException {
+        ServerSocket server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        servers.add(server);
+        executor.execute(() -> {
+            try {
+                while (true) {
+                    Socket socket = server.accept();
+                    accepted.incrementAndGet();
+                    sockets.add(socket);
+                    executor.execute(() -> serve(socket, keepAlive));
+                }
+            } catch (IOException ignored) {
+                // Closed at teardown
+            }
+        });
+        return new InetSocketAddress(server.getInetAddress(), server.getLocalPort());
+    }
+
+    private void serve(Socket socket, boolean keepAlive) {
+        try (Socket s = socket) {
+            InputStream in = new BufferedInputStream(s.getInputStream());
+            OutputStream out = s.getOutputStream();
+            StatusResponse reply = keepAlive ? keepAliveStatus() : new StatusResponse("device", "ready", 1.0);
+            byte[] json = reply.toJson().getBytes(StandardCharsets.UTF_8);
+            in.mark(1);
+            int first = in.read();
+            in.reset();
+            if (Framing.isFramed((byte) first)) {
+                while (Framing.readFrame(in) != null) {
+                    work();
+                    Framing.writeFrame(out, json);
+                }
+            } else {
+                CommandMessage.fromStream(in);
+                work();
+                out.write(json);
+                out.flush();
+            }
+        } catch (IOException | InterruptedException ignored) {
+            // Closed by the client or at teardown
+        }
+    }
+
+    private void work() throws InterruptedException {
+        maxBusy.accumulateAndGet(busy.incrementAndGet(), Math::max);
+        try {
+            TimeUnit.MILLISECONDS.sleep(20);
+        } finally {
+            busy.decrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,216 @@
+package com.multicam.common;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.multicam.common.FileTypes.FileMetadata;
+import com.multicam.common.FileTypes.FileResponse;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Start order, connection caps, cancellation and the bandwidth budget
+ * against two loopback devices.
+ */
+public class DownloadSchedulerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final List<String> finished = Collections.synchronizedList(new ArrayList<>());
+    private Path first;
+    private Path second;
+    private Path downloads;
+    private FakeVideoDevice deviceA;
+    private FakeVideoDevice deviceB;
+    private DownloadScheduler scheduler;
+
+    @Before
+    public void setUp() throws IOException {
+        first = folder.newFolder("a").toPath();
+        second = folder.newFolder("b").toPath();
+        downloads = folder.newFolder("downloads").toPath();
+        deviceA = new FakeVideoDevice(first);
+        deviceB = new FakeVideoDevice(second);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        if (scheduler != null) {
+            scheduler.close();
+        }
+        deviceA.close();
+        deviceB.close();
+    }
+
+    @Test
+    public void shortestFirstStartsSmallestQueuedFile() throws Exception {
+        scheduler = newScheduler(1, 0, DownloadScheduler.Order.SHORTEST_FIRST);
+        CountDownLatch hold = new CountDownLatch(1);
+        deviceA.hold = hold;
+        submit(deviceA, first, "busy.mp4", 1000, null);
+        awaitTrue(() -> deviceA.busy.get() == 1);
+
+        submit(deviceB, second, "b300.mp4", 300_000, null);
+        submit(deviceB, second, "b100.mp4", 100_000, null);
+        submit(deviceA, first, "a50.mp4", 50_000, null);
+        submit(deviceB, second, "b200.mp4", 200_000, null);
+        hold.countDown();
+        scheduler.awaitIdle();
+
+        assertEquals(Arrays.asList("busy.mp4", "a50.mp4", "b100.mp4", "b200.mp4", "b300.mp4"), finished);
+    }
+
+    @Test
+    public void earliestDeadlineStartsFirstAndUndatedJobsFollow() throws Exception {
+        scheduler = newScheduler(1, 0, DownloadScheduler.Order.EARLIEST_DEADLINE);
+        CountDownLatch hold = new CountDownLatch(1);
+        deviceA.hold = hold;
+        submit(deviceA, first, "busy.mp4", 1000, null);
+        awaitTrue(() -> deviceA.busy.get() == 1);
+
+        Instant now = Instant.now();
+        submit(deviceA, first, "undated.mp4", 10_000, null);
+        submit(deviceB, second, "late.mp4", 20_000, now.plusSeconds(60));
+        submit(deviceA, first, "soon.mp4", 300_000, now.plusSeconds(10));
+        submit(deviceB, second, "sooner.mp4", 200_000, now.plusSeconds(5));
+        hold.countDown();
+        scheduler.awaitIdle();
+
+        assertEquals(Arrays.asList("busy.mp4", "sooner.mp4", "soon.mp4", "late.mp4", "undated.mp4"), finished);
+    }
+
+    @Test
+    public void perDeviceCapLimitsEachDevice() throws Exception {
+        scheduler = newScheduler(8, 0, DownloadScheduler.Order.SHORTEST_FIRST);
+        CountDownLatch hold = holdBoth();
+        for (int i = 0; i < 3; i++) {
+            submit(deviceA, first, "a" + i + ".mp4", 100_000, null);
+            submit(deviceB, second, "b" + i + ".mp4", 100_000, null);
+        }
+
+        awaitTrue(() -> deviceA.busy.get() == 1 && deviceB.busy.get() == 1);
+        TimeUnit.MILLISECONDS.sleep(100);
+        assertEquals(2, scheduler.getRunning());
+        assertEquals(4, scheduler.getQueued());
+        hold.countDown();
+        scheduler.awaitIdle();
+
+        assertEquals(1, deviceA.maxBusy.get());
+        assertEquals(1, deviceB.maxBusy.get());
+        assertEquals(6, finished.size());
+    }
+
+    @Test
+    public void connectionCapLimitsTheFleet() throws Exception {
+        scheduler = newScheduler(1, 0, DownloadScheduler.Order.SHORTEST_FIRST);
+        CountDownLatch hold = holdBoth();
+        for (int i = 0; i < 3; i++) {
+            submit(deviceA, first, "a" + i + ".mp4", 100_000, null);
+            submit(deviceB, second, "b" + i + ".mp4", 100_000, null);
+        }
+
+        awaitTrue(() -> deviceA.busy.get() + deviceB.busy.get() == 1);
+        TimeUnit.MILLISECONDS.sleep(100);
+        assertEquals(1, deviceA.busy.get() + deviceB.busy.get());
+        assertEquals(1, scheduler.getRunning());
+        hold.countDown();
+        scheduler.awaitIdle();
+
+        assertEquals(1, deviceA.maxBusy.get());
+        assertEquals(1, deviceB.maxBusy.get());
+        assertEquals(6, finished.size());
+    }
+
+    @Test
+    public void cancellingRunningJobFreesItsSlot() throws Exception {
+        scheduler = newScheduler(8, 0, DownloadScheduler.Order.SHORTEST_FIRST);
+        deviceA.hold = new CountDownLatch(1);
+        CompletableFuture<FileResponse> running = submit(deviceA, first, "running.mp4", 100_000, null);
+        awaitTrue(() -> deviceA.busy.get() == 1);
+        CompletableFuture<FileResponse> queued = submit(deviceA, first, "queued.mp4", 100_000, null);
+        assertEquals(1, scheduler.getQueued());
+
+        deviceA.hold = null;
+        assertTrue(running.cancel(true));
+
+        assertEquals(100_000, queued.get(5, TimeUnit.SECONDS).fileSize);
+        scheduler.awaitIdle();
+        assertEquals(0, scheduler.getRunning());
+        assertEquals(Collections.singletonList("queued.mp4"), finished);
+    }
+
+    @Test
+    public void bandwidthBudgetBoundsWallTime() throws Exception {
+        long budget = 1_000_000;
+        scheduler = newScheduler(8, budget, DownloadScheduler.Order.SHORTEST_FIRST);
+        long start = System.nanoTime();
+        submit(deviceA, first, "a.mp4", 600_000, null);
+        submit(deviceB, second, "b.mp4", 600_000, null);
+        scheduler.awaitIdle();
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        // 1.2 MB at 1 MB/s, less the 0.1 s burst the bucket starts with
+        assertTrue("1.2 MB at 1 MB/s took " + elapsed + " ms", elapsed >= 1000);
+        assertTrue("1.2 MB at 1 MB/s took " + elapsed + " ms", elapsed < 5000);
+        assertEquals(2, finished.size());
+        assertEquals(-1, Files.mismatch(first.resolve("a.mp4"), downloads.resolve("a.mp4")));
+        assertEquals(-1, Files.mismatch(second.resolve("b.mp4"), downloads.resolve("b.mp4")));
+    }
+
+    private DownloadScheduler newScheduler(int maxConnections, long bytesPerSecond, DownloadScheduler.Order order) {
+        return new DownloadScheduler(new VideoReceiver(64 * 1024, Duration.ofSeconds(5)), maxConnections, 1,
+                bytesPerSecond, order);
+    }
+
+    private CountDownLatch holdBoth() {
+        CountDownLatch hold = new CountDownLatch(1);
+        deviceA.hold = hold;
+        deviceB.hold = hold;
+        return hold;
+    }
+
+    /**
+     * Write a file to a device's directory and queue its download, recording
+     * its name when it finishes.
+     */
+    private CompletableFuture<FileResponse> submit(FakeVideoDevice device, Path directory, String name, int size,
+                                                   Instant deadline) throws IOException {
+        byte[] content = new byte[size];
+        new Random(size).nextBytes(content);
+        Files.write(directory.resolve(name), content);
+        FileMetadata file = new FileMetadata();
+        file.fileName = name;
+        file.fileSize = size;
+        InetSocketAddress address = device.address();
+        CompletableFuture<FileResponse> result = scheduler.submit(address, file, downloads.resolve(name), deadline);
+        result.thenRun(() -> finished.add(name));
+        return result;
+    }
+
+    private static void awaitTrue(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!condition.getAsBoolean()) {
+            assertTrue("Timed out", System.nanoTime() < deadline);
+            TimeUnit.MILLISECONDS.sleep(5);
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package com.multicam.common;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Loopback device that answers GET_VIDEO with {@link VideoSender}, serving
+ * files from a directory. It can pretend to predate ranged transfers and
+ * drop connections part way through a reply, and can hold replies back to
+ * keep transfers running.
+ */
+final class FakeVideoDevice implements Closeable {
+
+    /** Offset of every GET_VIDEO received, null for a whole-file request */
+    final List<Long> requestedOffsets = new CopyOnWriteArrayList<>();
+
+    /** Bytes written across all connections, headers included */
+    final AtomicLong served = new AtomicLong();
+
+    /** Transfers being served at once, and the most seen */
+    final AtomicInteger busy = new AtomicInteger();
+    final AtomicInteger maxBusy = new AtomicInteger();
+
+    /** Wait for this latch, when set, before replying */
+    volatile CountDownLatch hold;
+
+    /** Send the whole file whatever range is asked for */
+    volatile boolean ignoreRange;
+
+    /** Close each connection after this many bytes, header included */
+    volatile long dropAfter = Long.MAX_VALUE;
+
+    /** Number of connections to drop before serving normally again */
+    final AtomicInteger drops = new AtomicInteger(Integer.MAX_VALUE);
+
+    private final Path directory;
+    private final ServerSocketChannel server;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    FakeVideoDevice(Path directory) throws IOException {
+        this.directory = directory;
+        this.server = ServerSocketChannel.open().bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        executor.execute(this::accept);
+    }
+
+    InetSocketAddress address() throws IOException {
+        return (InetSocketAddress) server.getLocalAddress();
+    }
+
+    @Override
+    public void close() throws IOException {
+        server.close();
+        executor.shutdownNow();
+    }
+
+    private void accept() {
+        try {
+            while (true) {
+                SocketChannel channel = server.accept();
+                executor.execute(() -> serve(channel));
+            }
+        } catch (IOException ignored) {
+            // Closed
+        }
+    }
+
+    private void serve(SocketChannel channel) {
+        try (SocketChannel c = channel) {
+            CommandMessage command = CommandMessage.fromStream(Channels.newInputStream(c));
+            requestedOffsets.add(command.offset);
+            maxBusy.accumulateAndGet(busy.incrementAndGet(), Math::max);
+            try {
+                reply(c, command);
+            } finally {
+                busy.decrementAndGet();
+            }
+        } catch (IOException | InterruptedException ignored) {
+            // Dropped, closed at teardown, or the file or range was refused
+        }
+    }
+
+    private void reply(SocketChannel c, CommandMessage command) throws IOException, InterruptedException {
+        CountDownLatch latch = hold;
+        if (latch != null) {
+            latch.await();
+        }
+        long limit = dropAfter != Long.MAX_VALUE && drops.getAndDecrement() > 0 ? dropAfter : Long.MAX_VALUE;
+        WritableByteChannel out = new LimitedChannel(c, limit);
+        if (ignoreRange) {
+            VideoSender.send(out, "device", directory.resolve(command.fileName));
+        } else {
+            VideoSender.send(out, "device", directory.resolve(command.fileName), command.offset, command.length);
+        }
+    }
+
+    /**
+     * Socket wrapper that fails once its byte budget is spent.
+     */
+    private final class LimitedChannel implements WritableByteChannel {
+        private final SocketChannel channel;
+        private long remaining;
+
+        LimitedChannel(SocketChannel channel, long limit) {
+            this.channel = channel;
+            this.remaining = limit;
+        }
+
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            if (remaining <= 0) {
+                throw new IOException("Dropped");
+            }
+            int limit = src.limit();
+            if (src.remaining() > remaining) {
+                src.limit(src.position() + (int) remaining);
+            }
+            int written = channel.write(src);
+            src.limit(limit);
+            remaining -= written;
+            served.addAndGet(written);
+            return written;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return channel.isOpen();
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package com.multicam.common;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Timing-wheel firing, rescheduling and phase spreading on a 5 ms tick with
+ * a wheel of 8 buckets, so that a revolution lasts 40 ms.
+ */
+public class HeartbeatSchedulerTest {
+
+    private static final Duration TICK = Duration.ofMillis(5);
+    private static final int WHEEL_SIZE = 8;
+
+    private final HeartbeatScheduler scheduler = new HeartbeatScheduler(TICK, WHEEL_SIZE);
+
+    @After
+    public void tearDown() {
+        scheduler.close();
+    }
+
+    @Test
+    public void intervalLongerThanRevolutionFiresOnTime() throws InterruptedException {
+        CountDownLatch runs = new CountDownLatch(5);
+        long start = System.nanoTime();
+        scheduler.schedule(Duration.ofMillis(100), runs::countDown);
+
+        assertTrue("Five runs took too long", runs.await(2, TimeUnit.SECONDS));
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertTrue("Five 100 ms runs after " + elapsed + " ms", elapsed >= 450);
+    }
+
+    @Test
+    public void setIntervalAndCancelFromAnotherThread() throws InterruptedException {
+        CountDownLatch runs = new CountDownLatch(5);
+        AtomicInteger count = new AtomicInteger();
+        HeartbeatScheduler.Task task = scheduler.schedule(Duration.ofMinutes(1), () -> {
+            count.incrementAndGet();
+            runs.countDown();
+        });
+
+        task.setInterval(Duration.ofMillis(20));
+        assertTrue("Shorter interval was not applied", runs.await(1, TimeUnit.SECONDS));
+        assertEquals(Duration.ofMillis(20), task.getInterval());
+
+        int before = count.get();
+        task.cancel();
+        int settled = settle(count);
+        assertTrue("Ran " + (settled - before) + " times after cancel", settled <= before + 1);
+        assertTrue(task.isCancelled());
+        assertEquals(0, scheduler.size());
+    }
+
+    @Test
+    public void setIntervalFromTheWheelThread() throws InterruptedException {
+        CompletableFuture<HeartbeatScheduler.Task> self = new CompletableFuture<>();
+        AtomicInteger count = new AtomicInteger();
+        self.complete(scheduler.schedule(Duration.ofMillis(10), () -> {
+            if (count.incrementAndGet() == 3) {
+                self.join().setInterval(Duration.ofMinutes(1));
+            }
+        }));
+
+        awaitRuns(count, 3);
+        assertEquals(3, settle(count));
+        assertEquals(1, scheduler.size());
+    }
+
+    @Test
+    public void cancelFromTheWheelThread() throws InterruptedException {
+        CompletableFuture<HeartbeatScheduler.Task> self = new CompletableFuture<>();
+        AtomicInteger count = new AtomicInteger();
+        self.complete(scheduler.schedule(Duration.ofMillis(10), () -> {
+            if (count.incrementAndGet() == 2) {
+                self.join().cancel();
+            }
+        }));
+
+        awaitRuns(count, 2);
+        assertEquals(2, settle(count));
+        assertTrue(self.join().isCancelled());
+        assertEquals(0, scheduler.size());
+    }
+
+    @Test
+    public void tasksScheduledTogetherAreSpreadAcrossTheInterval() throws InterruptedException {
+        int tasks = 40;
+        long interval = 400;
+        int windows = 8;
+        List<Long> firstRuns = new ArrayList<>();
+        CountDownLatch all = new CountDownLatch(tasks);
+        long start = System.nanoTime();
+        for (int i = 0; i < tasks; i++) {
+            AtomicInteger runs = new AtomicInteger();
+            scheduler.schedule(Duration.ofMillis(interval), () -> {
+                if (runs.getAndIncrement() == 0) {
+                    synchronized (firstRuns) {
+                        firstRuns.add(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+                    }
+                    all.countDown();
+                }
+            });
+        }
+
+        assertTrue("Not every task ran", all.await(2, TimeUnit.SECONDS));
+        int[] perWindow = new int[windows];
+        synchronized (firstRuns) {
+            for (long at : firstRuns) {
+                perWindow[(int) Math.min(windows - 1, at * windows / interval)]++;
+            }
+        }
+        for (int i = 0; i < windows; i++) {
+            assertTrue("First runs per " + interval / windows + " ms: " + Arrays.toString(perWindow),
+                    perWindow[i] > 0 && perWindow[i] <= 2 * tasks / windows);
+        }
+    }
+
+    /**
+     * Wait up to a second for a run counter to reach a value.
+     */
+    private static void awaitRuns(AtomicInteger count, int expected) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(1);
+        while (count.get() < expected && System.nanoTime() < deadline) {
+            TimeUnit.MILLISECONDS.sleep(5);
+        }
+    }
+
+    /**
+     * Wait until a run counter has stopped moving for several intervals.
+     */
+    private static int settle(AtomicInteger count) throws InterruptedException {
+        int settled;
+        do {
+            settled = count.get();
+            TimeUnit.MILLISECONDS.sleep(100);
+        } while (count.get() != settled);
+        return settled;
+    }
+}
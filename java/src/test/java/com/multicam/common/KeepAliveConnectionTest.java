@@ -0,0 +1,134 @@
+package com.multicam.common;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Multiplexed keep-alive connections against a loopback device that answers
+ * each command on its own thread: LIST_FILES after 300 ms, STOP_RECORDING
+ * never, everything else at once.
+ */
+public class KeepAliveConnectionTest {
+
+    private ServerSocket server;
+    private ExecutorService device;
+    private MultiCamClient client;
+    private KeepAliveConnection connection;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        device = Executors.newCachedThreadPool();
+        device.execute(this::serve);
+        client = new MultiCamClient(Duration.ofSeconds(1));
+        connection = client.multiplex(new InetSocketAddress(server.getInetAddress(), server.getLocalPort()),
+                WireFormat.JSON);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        connection.close();
+        client.close();
+        server.close();
+        device.shutdownNow();
+    }
+
+    @Test
+    public void repliesAreMatchedByRequestId() {
+        CompletableFuture<DecodedResponse> list = connection.exchange(CommandMessage.listFiles());
+        StatusResponse heartbeat = connection.send(CommandMessage.heartbeat()).join();
+
+        assertEquals("ready", heartbeat.status);
+        assertFalse("HEARTBEAT waited for LIST_FILES", list.isDone());
+        assertEquals(DecodedResponse.Kind.LIST_FILES, list.join().getKind());
+    }
+
+    @Test
+    public void timeoutFailsOnlyThatRequest() {
+        CompletableFuture<StatusResponse> stop = connection.send(CommandMessage.stopRecording());
+        try {
+            stop.join();
+            fail("STOP_RECORDING was never answered");
+        } catch (CompletionException e) {
+            assertTrue(e.getCause() instanceof TimeoutException);
+        }
+
+        assertTrue(connection.isOpen());
+        assertEquals(0, connection.inFlight());
+        assertEquals("ready", connection.send(CommandMessage.heartbeat()).join().status);
+    }
+
+    @Test
+    public void cancelledRequestIsForgotten() throws Exception {
+        CompletableFuture<StatusResponse> stop = connection.send(CommandMessage.stopRecording());
+        connection.send(CommandMessage.heartbeat()).join();
+        assertEquals(1, connection.inFlight());
+
+        stop.cancel(false);
+
+        assertEquals(0, connection.inFlight());
+        TimeUnit.MILLISECONDS.sleep(1200);
+        assertTrue("Cancelled request's deadline closed the connection", connection.isOpen());
+    }
+
+    private void serve() {
+        try (Socket socket = server.accept()) {
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            OutputStream out = socket.getOutputStream();
+            byte[] frame;
+            while ((frame = Framing.readFrame(in)) != null) {
+                CommandMessage command = WireFormat.JSON.readCommand(ByteBuffer.wrap(frame));
+                if (command.command == CommandType.STOP_RECORDING) {
+                    continue;
+                }
+                device.execute(() -> reply(out, command));
+            }
+        } catch (IOException ignored) {
+            // Closed at teardown
+        }
+    }
+
+    private static void reply(OutputStream out, CommandMessage command) {
+        try {
+            String json;
+            if (command.command == CommandType.LIST_FILES) {
+                TimeUnit.MILLISECONDS.sleep(300);
+                FileTypes.ListFilesResponse reply = new FileTypes.ListFilesResponse("device", "ready", 1.0, null);
+                reply.requestId = command.requestId;
+                json = reply.toJson();
+            } else {
+                StatusResponse reply = new StatusResponse("device", "ready", 1.0);
+                reply.requestId = command.requestId;
+                json = reply.toJson();
+            }
+            synchronized (out) {
+                Framing.writeFrame(out, json.getBytes(StandardCharsets.UTF_8));
+            }
+        } catch (IOException | InterruptedException ignored) {
+            // Closed at teardown
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package com.multicam.common;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Single-flight coalescing against a loopback device that answers each
+ * command on its own connection after 200 ms and counts its connections.
+ */
+public class RequestCoalescerTest {
+
+    private final AtomicInteger accepted = new AtomicInteger();
+
+    private ServerSocket server;
+    private ExecutorService executor;
+    private MultiCamClient client;
+    private InetSocketAddress device;
+    private RequestCoalescer coalescer;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        executor = Executors.newCachedThreadPool();
+        executor.execute(this::accept);
+        client = new MultiCamClient(Duration.ofSeconds(2));
+        device = new InetSocketAddress(server.getInetAddress(), server.getLocalPort());
+        coalescer = new RequestCoalescer(client);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        client.close();
+        server.close();
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void concurrentSendsShareOneConnection() {
+        List<CompletableFuture<StatusResponse>> replies = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            replies.add(coalescer.send(device, CommandMessage.deviceStatus()));
+        }
+
+        StatusResponse first = replies.get(0).join();
+        for (CompletableFuture<StatusResponse> reply : replies) {
+            assertSame(first, reply.join());
+        }
+        assertEquals(1, accepted.get());
+        assertEquals(10, coalescer.getRequests());
+        assertEquals(9, coalescer.getCoalesced());
+    }
+
+    @Test
+    public void differentFileNameOpensNewConnection() {
+        CompletableFuture<StatusResponse> first = coalescer.send(device, listFiles("a.mp4"));
+        CompletableFuture<StatusResponse> same = coalescer.send(device, listFiles("a.mp4"));
+        CompletableFuture<StatusResponse> other = coalescer.send(device, listFiles("b.mp4"));
+
+        assertSame(first.join(), same.join());
+        assertEquals("ready", other.join().status);
+        assertEquals(2, accepted.get());
+    }
+
+    @Test
+    public void completedFlightIsNotShared() {
+        StatusResponse first = coalescer.send(device, CommandMessage.deviceStatus()).join();
+        StatusResponse second = coalescer.send(device, CommandMessage.deviceStatus()).join();
+
+        assertNotSame(first, second);
+        assertEquals(2, accepted.get());
+        assertEquals(0, coalescer.getCoalesced());
+    }
+
+    @Test
+    public void cancellingOneCallerLeavesTheOthers() {
+        CompletableFuture<StatusResponse> cancelled = coalescer.send(device, CommandMessage.deviceStatus());
+        CompletableFuture<StatusResponse> second = coalescer.send(device, CommandMessage.deviceStatus());
+        CompletableFuture<StatusResponse> third = coalescer.send(device, CommandMessage.deviceStatus());
+
+        assertTrue(cancelled.cancel(true));
+
+        assertEquals("ready", second.join().status);
+        assertSame(second.join(), third.join());
+        assertTrue(cancelled.isCancelled());
+        assertEquals(1, accepted.get());
+    }
+
+    private static CommandMessage listFiles(String fileName) {
+        return new CommandMessage(CommandType.LIST_FILES, System.currentTimeMillis() / 1000.0, "controller", fileName);
+    }
+
+    private void accept() {
+        try {
+            while (true) {
+                Socket socket = server.accept();
+                accepted.incrementAndGet();
+                executor.execute(() -> serve(socket));
+            }
+        } catch (IOException ignored) {
+            // Closed at teardown
+        }
+    }
+
+    private static void serve(Socket socket) {
+        try (Socket s = socket) {
+            CommandMessage.fromStream(s.getInputStream());
+            TimeUnit.MILLISECONDS.sleep(200);
+            OutputStream out = s.getOutputStream();
+            out.write(new StatusResponse("device", "ready", 1.0).toJson().getBytes(StandardCharsets.UTF_8));
+            out.flush();
+        } catch (IOException | InterruptedException ignored) {
+            // Closed by the client or at teardown
+        }
+    }
+}
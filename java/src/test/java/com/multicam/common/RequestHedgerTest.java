@@ -0,0 +1,158 @@
+package com.multicam.common;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Hedged requests against a loopback device that answers each command on
+ * its own connection, and can stall or drop the next few connections.
+ */
+public class RequestHedgerTest {
+
+    private final AtomicInteger stalls = new AtomicInteger();
+    private final AtomicInteger drops = new AtomicInteger();
+    private volatile long delayMillis;
+
+    private ServerSocket server;
+    private ExecutorService executor;
+    private MultiCamClient client;
+    private InetSocketAddress device;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new ServerSocket(0, 100, InetAddress.getLoopbackAddress());
+        executor = Executors.newCachedThreadPool();
+        executor.execute(this::accept);
+        client = new MultiCamClient(Duration.ofSeconds(5));
+        device = new InetSocketAddress(server.getInetAddress(), server.getLocalPort());
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        client.close();
+        server.close();
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void hedgeWinsAgainstStalledPrimary() throws Exception {
+        RequestHedger hedger = new RequestHedger(client, RequestHedger.DEFAULT_PERCENTILE, 1.0);
+        warmUp(hedger);
+        stalls.set(1);
+
+        long start = System.nanoTime();
+        assertEquals("ready", hedger.send(device, CommandMessage.deviceStatus()).get(2, TimeUnit.SECONDS).status);
+
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertTrue("Hedged reply took " + elapsed + " ms", elapsed < 1000);
+        assertEquals(1, hedger.getStats().getHedges());
+        assertEquals(1, hedger.getStats().getHedgeWins());
+    }
+
+    @Test
+    public void deniedHedgeStillFailsWithPrimary() throws Exception {
+        RequestHedger hedger = new RequestHedger(client, RequestHedger.DEFAULT_PERCENTILE, 0.0);
+        warmUp(hedger);
+        drops.set(1);
+
+        try {
+            hedger.send(device, CommandMessage.deviceStatus()).get(2, TimeUnit.SECONDS);
+            fail("Device closed the only attempt without replying");
+        } catch (ExecutionException expected) {
+            // Failed with the primary, not left pending
+        }
+        assertEquals(0, hedger.getStats().getHedges());
+        assertEquals(1, hedger.getStats().getDenied());
+    }
+
+    @Test
+    public void budgetCapsHedges() throws Exception {
+        double budget = 0.1;
+        RequestHedger hedger = new RequestHedger(client, RequestHedger.DEFAULT_PERCENTILE, budget);
+        warmUp(hedger);
+        delayMillis = 100;
+
+        List<CompletableFuture<StatusResponse>> replies = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            replies.add(hedger.send(device, CommandMessage.deviceStatus()));
+        }
+        for (CompletableFuture<StatusResponse> reply : replies) {
+            assertEquals("ready", reply.get(2, TimeUnit.SECONDS).status);
+        }
+
+        RequestHedger.Stats stats = hedger.getStats();
+        assertEquals(RttTracker.MIN_SAMPLES + 40, stats.getRequests());
+        assertTrue(stats.toString(), stats.getHedges() > 0);
+        assertTrue(stats.toString(), stats.getHedges() <= budget * stats.getRequests());
+        assertEquals(stats.toString(), 40, stats.getHedges() + stats.getDenied());
+    }
+
+    /**
+     * Send enough fast requests through the hedger for the device's round
+     * trips to be tracked, leaving out the first, slow ones of a fresh JVM.
+     */
+    private void warmUp(RequestHedger hedger) {
+        for (int i = 0; i < RttTracker.MIN_SAMPLES; i++) {
+            client.send(device, CommandMessage.heartbeat()).join();
+        }
+        client.getRttTracker().forget(device);
+        for (int i = 0; i < RttTracker.MIN_SAMPLES; i++) {
+            assertEquals("ready", hedger.send(device, CommandMessage.heartbeat()).join().status);
+        }
+    }
+
+    private void accept() {
+        try {
+            while (true) {
+                Socket socket = server.accept();
+                // Decided here, in connection order, so a hedge cannot take the primary's turn
+                boolean stall = stalls.getAndUpdate(n -> Math.max(0, n - 1)) > 0;
+                boolean drop = !stall && drops.getAndUpdate(n -> Math.max(0, n - 1)) > 0;
+                executor.execute(() -> serve(socket, stall, drop));
+            }
+        } catch (IOException ignored) {
+            // Closed at teardown
+        }
+    }
+
+    private void serve(Socket socket, boolean stall, boolean drop) {
+        try (Socket s = socket) {
+            CommandMessage.fromStream(s.getInputStream());
+            if (stall) {
+                TimeUnit.MINUTES.sleep(1);
+                return;
+            }
+            if (drop) {
+                TimeUnit.MILLISECONDS.sleep(500);
+                return;
+            }
+            TimeUnit.MILLISECONDS.sleep(delayMillis);
+            OutputStream out = s.getOutputStream();
+            out.write(new StatusResponse("device", "ready", 1.0).toJson().getBytes(StandardCharsets.UTF_8));
+            out.flush();
+        } catch (IOException | InterruptedException ignored) {
+            // Closed by the client or at teardown
+        }
+    }
+}
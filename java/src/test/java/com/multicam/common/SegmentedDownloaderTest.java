@@ -0,0 +1,95 @@
+package com.multicam.common;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Random;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Segmented downloads from a loopback device.
+ */
+public class SegmentedDownloaderTest {
+
+    private static final int FILE_SIZE = 5 * 1024 * 1024;
+    private static final long SEGMENT_SIZE = 1024 * 1024;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path source;
+    private Path target;
+    private FakeVideoDevice device;
+    private SegmentedDownloader downloader;
+
+    @Before
+    public void setUp() throws IOException {
+        Path videos = folder.newFolder("device").toPath();
+        source = videos.resolve("video.mp4");
+        byte[] content = new byte[FILE_SIZE];
+        new Random(1).nextBytes(content);
+        Files.write(source, content);
+        target = folder.getRoot().toPath().resolve("video.mp4");
+        device = new FakeVideoDevice(videos);
+        downloader = new SegmentedDownloader(new VideoReceiver(64 * 1024, Duration.ofSeconds(5)), 4, SEGMENT_SIZE);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        device.close();
+    }
+
+    @Test
+    public void downloadsEverySegment() throws IOException {
+        SegmentedDownloader.Result result = downloader.download(device.address(), "video.mp4", target);
+
+        assertEquals(FILE_SIZE, result.getHeader().fileSize);
+        assertEquals(FILE_SIZE / SEGMENT_SIZE, result.getRequests());
+        assertEquals(0, result.getRetries());
+        assertEquals(-1, Files.mismatch(source, target));
+    }
+
+    @Test
+    public void droppedSegmentsResumeFromLastByte() throws IOException {
+        device.drops.set(2);
+        device.dropAfter = 300_000;
+
+        SegmentedDownloader.Result result = downloader.download(device.address(), "video.mp4", target);
+
+        assertEquals(2, result.getRetries());
+        assertEquals(FILE_SIZE / SEGMENT_SIZE + 2, result.getRequests());
+        assertEquals(-1, Files.mismatch(source, target));
+    }
+
+    @Test
+    public void legacyDeviceSendsWholeFileOnce() throws IOException {
+        device.ignoreRange = true;
+
+        SegmentedDownloader.Result result = downloader.download(device.address(), "video.mp4", target);
+
+        assertNull(result.getHeader().offset);
+        assertEquals(1, result.getRequests());
+        assertEquals(-1, Files.mismatch(source, target));
+    }
+
+    @Test
+    public void missingFileFailsWithoutRetrying() throws IOException {
+        try {
+            downloader.download(device.address(), "missing.mp4", target);
+            fail("Device does not have the file");
+        } catch (FileNotFoundException expected) {
+            // Reported as documented
+        }
+        assertEquals(1, device.requestedOffsets.size());
+    }
+}
@@ -0,0 +1,168 @@
+package com.multicam.common;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Arm and fire against loopback devices that accept the schedule, refuse it
+ * as unsynchronized, refuse the connection, or never finish connecting.
+ */
+public class SyncStartBroadcasterTest {
+
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final Map<InetSocketAddress, Double> stamped = new ConcurrentHashMap<>();
+    private final List<ServerSocket> servers = new ArrayList<>();
+    private final List<Socket> backlog = new ArrayList<>();
+    private final MultiCamClient client = new MultiCamClient(Duration.ofSeconds(5));
+
+    @After
+    public void tearDown() throws IOException {
+        client.close();
+        for (Socket socket : backlog) {
+            socket.close();
+        }
+        for (ServerSocket server : servers) {
+            server.close();
+        }
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void everyDeviceGetsTheSameTimestamp() throws Exception {
+        List<InetSocketAddress> devices = new ArrayList<>();
+        devices.add(startDevice("scheduled_recording_accepted"));
+        devices.add(startDevice("time_not_synchronized"));
+        devices.add(startDevice("scheduled_recording_accepted"));
+        devices.add(refusingDevice());
+        devices.add(startDevice("time_not_synchronized"));
+        devices.add(startDevice("scheduled_recording_accepted"));
+
+        SyncStartBroadcaster broadcast = SyncStartBroadcaster.arm(client, devices);
+        broadcast.ready().get(2, TimeUnit.SECONDS);
+        assertEquals(5, broadcast.armedCount());
+        SyncStartBroadcaster.Report report = broadcast.fire(Duration.ofSeconds(1)).get(2, TimeUnit.SECONDS);
+
+        assertEquals(3, report.getAcceptedCount());
+        assertFalse(report.allAccepted());
+        assertEquals(devices, new ArrayList<>(report.getResults().keySet()));
+        assertEquals(5, stamped.size());
+        for (double timestamp : stamped.values()) {
+            assertEquals(report.getSyncTimestamp(), timestamp, 1e-6);
+        }
+        SyncStartBroadcaster.Result unsynchronized = report.getResults().get(devices.get(1));
+        assertEquals(DeviceStatus.TIME_NOT_SYNCHRONIZED, unsynchronized.getDeviceStatus());
+        assertNotNull(unsynchronized.getDispatchSkew());
+        SyncStartBroadcaster.Result refused = report.getResults().get(devices.get(3));
+        assertNull(refused.getDispatchSkew());
+        assertNotNull(refused.getError());
+    }
+
+    @Test
+    public void unarmedDeviceDoesNotHoldTheReport() throws Exception {
+        List<InetSocketAddress> devices = new ArrayList<>();
+        devices.add(startDevice("scheduled_recording_accepted"));
+        devices.add(stalledDevice());
+        devices.add(startDevice("scheduled_recording_accepted"));
+
+        SyncStartBroadcaster broadcast = SyncStartBroadcaster.arm(client, devices);
+        awaitArmed(broadcast, 2);
+        long start = System.nanoTime();
+        SyncStartBroadcaster.Report report = broadcast.fire(Duration.ofSeconds(1)).get(2, TimeUnit.SECONDS);
+
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertTrue("Report took " + elapsed + " ms", elapsed < 1000);
+        assertEquals(2, report.getAcceptedCount());
+        SyncStartBroadcaster.Result unarmed = report.getResults().get(devices.get(1));
+        assertNull(unarmed.getDispatchSkew());
+        assertNotNull(unarmed.getError());
+    }
+
+    private static void awaitArmed(SyncStartBroadcaster broadcast, int count) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(2);
+        while (broadcast.armedCount() < count && System.nanoTime() < deadline) {
+            TimeUnit.MILLISECONDS.sleep(5);
+        }
+        assertEquals(count, broadcast.armedCount());
+    }
+
+    private InetSocketAddress startDevice(String status) throws IOException {
+        ServerSocket server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        servers.add(server);
+        InetSocketAddress address = new InetSocketAddress(server.getInetAddress(), server.getLocalPort());
+        executor.execute(() -> {
+            try {
+                while (true) {
+                    Socket socket = server.accept();
+                    executor.execute(() -> serve(socket, address, status));
+                }
+            } catch (IOException ignored) {
+                // Closed at teardown
+            }
+        });
+        return address;
+    }
+
+    private void serve(Socket socket, InetSocketAddress address, String status) {
+        try (Socket s = socket) {
+            CommandMessage command = CommandMessage.fromStream(s.getInputStream());
+            stamped.put(address, command.timestamp);
+            OutputStream out = s.getOutputStream();
+            out.write(new StatusResponse("device", status, 1.0).toJson().getBytes(StandardCharsets.UTF_8));
+            out.flush();
+        } catch (IOException ignored) {
+            // Closed by the client or at teardown
+        }
+    }
+
+    /**
+     * Get the address of a port nothing listens on.
+     */
+    private static InetSocketAddress refusingDevice() throws IOException {
+        try (ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            return new InetSocketAddress(server.getInetAddress(), server.getLocalPort());
+        }
+    }
+
+    /**
+     * Get the address of a device whose accept queue is full, so that new
+     * connections stay pending.
+     */
+    private InetSocketAddress stalledDevice() throws IOException {
+        ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+        servers.add(server);
+        InetSocketAddress address = new InetSocketAddress(server.getInetAddress(), server.getLocalPort());
+        for (int i = 0; i < 10; i++) {
+            Socket socket = new Socket();
+            try {
+                socket.connect(address, 200);
+                backlog.add(socket);
+            } catch (SocketTimeoutException full) {
+                socket.close();
+                return address;
+            }
+        }
+        throw new IllegalStateException("Accept queue never filled");
+    }
+}
@@ -0,0 +1,52 @@
+package com.multicam.common;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import org.junit.Test;
+
+/**
+ * Decoding of malformed UTF-8 in JSON messages, from buffers and streams.
+ */
+public class Utf8StreamsTest {
+
+    @Test
+    public void truncatedSequenceBeforeQuoteDecodesToReplacement() throws IOException {
+        assertDeviceId("cam\uFFFD", 0xC3);
+    }
+
+    @Test
+    public void truncatedFourByteSequenceDecodesToReplacement() throws IOException {
+        assertDeviceId("cam\uFFFD", 0xF0, 0x9F, 0x8E);
+    }
+
+    @Test
+    public void byteAfterTruncatedSequenceIsKept() throws IOException {
+        assertDeviceId("cam\uFFFDA\u00E9", 0xE2, 0x82, 'A', 0xC3, 0xA9);
+    }
+
+    @Test
+    public void validSequencesAreDecoded() throws IOException {
+        assertDeviceId("cam\u00E9\u20AC\uD83C\uDFA5", 0xC3, 0xA9, 0xE2, 0x82, 0xAC, 0xF0, 0x9F, 0x8E, 0xA5);
+    }
+
+    /**
+     * Parse a HEARTBEAT whose deviceId is "cam" followed by the given bytes.
+     */
+    private static void assertDeviceId(String expected, int... suffix) throws IOException {
+        ByteArrayOutputStream json = new ByteArrayOutputStream();
+        json.write("{\"command\":\"HEARTBEAT\",\"timestamp\":1.0,\"deviceId\":\"cam".getBytes(StandardCharsets.UTF_8));
+        for (int b : suffix) {
+            json.write(b);
+        }
+        json.write("\"}".getBytes(StandardCharsets.UTF_8));
+        byte[] bytes = json.toByteArray();
+
+        assertEquals(expected, CommandMessage.fromBuffer(ByteBuffer.wrap(bytes)).deviceId);
+        assertEquals(expected, CommandMessage.fromStream(new ByteArrayInputStream(bytes)).deviceId);
+    }
+}
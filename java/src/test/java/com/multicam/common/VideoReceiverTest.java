@@ -0,0 +1,176 @@
+package com.multicam.common;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.multicam.common.FileTypes.FileResponse;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Whole-file, ranged and resumed GET_VIDEO downloads from a loopback device.
+ */
+public class VideoReceiverTest {
+
+    private static final int FILE_SIZE = 3 * 1024 * 1024;
+    private static final long CHECKPOINT_INTERVAL = 256 * 1024;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path source;
+    private Path target;
+    private Path progress;
+    private FakeVideoDevice device;
+    private VideoReceiver receiver;
+
+    @Before
+    public void setUp() throws IOException {
+        Path videos = folder.newFolder("device").toPath();
+        source = videos.resolve("video.mp4");
+        Files.write(source, randomBytes(FILE_SIZE, 1));
+        target = folder.getRoot().toPath().resolve("video.mp4");
+        progress = target.resolveSibling("video.mp4" + VideoReceiver.PROGRESS_SUFFIX);
+        device = new FakeVideoDevice(videos);
+        receiver = new VideoReceiver(64 * 1024, Duration.ofSeconds(5), CHECKPOINT_INTERVAL);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        device.close();
+    }
+
+    @Test
+    public void downloadWritesWholeFile() throws IOException {
+        FileResponse header = receiver.download(device.address(), "video.mp4", target);
+
+        assertEquals(FILE_SIZE, header.fileSize);
+        assertSameContent(source, target);
+    }
+
+    @Test
+    public void rangedDownloadFillsItsPart() throws IOException {
+        FileResponse header = receiver.download(device.address(), CommandMessage.getVideo("video.mp4", 1000, 5000L),
+                target);
+
+        assertEquals(Long.valueOf(1000), header.offset);
+        assertEquals(Long.valueOf(5000), header.length);
+        byte[] expected = Arrays.copyOfRange(Files.readAllBytes(source), 1000, 6000);
+        assertArrayEquals(expected, Arrays.copyOfRange(Files.readAllBytes(target), 1000, 6000));
+    }
+
+    @Test
+    public void resumeContinuesFromCheckpoint() throws IOException {
+        dropOnce(FILE_SIZE / 2);
+        long saved = interruptedResume();
+        assertTrue("Nothing was checkpointed", saved > 0);
+
+        receiver.resume(device.address(), "video.mp4", target);
+
+        assertEquals(Arrays.asList(null, saved), device.requestedOffsets);
+        assertSameContent(source, target);
+        assertFalse(Files.exists(progress));
+    }
+
+    @Test
+    public void legacyDeviceResendsWholeFile() throws IOException {
+        dropOnce(FILE_SIZE / 2);
+        interruptedResume();
+        device.ignoreRange = true;
+
+        FileResponse header = receiver.resume(device.address(), "video.mp4", target);
+
+        assertNull(header.offset);
+        assertSameContent(source, target);
+        assertFalse(Files.exists(progress));
+    }
+
+    @Test
+    public void grownFileRestarts() throws IOException {
+        dropOnce(FILE_SIZE / 2);
+        long saved = interruptedResume();
+        Files.write(source, randomBytes(FILE_SIZE + 4096, 2));
+
+        receiver.resume(device.address(), "video.mp4", target);
+
+        assertEquals(Arrays.asList(null, saved, null), device.requestedOffsets);
+        assertSameContent(source, target);
+    }
+
+    @Test
+    public void fileShrunkBelowCheckpointRestarts() throws IOException {
+        dropOnce(FILE_SIZE - 4096);
+        long saved = interruptedResume();
+        Files.write(source, randomBytes(1024 * 1024, 3));
+
+        receiver.resume(device.address(), "video.mp4", target);
+
+        assertEquals(Arrays.asList(null, saved, null), device.requestedOffsets);
+        assertSameContent(source, target);
+        assertFalse(Files.exists(progress));
+    }
+
+    @Test
+    public void corruptProgressFileIsIgnored() throws IOException {
+        Files.write(target, new byte[FILE_SIZE]);
+        Files.write(progress, new byte[] {1, 2, 3});
+
+        receiver.resume(device.address(), "video.mp4", target);
+
+        assertEquals(Arrays.asList((Long) null), device.requestedOffsets);
+        assertSameContent(source, target);
+    }
+
+    @Test(expected = FileNotFoundException.class)
+    public void missingFileIsReported() throws IOException {
+        receiver.resume(device.address(), "missing.mp4", target);
+    }
+
+    private void dropOnce(long bytes) {
+        device.drops.set(1);
+        device.dropAfter = bytes;
+    }
+
+    /**
+     * Run a resume that the device drops, and return the checkpointed position.
+     */
+    private long interruptedResume() throws IOException {
+        try {
+            receiver.resume(device.address(), "video.mp4", target);
+            fail("Device should have dropped the transfer");
+        } catch (IOException expected) {
+            // Dropped part way
+        }
+        ByteBuffer record = ByteBuffer.wrap(Files.readAllBytes(progress));
+        assertEquals(20, record.remaining());
+        record.getInt();
+        long position = record.getLong();
+        assertEquals(FILE_SIZE, record.getLong());
+        return position;
+    }
+
+    private static void assertSameContent(Path expected, Path actual) throws IOException {
+        assertEquals(-1, Files.mismatch(expected, actual));
+    }
+
+    private static byte[] randomBytes(int size, long seed) {
+        byte[] bytes = new byte[size];
+        new Random(seed).nextBytes(bytes);
+        return bytes;
+    }
+}
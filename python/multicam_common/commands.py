@@ -35,6 +35,16 @@ class CommandType(str, Enum):
     UPLOAD_TO_CLOUD = "UPLOAD_TO_CLOUD"
     """Upload video file to cloud using presigned S3 URL"""
 
+    @property
+    def is_idempotent(self) -> bool:
+        """
+        Whether the command only reads device state, so sending it twice has
+        no effect beyond a second reply. Such commands may be retried or
+        hedged freely.
+        """
+        return self in (CommandType.DEVICE_STATUS, CommandType.HEARTBEAT,
+                        CommandType.LIST_FILES)
+
 
 @dataclass
 class CommandMessage:
@@ -77,6 +87,15 @@ class CommandMessage:
     awsRegion: Optional[str] = None
     """AWS region (required for UPLOAD_TO_CLOUD command with IAM credentials auth)"""
 
+    requestId: Optional[int] = None
+    """Correlation ID echoed in the reply, null if replies are matched by order"""
+
+    offset: Optional[int] = None
+    """First byte of the file to send (GET_VIDEO only), null for the start of the file"""
+
+    length: Optional[int] = None
+    """Number of bytes to send (GET_VIDEO only), null for the rest of the file"""
+
     def to_json(self) -> str:
         """
         Serialize command to JSON string.
@@ -96,6 +115,9 @@ class CommandMessage:
             "awsSecretAccessKey": self.awsSecretAccessKey,
             "awsSessionToken": self.awsSessionToken,
             "awsRegion": self.awsRegion,
+            "requestId": self.requestId,
+            "offset": self.offset,
+            "length": self.length,
         }
         return json.dumps(data)
 
@@ -132,6 +154,9 @@ class CommandMessage:
             awsSecretAccessKey=data.get('awsSecretAccessKey'),
             awsSessionToken=data.get('awsSessionToken'),
             awsRegion=data.get('awsRegion'),
+            requestId=data.get('requestId'),
+            offset=data.get('offset'),
+            length=data.get('length'),
         )
 
     @classmethod
@@ -205,6 +230,37 @@ class CommandMessage:
             fileName=file_name,
         )
 
+    @classmethod
+    def get_video_range(cls, file_name: str, offset: int, length: Optional[int] = None,
+                        device_id: str = "controller") -> 'CommandMessage':
+        """
+        Create a GET_VIDEO command for a byte range of a file.
+
+        Devices that support ranges echo the served range in the FileResponse
+        header; older devices ignore the range and send the whole file.
+
+        Args:
+            file_name: File name to download
+            offset: First byte to send
+            length: Number of bytes to send (None for the rest of the file)
+            device_id: ID of the sending device
+
+        Returns:
+            CommandMessage instance
+        """
+        if offset < 0:
+            raise ValueError(f"Offset must not be negative: {offset}")
+        if length is not None and length < 0:
+            raise ValueError(f"Length must not be negative: {length}")
+        return cls(
+            command=CommandType.GET_VIDEO,
+            timestamp=time.time(),
+            deviceId=device_id,
+            fileName=file_name,
+            offset=offset,
+            length=length,
+        )
+
     @classmethod
     def heartbeat(cls, device_id: str = "controller") -> 'CommandMessage':
         """
@@ -330,6 +386,12 @@ class StatusResponse:
     failedUploadQueue: List['UploadItem'] = field(default_factory=list)
     """Failed upload queue"""
 
+    capabilities: Optional[List[str]] = None
+    """Optional protocol features supported by the device, null if not advertised"""
+
+    requestId: Optional[int] = None
+    """Correlation ID echoed from the command, null if the command carried none"""
+
     @classmethod
     def from_json(cls, json_str: str) -> 'StatusResponse':
         """
@@ -353,6 +415,8 @@ class StatusResponse:
             deviceType=data.get('deviceType'),
             uploadQueue=upload_queue,
             failedUploadQueue=failed_upload_queue,
+            capabilities=data.get('capabilities'),
+            requestId=data.get('requestId'),
         )
 
     def to_json(self) -> str:
@@ -370,6 +434,8 @@ class StatusResponse:
             'deviceType': self.deviceType,
             'uploadQueue': [asdict(item) for item in self.uploadQueue],
             'failedUploadQueue': [asdict(item) for item in self.failedUploadQueue],
+            'capabilities': self.capabilities,
+            'requestId': self.requestId,
         }
         return json.dumps(data)
 
@@ -395,6 +461,9 @@ class StopRecordingResponse:
     fileSize: int
     """File size in bytes"""
 
+    requestId: Optional[int] = None
+    """Correlation ID echoed from the command, null if the command carried none"""
+
     @classmethod
     def from_json(cls, json_str: str) -> 'StopRecordingResponse':
         """
@@ -413,6 +482,7 @@ class StopRecordingResponse:
             timestamp=data['timestamp'],
             fileName=data['fileName'],
             fileSize=data['fileSize'],
+            requestId=data.get('requestId'),
         )
 
     def to_json(self) -> str:
@@ -443,6 +513,9 @@ class ErrorResponse:
     message: str
     """Human-readable error message"""
 
+    requestId: Optional[int] = None
+    """Correlation ID echoed from the command, null if the command carried none"""
+
     @classmethod
     def from_json(cls, json_str: str) -> 'ErrorResponse':
         """
@@ -460,6 +533,7 @@ class ErrorResponse:
             status=data['status'],
             timestamp=data['timestamp'],
             message=data['message'],
+            requestId=data.get('requestId'),
         )
 
     def to_json(self) -> str:
@@ -534,6 +608,19 @@ class FileResponse:
     status: str
     """Status (typically 'ready')"""
 
+    offset: Optional[int] = None
+    """First byte of the file carried by the payload, None if the payload is the whole file"""
+
+    length: Optional[int] = None
+    """Number of payload bytes, None if the payload is the whole file"""
+
+    @property
+    def payload_size(self) -> int:
+        """Number of payload bytes that follow the header"""
+        if self.length is not None:
+            return self.length
+        return self.fileSize - (self.offset or 0)
+
     @classmethod
     def from_json(cls, json_str: str) -> 'FileResponse':
         """
@@ -551,6 +638,8 @@ class FileResponse:
             fileName=data['fileName'],
             fileSize=data['fileSize'],
             status=data['status'],
+            offset=data.get('offset'),
+            length=data.get('length'),
         )
 
     def to_json(self) -> str:
@@ -583,6 +672,9 @@ class ListFilesResponse:
     files: List[FileMetadata] = field(default_factory=list)
     """List of available files"""
 
+    requestId: Optional[int] = None
+    """Correlation ID echoed from the command, null if the command carried none"""
+
     @classmethod
     def from_json(cls, json_str: str) -> 'ListFilesResponse':
         """
@@ -601,6 +693,7 @@ class ListFilesResponse:
             status=data['status'],
             timestamp=data['timestamp'],
             files=files,
+            requestId=data.get('requestId'),
         )
 
     def to_json(self) -> str:
@@ -615,6 +708,7 @@ class ListFilesResponse:
             'status': self.status,
             'timestamp': self.timestamp,
             'files': [asdict(f) for f in self.files],
+            'requestId': self.requestId,
         }
         return json.dumps(data)
 
@@ -37,6 +37,15 @@ public struct CommandMessage: Codable {
     /// AWS region (required for UPLOAD_TO_CLOUD command with IAM credentials auth)
     public let awsRegion: String?
 
+    /// Correlation ID echoed in the reply, nil if replies are matched by order
+    public let requestId: Int64?
+
+    /// First byte of the file to send (GET_VIDEO only), nil for the start of the file
+    public let offset: Int64?
+
+    /// Number of bytes to send (GET_VIDEO only), nil for the rest of the file
+    public let length: Int64?
+
     public init(
         command: CommandType,
         timestamp: TimeInterval,
@@ -48,7 +57,10 @@ public struct CommandMessage: Codable {
         awsAccessKeyId: String? = nil,
         awsSecretAccessKey: String? = nil,
         awsSessionToken: String? = nil,
-        awsRegion: String? = nil
+        awsRegion: String? = nil,
+        requestId: Int64? = nil,
+        offset: Int64? = nil,
+        length: Int64? = nil
     ) {
         self.command = command
         self.timestamp = timestamp
@@ -61,6 +73,9 @@ public struct CommandMessage: Codable {
         self.awsSecretAccessKey = awsSecretAccessKey
         self.awsSessionToken = awsSessionToken
         self.awsRegion = awsRegion
+        self.requestId = requestId
+        self.offset = offset
+        self.length = length
     }
 
     // MARK: - Factory Methods
@@ -117,6 +132,34 @@ public struct CommandMessage: Codable {
         )
     }
 
+    /// Create a GET_VIDEO command for a byte range of a file
+    ///
+    /// Devices that support ranges echo the served range in the FileResponse
+    /// header; older devices ignore the range and send the whole file.
+    /// - Parameters:
+    ///   - fileName: File name to download
+    ///   - offset: First byte to send
+    ///   - length: Number of bytes to send (nil for the rest of the file)
+    ///   - deviceId: ID of the sending device
+    /// - Returns: CommandMessage instance
+    public static func getVideo(
+        fileName: String,
+        offset: Int64,
+        length: Int64? = nil,
+        deviceId: String = "controller"
+    ) -> CommandMessage {
+        precondition(offset >= 0, "Offset must not be negative")
+        precondition(length.map { $0 >= 0 } ?? true, "Length must not be negative")
+        return CommandMessage(
+            command: .getVideo,
+            timestamp: Date().timeIntervalSince1970,
+            deviceId: deviceId,
+            fileName: fileName,
+            offset: offset,
+            length: length
+        )
+    }
+
     /// Create a HEARTBEAT command
     /// - Parameter deviceId: ID of the sending device
     /// - Returns: CommandMessage instance
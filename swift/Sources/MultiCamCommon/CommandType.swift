@@ -22,4 +22,16 @@ public enum CommandType: String, Codable, CaseIterable {
 
     /// Upload video file to cloud using presigned S3 URL
     case uploadToCloud = "UPLOAD_TO_CLOUD"
+
+    /// Whether the command only reads device state, so sending it twice has
+    /// no effect beyond a second reply. Such commands may be retried or
+    /// hedged freely.
+    public var isIdempotent: Bool {
+        switch self {
+        case .deviceStatus, .heartbeat, .listFiles:
+            return true
+        case .startRecording, .stopRecording, .getVideo, .uploadToCloud:
+            return false
+        }
+    }
 }
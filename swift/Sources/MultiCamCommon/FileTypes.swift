@@ -48,16 +48,31 @@ public struct FileResponse: Codable {
     /// Status (typically "ready")
     public let status: String
 
+    /// First byte of the file carried by the payload, nil if the payload is the whole file
+    public let offset: Int64?
+
+    /// Number of payload bytes, nil if the payload is the whole file
+    public let length: Int64?
+
     public init(
         deviceId: String,
         fileName: String,
         fileSize: Int64,
-        status: String
+        status: String,
+        offset: Int64? = nil,
+        length: Int64? = nil
     ) {
         self.deviceId = deviceId
         self.fileName = fileName
         self.fileSize = fileSize
         self.status = status
+        self.offset = offset
+        self.length = length
+    }
+
+    /// Number of payload bytes that follow the header
+    public var payloadSize: Int64 {
+        return length ?? fileSize - (offset ?? 0)
     }
 
     // MARK: - Serialization
@@ -96,16 +111,21 @@ public struct ListFilesResponse: Codable {
     /// List of available files
     public let files: [FileMetadata]
 
+    /// Correlation ID echoed from the command, nil if the command carried none
+    public let requestId: Int64?
+
     public init(
         deviceId: String,
         status: String,
         timestamp: TimeInterval,
-        files: [FileMetadata]
+        files: [FileMetadata],
+        requestId: Int64? = nil
     ) {
         self.deviceId = deviceId
         self.status = status
         self.timestamp = timestamp
         self.files = files
+        self.requestId = requestId
     }
 
     // MARK: - Serialization
@@ -145,18 +165,23 @@ public struct StopRecordingResponse: Codable {
     /// File size in bytes
     public let fileSize: Int64
 
+    /// Correlation ID echoed from the command, nil if the command carried none
+    public let requestId: Int64?
+
     public init(
         deviceId: String,
         status: String,
         timestamp: TimeInterval,
         fileName: String,
-        fileSize: Int64
+        fileSize: Int64,
+        requestId: Int64? = nil
     ) {
         self.deviceId = deviceId
         self.status = status
         self.timestamp = timestamp
         self.fileName = fileName
         self.fileSize = fileSize
+        self.requestId = requestId
     }
 
     // MARK: - Serialization
@@ -193,16 +218,21 @@ public struct ErrorResponse: Codable {
     /// Human-readable error message
     public let message: String
 
+    /// Correlation ID echoed from the command, nil if the command carried none
+    public let requestId: Int64?
+
     public init(
         deviceId: String,
         status: String,
         timestamp: TimeInterval,
-        message: String
+        message: String,
+        requestId: Int64? = nil
     ) {
         self.deviceId = deviceId
         self.status = status
         self.timestamp = timestamp
         self.message = message
+        self.requestId = requestId
     }
 
     // MARK: - Serialization
@@ -23,6 +23,12 @@ public struct StatusResponse: Codable {
     /// Failed upload queue
     public let failedUploadQueue: [UploadItem]
 
+    /// Optional protocol features supported by the device, nil if not advertised
+    public let capabilities: [String]?
+
+    /// Correlation ID echoed from the command, nil if the command carried none
+    public let requestId: Int64?
+
     public init(
         deviceId: String,
         status: String,
@@ -30,7 +36,9 @@ public struct StatusResponse: Codable {
         batteryLevel: Double? = nil,
         deviceType: String? = nil,
         uploadQueue: [UploadItem] = [],
-        failedUploadQueue: [UploadItem] = []
+        failedUploadQueue: [UploadItem] = [],
+        capabilities: [String]? = nil,
+        requestId: Int64? = nil
     ) {
         self.deviceId = deviceId
         self.status = status
@@ -39,6 +47,8 @@ public struct StatusResponse: Codable {
         self.deviceType = deviceType
         self.uploadQueue = uploadQueue
         self.failedUploadQueue = failedUploadQueue
+        self.capabilities = capabilities
+        self.requestId = requestId
     }
 
     /// Get the status as a DeviceStatus enum value